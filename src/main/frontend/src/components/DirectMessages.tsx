@@ -113,10 +113,11 @@ const DirectMessages = ({
     } catch (e) { setActiveMessages([]); }
   };
 
-  const markMessagesAsRead = async () => {
+  const markMessagesAsRead = async (peer: string) => {
     if (!user) return;
     try {
-      const params = new URLSearchParams([["username", user.username]]);
+      // jen otevřená konverzace, ostatní peery nechat nepřečtené
+      const params = new URLSearchParams([["username", user.username], ["peer", peer]]);
       await axios.post(MARK_READ_URL, null, { params });
     } catch (e) { }
   };
@@ -132,7 +133,7 @@ const DirectMessages = ({
     } catch (error) { loadDirectHistory(targetUser); }
     
     setIsDialogOpen(true);
-    markMessagesAsRead();
+    markMessagesAsRead(targetUser);
     
     if (clearUnreadForUser) {
         clearUnreadForUser(targetUser);
@@ -8,13 +8,14 @@ import DescriptionIcon from '@mui/icons-material/Description';
 import SockJS from "sockjs-client";
 import { Client, IMessage } from "@stomp/stompjs";
 import axios from "axios";
-import { PayloadMessage, UserToken } from "../types";
+import { HistoryPage, PayloadMessage, UserToken } from "../types";
 import DirectMessages from "./DirectMessages";
 import Avatar from "./Avatar";
 import AvatarSelector from "./AvatarSelector";
 
 const SOCKET_URL = "http://localhost:8081/ws";
-const HISTORY_URL = "http://localhost:8081/api/history";
+const HISTORY_PAGE_URL = "http://localhost:8081/api/history/page";
+const HISTORY_PAGE_SIZE = 50;
 const USERS_URL = "http://localhost:8081/users";
 const USER_API_URL = "http://localhost:8081/api/user";
 const FILE_UPLOAD_URL = "http://localhost:8081/api/upload-file";
@@ -127,6 +128,12 @@ const MainPage = (props: { user: UserToken | null; setUserToken: (token: UserTok
   const stompClientRef = useRef<Client | null>(null);
   const messagesEndRef = useRef<HTMLDivElement>(null);
   const isFetchingDataRef = useRef(false);
+
+  // Keyset stránkování historie: kurzor na nejstarší načtenou zprávu
+  const oldestCursorRef = useRef<string | undefined>(undefined);
+  const hasOlderRef = useRef(false);
+  const loadingOlderRef = useRef(false);
+  const skipAutoScrollRef = useRef(false);
   
   // --- NOVÉ: Ref pro sledování zpracovaných ID (zabraňuje dvojímu započítání) ---
   const processedIdsRef = useRef<Set<string>>(new Set());
@@ -218,9 +225,11 @@ const MainPage = (props: { user: UserToken | null; setUserToken: (token: UserTok
             loadUserAvatar();
             restoreConversations();
 
-            const params = new URLSearchParams([["chatRoomId", "1"], ["username", props.user!.username]]);
-            const historyResponse = await axios.get<PayloadMessage[]>(HISTORY_URL, { params });
-            let finalMessages = historyResponse.data || [];
+            const params = new URLSearchParams([["chatRoomId", "1"], ["username", props.user!.username], ["limit", String(HISTORY_PAGE_SIZE)]]);
+            const historyResponse = await axios.get<HistoryPage>(HISTORY_PAGE_URL, { params });
+            oldestCursorRef.current = historyResponse.data?.oldestId;
+            hasOlderRef.current = !!historyResponse.data?.hasMore;
+            let finalMessages = historyResponse.data?.messages || [];
 
             const storedPending = localStorage.getItem(PENDING_MESSAGES_KEY);
             if (storedPending) {
@@ -277,6 +286,8 @@ const MainPage = (props: { user: UserToken | null; setUserToken: (token: UserTok
         setUnreadPublicMessages(0);
         setCurrentTab(0);
         processedIdsRef.current.clear(); // Vyčistit cache ID
+        oldestCursorRef.current = undefined;
+        hasOlderRef.current = false;
         isFetchingDataRef.current = false;
     }
     if (props.user?.username) localStorage.setItem('lastUser', props.user.username);
@@ -301,6 +312,12 @@ const MainPage = (props: { user: UserToken | null; setUserToken: (token: UserTok
             // Pokud jsme zprávu už zpracovali (podle ID), ignorujeme ji
             if (payload.id && processedIdsRef.current.has(payload.id)) return;
             if (payload.id) processedIdsRef.current.add(payload.id);
+
+            // Echo vlastní zprávy: lokální kopie dostane serverové ID
+            if (payload.clientId && processedIdsRef.current.has(payload.clientId)) {
+               setMessages(prev => prev.map(m => m.id === payload.clientId ? { ...m, id: payload.id } : m));
+               return;
+            }
             
             // Aktualizace stavu
             setMessages((prev) => {
@@ -347,6 +364,10 @@ const MainPage = (props: { user: UserToken | null; setUserToken: (token: UserTok
                 // 2. Aktualizace konverzace
                 setConversations(prev => {
                     const currentMsgs = prev[otherParty] || [];
+                    // Echo vlastní zprávy: lokální kopie dostane serverové ID
+                    if (payload.clientId && currentMsgs.some(m => m.id === payload.clientId)) {
+                        return { ...prev, [otherParty]: currentMsgs.map(m => m.id === payload.clientId ? { ...m, id: payload.id } : m) };
+                    }
                     // Fallback kontrola
                     const isDuplicate = currentMsgs.slice(-20).some(m => isSameMessage(m, payload));
                     if (isDuplicate) return prev;
@@ -370,7 +391,35 @@ const MainPage = (props: { user: UserToken | null; setUserToken: (token: UserTok
     };
   }, [isLoggedIn, props.user?.username]);
 
-  useEffect(() => { scrollToBottom(); }, [messages, currentTab]);
+  useEffect(() => {
+    if (skipAutoScrollRef.current) { skipAutoScrollRef.current = false; return; }
+    scrollToBottom();
+  }, [messages, currentTab]);
+
+  const loadOlderHistory = async () => {
+    if (!props.user || loadingOlderRef.current || !hasOlderRef.current || !oldestCursorRef.current) return;
+    loadingOlderRef.current = true;
+    try {
+      const params = new URLSearchParams([
+        ["chatRoomId", "1"], ["username", props.user.username],
+        ["before", oldestCursorRef.current], ["limit", String(HISTORY_PAGE_SIZE)]
+      ]);
+      const result = await axios.get<HistoryPage>(HISTORY_PAGE_URL, { params });
+      const older = result.data?.messages || [];
+      if (result.data?.oldestId) oldestCursorRef.current = result.data.oldestId;
+      hasOlderRef.current = !!result.data?.hasMore;
+      if (older.length > 0) {
+        older.forEach(m => { if (m.id) processedIdsRef.current.add(m.id); });
+        skipAutoScrollRef.current = true;
+        setMessages(prev => sortMessages([...older, ...prev]));
+      }
+    } catch (e) { console.error("History page error:", e); }
+    finally { loadingOlderRef.current = false; }
+  };
+
+  const handleHistoryScroll = (event: React.UIEvent<HTMLDivElement>) => {
+    if (event.currentTarget.scrollTop === 0) loadOlderHistory();
+  };
 
   const handleFileUpload = async (file: File, id: string) => {
     if (!props.user) throw new Error('User not available');
@@ -510,7 +559,7 @@ const MainPage = (props: { user: UserToken | null; setUserToken: (token: UserTok
       </Box>
       {currentTab === 0 && (
         <Box sx={{ flex: 1, display: 'flex', flexDirection: 'column', p: 2, position: 'relative', overflow: 'hidden' }}>
-          <Paper sx={{ flex: 1, p: 2, mb: 2, overflow: 'auto', backgroundColor: '#f5f5f5', maxHeight: 'calc(100% - 80px)' }}>
+          <Paper onScroll={handleHistoryScroll} sx={{ flex: 1, p: 2, mb: 2, overflow: 'auto', backgroundColor: '#f5f5f5', maxHeight: 'calc(100% - 80px)' }}>
             <List>{sortMessages(messages).map((msg, index) => (<ChatMessageItem key={index} msg={msg} isOwnMessage={msg.senderName === props.user?.username} userAvatar={userAvatar} />))}<div ref={messagesEndRef} /></List>
           </Paper>
           <Box sx={{ position: 'absolute', bottom: 0, left: 0, right: 0, p: 2, backgroundColor: 'white', borderTop: '1px solid #e0e0e0' }}>
@@ -12,6 +12,14 @@ export interface PayloadMessage {
   notificationType?: string;
   
   id?: string; 
+  clientId?: string;
+}
+
+export interface HistoryPage {
+  messages: PayloadMessage[];
+  oldestId?: string;
+  newestId?: string;
+  hasMore: boolean;
 }
 
 export interface User {
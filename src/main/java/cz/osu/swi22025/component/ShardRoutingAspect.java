@@ -0,0 +1,143 @@
+package cz.osu.swi22025.component;
+
+import cz.osu.swi22025.model.DirectMessage;
+import cz.osu.swi22025.model.Message;
+import cz.osu.swi22025.model.ShardKey;
+import cz.osu.swi22025.service.ShardService;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Směruje volání MessageRepository a DirectMessageRepository na shard.
+ * <ul>
+ *   <li>parametr {@link ShardKey} (chatId / conversation key) nebo ukládaná entita určí jeden shard,
+ *       kolekce entit (saveAll) se rozdělí po shardech,</li>
+ *   <li>uvnitř {@link ShardService#onShard} bez klíče se zůstane na aktuálním shardu,</li>
+ *   <li>jinak se dotaz pustí na všechny shardy a výsledky se sloučí podle návratového typu:
+ *       kolekce spojí, int/long sečte, boolean ORuje, Long (MIN server_id) vezme nejmenší,
+ *       Optional / entita první nalezenou. Pořadí napříč shardy se nezachovává.</li>
+ * </ul>
+ */
+@Aspect
+@Component
+public class ShardRoutingAspect {
+
+    private final ObjectProvider<ShardService> shardService;
+
+    public ShardRoutingAspect(ObjectProvider<ShardService> shardService) {
+        this.shardService = shardService;
+    }
+
+    @Around("target(cz.osu.swi22025.model.MessageRepository) || target(cz.osu.swi22025.model.DirectMessageRepository)")
+    public Object route(ProceedingJoinPoint pjp) throws Throwable {
+        Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+        ShardService shards = shardService.getObject();
+        if (!shards.isEnabled() || method.getDeclaringClass() == Object.class) return pjp.proceed();
+
+        Object[] args = pjp.getArgs();
+        Integer keyed = shardFromKey(shards, method, args);
+        if (keyed != null) return proceedOn(shards, keyed, pjp, args);
+
+        if (args.length == 1 && (args[0] instanceof Message || args[0] instanceof DirectMessage)) {
+            return proceedOn(shards, shardOf(shards, args[0]), pjp, args);
+        }
+        if (args.length == 1 && args[0] instanceof Iterable<?> entities && isEntities(entities)) {
+            return proceedGrouped(shards, pjp, entities);
+        }
+        if (ShardService.currentShard() != null) return pjp.proceed();
+
+        List<Object> results = new ArrayList<>();
+        for (int shard = 0; shard < shards.shardCount(); shard++) {
+            results.add(proceedOn(shards, shard, pjp, args));
+        }
+        return merge(method.getReturnType(), results);
+    }
+
+    private static Integer shardFromKey(ShardService shards, Method method, Object[] args) {
+        Annotation[][] annotations = method.getParameterAnnotations();
+        for (int i = 0; i < annotations.length; i++) {
+            for (Annotation annotation : annotations[i]) {
+                if (!(annotation instanceof ShardKey)) continue;
+                if (args[i] instanceof Integer chatId) return shards.roomShard(chatId);
+                if (args[i] instanceof String key) return shards.conversationShard(key);
+            }
+        }
+        return null;
+    }
+
+    private static int shardOf(ShardService shards, Object entity) {
+        if (entity instanceof Message message) {
+            return shards.roomShard(message.getChatRoom().getChatId());
+        }
+        DirectMessage dm = (DirectMessage) entity;
+        // klíč doplňuje až @PrePersist
+        String key = dm.getConversationKey() != null ? dm.getConversationKey()
+                : DirectMessage.conversationKey(dm.getSender().getUserId(), dm.getReceiver().getUserId());
+        return shards.conversationShard(key);
+    }
+
+    private static boolean isEntities(Iterable<?> items) {
+        var iterator = items.iterator();
+        if (!iterator.hasNext()) return false;
+        Object first = iterator.next();
+        return first instanceof Message || first instanceof DirectMessage;
+    }
+
+    private static Object proceedGrouped(ShardService shards, ProceedingJoinPoint pjp, Iterable<?> entities) {
+        Map<Integer, List<Object>> groups = new LinkedHashMap<>();
+        for (Object entity : entities) {
+            groups.computeIfAbsent(shardOf(shards, entity), s -> new ArrayList<>()).add(entity);
+        }
+        List<Object> saved = new ArrayList<>();
+        groups.forEach((shard, group) -> {
+            Object result = proceedOn(shards, shard, pjp, new Object[]{group});
+            if (result instanceof Iterable<?> items) items.forEach(saved::add);
+        });
+        return saved;
+    }
+
+    private static Object proceedOn(ShardService shards, int shard, ProceedingJoinPoint pjp, Object[] args) {
+        return shards.onShard(shard, () -> {
+            try {
+                return pjp.proceed(args);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static Object merge(Class<?> type, List<Object> results) {
+        if (type == void.class) return null;
+        if (Iterable.class.isAssignableFrom(type)) {
+            List<Object> all = new ArrayList<>();
+            for (Object result : results) ((Iterable<?>) result).forEach(all::add);
+            return all;
+        }
+        if (type == boolean.class || type == Boolean.class) {
+            return results.stream().anyMatch(Boolean.TRUE::equals);
+        }
+        if (type == int.class) return results.stream().mapToInt(r -> (Integer) r).sum();
+        if (type == long.class) return results.stream().mapToLong(r -> (Long) r).sum();
+        if (type == Long.class) {
+            return results.stream().filter(r -> r != null).map(Long.class::cast).min(Long::compare).orElse(null);
+        }
+        if (type == Optional.class) {
+            return results.stream().map(Optional.class::cast).filter(Optional::isPresent).findFirst().orElse(Optional.empty());
+        }
+        return results.stream().filter(r -> r != null).findFirst().orElse(null);
+    }
+}
@@ -0,0 +1,75 @@
+package cz.osu.swi22025.component;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Kdo má právě otevřený odběr které STOMP destinace.
+ * <p>
+ * Klienti nemají principal a odebírají /user/{name}/... doslova, takže SimpUserRegistry o nich
+ * neví. Odběry se proto sledují z událostí SUBSCRIBE / UNSUBSCRIBE / DISCONNECT.
+ */
+@Component
+public class StompSubscriptionTracker {
+
+    // session -> (subscription id -> destinace)
+    private final Map<String, Map<String, String>> sessions = new ConcurrentHashMap<>();
+    // destinace -> "session/subscription"
+    private final Map<String, Set<String>> destinations = new ConcurrentHashMap<>();
+
+    public boolean hasSubscribers(String destination) {
+        Set<String> subscribers = destinations.get(destination);
+        return subscribers != null && !subscribers.isEmpty();
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor headers = StompHeaderAccessor.wrap(event.getMessage());
+        String sessionId = headers.getSessionId();
+        String subscriptionId = headers.getSubscriptionId();
+        String destination = headers.getDestination();
+        if (sessionId == null || subscriptionId == null || destination == null) return;
+        sessions.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>()).put(subscriptionId, destination);
+        // add uvnitř compute – souběžné odebrání posledního odběru nesmí zahodit právě přidaný
+        destinations.compute(destination, (d, subscribers) -> {
+            Set<String> result = subscribers != null ? subscribers : ConcurrentHashMap.newKeySet();
+            result.add(sessionId + "/" + subscriptionId);
+            return result;
+        });
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor headers = StompHeaderAccessor.wrap(event.getMessage());
+        String sessionId = headers.getSessionId();
+        String subscriptionId = headers.getSubscriptionId();
+        if (sessionId == null || subscriptionId == null) return;
+        Map<String, String> subscriptions = sessions.get(sessionId);
+        if (subscriptions == null) return;
+        String destination = subscriptions.remove(subscriptionId);
+        if (destination != null) remove(destination, sessionId + "/" + subscriptionId);
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        Map<String, String> subscriptions = sessions.remove(event.getSessionId());
+        if (subscriptions == null) return;
+        subscriptions.forEach((subscriptionId, destination) ->
+                remove(destination, event.getSessionId() + "/" + subscriptionId));
+    }
+
+    private void remove(String destination, String subscriber) {
+        destinations.computeIfPresent(destination, (d, subscribers) -> {
+            subscribers.remove(subscriber);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+}
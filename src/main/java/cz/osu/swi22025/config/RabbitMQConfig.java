@@ -1,5 +1,6 @@
 package cz.osu.swi22025.config;
 
+import jakarta.annotation.PostConstruct;
 import org.springframework.amqp.core.*;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.annotation.EnableRabbit;
@@ -8,9 +9,16 @@ import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.DefaultJackson2JavaTypeMapper;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
 // @EnableRabbit
 @Configuration
 public class RabbitMQConfig {
@@ -23,7 +31,21 @@ public class RabbitMQConfig {
     @Value("${spring.rabbitmq.password}")
     private String password;
 
-    public static final String CHATROOM_EXCHANGE = "chatroom.exchange";
+    // Fronty uživatelů: omezená délka, TTL zpráv, zánik nepoužívané fronty, typ fronty
+    @Value("${chat.queue.max-length:0}")
+    private long queueMaxLength;
+    @Value("${chat.queue.overflow:drop-head}")
+    private String queueOverflow;
+    @Value("${chat.queue.message-ttl:}")
+    private String queueMessageTtl;
+    @Value("${chat.queue.expires:}")
+    private String queueExpires;
+    @Value("${chat.queue.type:classic}")
+    private String queueType;
+
+    // Topic exchange: místnosti "room.<chatId>", DM "user.<userId>". Dřívější fanout
+    // "chatroom.exchange" nejde na brokeru předeklarovat jako topic, proto nové jméno.
+    public static final String CHATROOM_EXCHANGE = "chatroom.topic";
 
     @Bean
     public Jackson2JsonMessageConverter jackson2JsonMessageConverter() {
@@ -49,15 +71,52 @@ public class RabbitMQConfig {
     }
 
     @Bean
-    public FanoutExchange chatroomExchange() {
-        return new FanoutExchange(CHATROOM_EXCHANGE);
+    public TopicExchange chatroomExchange() {
+        return new TopicExchange(CHATROOM_EXCHANGE);
+    }
+
+    public static String roomRoutingKey(Integer chatId) {
+        return "room." + chatId;
+    }
+
+    public static String userRoutingKey(UUID userId) {
+        return "user." + userId;
     }
 
+    @PostConstruct
+    void validateQueueArguments() {
+        userQueueArguments(); // chybná konfigurace má shodit start, ne první login
+    }
+
+    // Argumenty platí jen při založení – existující fronta si nechává své (jiné by broker odmítl)
     public Queue createUserQueue(String userId) {
-        return new Queue("chatroom.queue." + userId, true);
+        return new Queue("chatroom.queue." + userId, true, false, false, userQueueArguments());
+    }
+
+    public Map<String, Object> userQueueArguments() {
+        Map<String, Object> arguments = new HashMap<>();
+        if (queueMaxLength > 0) {
+            arguments.put("x-max-length", queueMaxLength);
+            arguments.put("x-overflow", queueOverflow.trim());
+        }
+        Duration messageTtl = duration(queueMessageTtl);
+        if (messageTtl != null) arguments.put("x-message-ttl", messageTtl.toMillis());
+        Duration expires = duration(queueExpires);
+        if (expires != null) arguments.put("x-expires", expires.toMillis());
+        switch (queueType.trim().toLowerCase(Locale.ROOT)) {
+            case "quorum" -> arguments.put("x-queue-type", "quorum");
+            case "lazy" -> arguments.put("x-queue-mode", "lazy");
+            case "classic" -> { }
+            default -> throw new IllegalArgumentException("Unknown chat.queue.type: " + queueType);
+        }
+        return arguments;
+    }
+
+    private static Duration duration(String value) {
+        return value == null || value.isBlank() ? null : DurationStyle.detectAndParse(value.trim());
     }
 
-    public Binding bindUserQueue(Queue queue, FanoutExchange exchange) {
-        return BindingBuilder.bind(queue).to(exchange);
+    public Binding bindUserQueue(Queue queue, TopicExchange exchange, String routingKey) {
+        return BindingBuilder.bind(queue).to(exchange).with(routingKey);
     }
 }
@@ -0,0 +1,78 @@
+package cz.osu.swi22025.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Volitelné čtecí repliky ({@code chat.datasource.replicas}, JDBC URL oddělené čárkou).
+ * Bez nich zůstává jediný datasource ze Spring Boot auto-konfigurace.
+ * <p>
+ * Lokálně stačí druhá H2 (např. {@code jdbc:h2:mem:testdb} – stejná in-memory databáze
+ * pod druhým poolem) nebo PostgreSQL standby se streaming replikací.
+ */
+@Configuration
+@ConditionalOnExpression("!'${chat.datasource.replicas:}'.isBlank()")
+public class ReplicaDataSourceConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean(destroyMethod = "close")
+    public ReplicaRoutingDataSource replicaRoutingDataSource(@Qualifier("primaryDataSource") DataSource primary,
+                                                             DataSourceProperties properties,
+                                                             MeterRegistry meterRegistry,
+                                                             @Value("${chat.datasource.replicas}") String replicas,
+                                                             @Value("${chat.datasource.replica-username:}") String username,
+                                                             @Value("${chat.datasource.replica-password:}") String password,
+                                                             @Value("${chat.datasource.replica-max-lag-ms:5000}") long maxLagMs) {
+        List<HikariDataSource> replicaDataSources = new ArrayList<>();
+        int index = 0;
+        for (String url : replicas.split(",")) {
+            if (url.isBlank()) continue;
+            HikariDataSource replica = new HikariDataSource();
+            replica.setPoolName("replica-" + index++);
+            replica.setJdbcUrl(url.trim());
+            replica.setDriverClassName(properties.determineDriverClassName());
+            // bez vlastních přihlašovacích údajů stejné jako primární
+            replica.setUsername(username.isBlank() ? properties.determineUsername() : username);
+            replica.setPassword(username.isBlank() ? properties.determinePassword() : password);
+            replica.setReadOnly(true);
+            // nedostupná replika nesmí zdržet start ani čtení – spadne se na primární
+            replica.setInitializationFailTimeout(-1);
+            replica.setConnectionTimeout(2000);
+            replicaDataSources.add(replica);
+        }
+        return new ReplicaRoutingDataSource(primary, replicaDataSources, maxLagMs, meterRegistry);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+
+    // Hibernate jinak drží spojení po celý EntityManager (s open-in-view celý request),
+    // takže by read-only transakce a následný zápis sdílely stejný cíl
+    @Bean
+    public HibernatePropertiesCustomizer releaseConnectionAfterTransaction() {
+        return properties -> properties.put("hibernate.connection.handling_mode",
+                "DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION");
+    }
+}
@@ -0,0 +1,159 @@
+package cz.osu.swi22025.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import cz.osu.swi22025.service.MessageIdGenerator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Směruje spojení read-only transakcí ({@code @Transactional(readOnly = true)}) na repliky,
+ * vše ostatní na primární databázi.
+ * <p>
+ * Rozhoduje se při skutečném získání spojení, proto musí být obalen
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy} – ten spojení
+ * vyzvedne až u prvního dotazu, kdy už je příznak read-only transakce nastavený.
+ * Repliky se střídají dokola; nedostupná replika nebo replika se zpožděním nad
+ * {@code maxLagMs} se přeskočí, a když nezbude žádná, čte se z primární.
+ * <p>
+ * Zpoždění se měří podle nejnovějšího server_id v tabulkách zpráv (nese čas odeslání,
+ * viz MessageIdGenerator) – funguje stejně na PostgreSQL replikách i na dvou H2 instancích.
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource implements AutoCloseable {
+
+    private static final List<String> LAG_TABLES = List.of("message", "direct_message");
+
+    private static final class Replica {
+        final String url;
+        final HikariDataSource dataSource;
+        volatile boolean available = true;
+        volatile long lagMs;
+
+        Replica(String url, HikariDataSource dataSource) {
+            this.url = url;
+            this.dataSource = dataSource;
+        }
+    }
+
+    private final DataSource primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final long maxLagMs;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final Counter replicaReads;
+    private final Counter primaryReads;
+
+    public ReplicaRoutingDataSource(DataSource primary, List<HikariDataSource> replicaDataSources,
+                                    long maxLagMs, MeterRegistry meterRegistry) {
+        this.primary = primary;
+        this.maxLagMs = maxLagMs;
+        for (HikariDataSource dataSource : replicaDataSources) {
+            Replica replica = new Replica(dataSource.getJdbcUrl(), dataSource);
+            replicas.add(replica);
+            Gauge.builder("chat.datasource.replica.lag", replica, r -> r.lagMs)
+                    .tag("replica", dataSource.getPoolName())
+                    .baseUnit("milliseconds")
+                    .description("Age of the newest message the replica is missing")
+                    .register(meterRegistry);
+            Gauge.builder("chat.datasource.replica.available", replica, r -> r.available ? 1 : 0)
+                    .tag("replica", dataSource.getPoolName())
+                    .description("Whether reads are currently routed to the replica")
+                    .register(meterRegistry);
+        }
+        this.replicaReads = Counter.builder("chat.datasource.reads")
+                .tag("target", "replica")
+                .description("Read-only transactions served by a replica")
+                .register(meterRegistry);
+        this.primaryReads = Counter.builder("chat.datasource.reads")
+                .tag("target", "primary")
+                .description("Read-only transactions that fell back to the primary")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return primary.getConnection();
+        }
+        int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (!replica.available || replica.lagMs > maxLagMs) continue;
+            try {
+                Connection connection = replica.dataSource.getConnection();
+                replicaReads.increment();
+                return connection;
+            } catch (SQLException e) {
+                // do další kontroly se replika nepoužije
+                replica.available = false;
+                System.out.println("Replika " + replica.url + " nedostupná: " + e.getMessage());
+            }
+        }
+        primaryReads.increment();
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return primary.getConnection(username, password);
+    }
+
+    /** Přeměří zpoždění replik a vrátí do hry ty, které jsou zase dostupné. */
+    @Scheduled(fixedDelayString = "${chat.datasource.replica-check-interval-ms:2000}")
+    public void checkReplicas() {
+        long[] primaryMax;
+        try {
+            primaryMax = maxServerIds(primary);
+        } catch (RuntimeException e) {
+            return; // bez primární není s čím porovnávat
+        }
+        for (Replica replica : replicas) {
+            try {
+                long[] replicaMax = maxServerIds(replica.dataSource);
+                long lag = 0;
+                for (int i = 0; i < primaryMax.length; i++) {
+                    if (primaryMax[i] > replicaMax[i]) {
+                        lag = Math.max(lag, MessageIdGenerator.timestampOf(primaryMax[i]).toEpochMilli()
+                                - MessageIdGenerator.timestampOf(replicaMax[i]).toEpochMilli());
+                    }
+                }
+                replica.lagMs = lag;
+                if (!replica.available) {
+                    System.out.println("Replika " + replica.url + " opět dostupná");
+                }
+                replica.available = true;
+            } catch (RuntimeException e) {
+                if (replica.available) {
+                    System.out.println("Replika " + replica.url + " nedostupná: " + e.getMessage());
+                }
+                replica.available = false;
+            }
+        }
+    }
+
+    private static long[] maxServerIds(DataSource dataSource) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        long[] result = new long[LAG_TABLES.size()];
+        for (int i = 0; i < LAG_TABLES.size(); i++) {
+            Long max = jdbcTemplate.queryForObject("SELECT MAX(server_id) FROM " + LAG_TABLES.get(i), Long.class);
+            result[i] = max != null ? max : 0;
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        replicas.forEach(replica -> replica.dataSource.close());
+    }
+}
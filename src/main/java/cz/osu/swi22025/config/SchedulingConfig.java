@@ -0,0 +1,10 @@
+package cz.osu.swi22025.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+// Údržba na pozadí: partitiony dopředu, archivace starých měsíců
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
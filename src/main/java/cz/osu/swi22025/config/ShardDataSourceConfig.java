@@ -0,0 +1,93 @@
+package cz.osu.swi22025.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.spi.BootstrapContext;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shardování zpráv podle místnosti / konverzace ({@code chat.sharding.shards}, JDBC URL oddělené čárkou).
+ * Datasource aplikace (i s případnými replikami) se obalí {@link ShardRoutingDataSource};
+ * globální tabulky zůstávají na primární DB, schéma shardů zakládá ShardSetupService.
+ */
+@Configuration
+@ConditionalOnExpression("!'${chat.sharding.shards:}'.isBlank()")
+public class ShardDataSourceConfig {
+
+    @Bean
+    public static BeanPostProcessor shardRoutingDataSourcePostProcessor(Environment environment) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!"dataSource".equals(beanName) || !(bean instanceof DataSource primary)) return bean;
+                return new ShardRoutingDataSource(primary, createShards(environment));
+            }
+        };
+    }
+
+    private static List<HikariDataSource> createShards(Environment environment) {
+        String username = environment.getProperty("chat.sharding.username", "");
+        String password = environment.getProperty("chat.sharding.password", "");
+        List<HikariDataSource> shards = new ArrayList<>();
+        for (String url : environment.getRequiredProperty("chat.sharding.shards").split(",")) {
+            if (url.isBlank()) continue;
+            HikariDataSource shard = new HikariDataSource();
+            shard.setPoolName("shard-" + (shards.size() + 1));
+            shard.setJdbcUrl(url.trim());
+            // bez vlastních přihlašovacích údajů stejné jako primární
+            shard.setUsername(username.isBlank() ? environment.getProperty("spring.datasource.username") : username);
+            shard.setPassword(username.isBlank() ? environment.getProperty("spring.datasource.password") : password);
+            shards.add(shard);
+        }
+        return shards;
+    }
+
+    @Bean
+    public HibernateMetadataHolder hibernateMetadataHolder() {
+        return new HibernateMetadataHolder();
+    }
+
+    // Metadata mapování potřebuje ShardSetupService, aby založil stejné schéma na shardech
+    @Bean
+    public HibernatePropertiesCustomizer hibernateMetadataCapture(HibernateMetadataHolder holder) {
+        return properties -> properties.put("hibernate.integrator_provider",
+                (IntegratorProvider) () -> List.of(holder));
+    }
+
+    public static class HibernateMetadataHolder implements Integrator {
+        private volatile Metadata metadata;
+        private volatile SessionFactoryImplementor sessionFactory;
+
+        @Override
+        public void integrate(Metadata metadata, BootstrapContext bootstrapContext,
+                              SessionFactoryImplementor sessionFactory) {
+            this.metadata = metadata;
+            this.sessionFactory = sessionFactory;
+        }
+
+        @Override
+        public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+        }
+
+        public Metadata getMetadata() {
+            return metadata;
+        }
+
+        public SessionFactoryImplementor getSessionFactory() {
+            return sessionFactory;
+        }
+    }
+}
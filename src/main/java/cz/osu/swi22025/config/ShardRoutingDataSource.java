@@ -0,0 +1,59 @@
+package cz.osu.swi22025.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import cz.osu.swi22025.service.ShardService;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Datasource aplikace při shardování zpráv: spojení jde na shard nastavený v
+ * {@link ShardService#currentShard()}, bez něj (a pro shard 0) na primární databázi.
+ * Shard 0 je primární DB, shardy 1..N jsou {@code chat.sharding.shards}.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource implements AutoCloseable {
+
+    private final DataSource primary;
+    private final List<HikariDataSource> shards;
+
+    public ShardRoutingDataSource(DataSource primary, List<HikariDataSource> shards) {
+        this.primary = primary;
+        this.shards = shards;
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(0, primary);
+        for (int i = 0; i < shards.size(); i++) {
+            targets.put(i + 1, shards.get(i));
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        setLenientFallback(false);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return ShardService.currentShard();
+    }
+
+    public int shardCount() {
+        return shards.size() + 1;
+    }
+
+    /** Přímý datasource shardu (mimo směrování – pro kopírování mezi shardy). */
+    public DataSource shard(int shard) {
+        return shard == 0 ? primary : shards.get(shard - 1);
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (HikariDataSource shard : shards) {
+            shard.close();
+        }
+        if (primary instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+}
@@ -1,9 +1,16 @@
 package cz.osu.swi22025.controller;
 
+import cz.osu.swi22025.model.json.HistoryPage;
 import cz.osu.swi22025.model.json.PayloadMessage;
+import cz.osu.swi22025.model.json.SearchPage;
+import cz.osu.swi22025.model.json.UnreadCounts;
 import cz.osu.swi22025.service.*;
 import cz.osu.swi22025.model.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.handler.annotation.SendTo;
@@ -12,9 +19,12 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
-import java.util.UUID;
 import java.util.stream.Collectors;
 
 @Controller
@@ -29,32 +39,62 @@ public class ChatController {
     @Autowired private DirectMessageRepository directMessageRepository;
     @Autowired private UserRepository userRepository;
     @Autowired private ChatRoomRepository chatRoomRepository;
+    @Autowired private MessageIdGenerator messageIdGenerator;
+    @Autowired private MessagePersistenceService messagePersistenceService;
+    @Autowired private RecentMessageCache recentMessageCache;
+    @Autowired private UnreadCounterService unreadCounterService;
+    @Autowired private MessageArchiveService messageArchiveService;
+    @Autowired private SearchIndexService searchIndexService;
+    @Autowired private EventStreamService eventStreamService;
+
+    private static final int DEFAULT_HISTORY_LIMIT = 50;
+    private static final int MAX_HISTORY_LIMIT = 200;
+
+    // server_id se přiděluje před commitem – kurzor "za" smí dojít jen k ID starším než tohle okno
+    @Value("${chat.history.commit-lag-ms:2000}")
+    private long commitLagMs;
 
     @MessageMapping("/message")
     @SendTo("/chatroom/1")
     public PayloadMessage receivePublicMessage(@Payload PayloadMessage message) {
-
-        if (message.getId() == null || message.getId().isBlank()) {
-            message.setId(UUID.randomUUID().toString());
-        }
-
         return savePublicMessageToDB(message);
     }
 
     @PostMapping("/api/message")
     @ResponseBody
     public PayloadMessage postPublicMessage(@RequestBody PayloadMessage message) {
-
-        if (message.getId() == null || message.getId().isBlank()) {
-            message.setId(UUID.randomUUID().toString());
-        }
-
         PayloadMessage saved = savePublicMessageToDB(message);
         messagingTemplate.convertAndSend("/chatroom/" + saved.getReceiverChatRoomId(), saved);
         return saved;
     }
 
+    // Normalizuje typ zprávy v payloadu a vrátí přílohu k uložení (null u textu)
+    private Attachment toAttachment(PayloadMessage message) {
+        if (message.getFileUrl() == null || message.getFileUrl().isBlank()) {
+            message.setMessageType("TEXT");
+            return null;
+        }
+
+        String fileName = message.getFileName() != null ? message.getFileName() : message.getContent();
+        boolean isImage = "IMAGE".equalsIgnoreCase(message.getMessageType()) || fileService.isImageFile(fileName);
+        message.setMessageType(isImage ? "IMAGE" : "FILE");
+        if (message.getMimeType() == null) message.setMimeType(fileService.guessMimeType(fileName));
+
+        return new Attachment(fileName, message.getFileUrl(), message.getFileSize(), message.getMimeType(), isImage);
+    }
+
+    // ID od klienta slouží jen jeho vlastní deduplikaci, autoritativní je serverové ID
+    private long assignServerId(PayloadMessage message) {
+        if (message.getClientId() == null && message.getId() != null && !message.getId().isBlank()) {
+            message.setClientId(message.getId());
+        }
+        long serverId = messageIdGenerator.nextId();
+        message.setId(String.valueOf(serverId));
+        return serverId;
+    }
+
     private PayloadMessage savePublicMessageToDB(PayloadMessage message) {
+        long serverId = assignServerId(message);
         try {
             ChatUser sender = userRepository.findChatUserByUsernameIgnoreCase(message.getSenderName());
             Integer roomId = 1;
@@ -64,21 +104,27 @@ public class ChatController {
 
             if (sender != null && chatRoom != null) {
                 Message dbMessage = new Message();
+                dbMessage.setServerId(serverId);
                 dbMessage.setChatUser(sender);
                 dbMessage.setChatRoom(chatRoom);
-
-                if (message.getFileUrl() != null) {
-                    dbMessage.setContent("[FILE] " + message.getFileName() + " | " + message.getFileUrl());
-                } else {
-                    dbMessage.setContent(message.getContent());
-                }
+                dbMessage.setContent(message.getContent() != null ? message.getContent() : "");
+                dbMessage.setAttachment(toAttachment(message));
+                dbMessage.setMessageType(message.getMessageType());
                 dbMessage.setSendTime(new Date());
-                messageRepository.save(dbMessage);
 
                 // 🔑 sjednocení: do payloadu posílej vždy normalizovanou RELATIVNÍ cestu (/avatars/..)
                 message.setSenderAvatarUrl(avatarService.normalizeAvatarUrl(sender.getAvatarUrl()));
                 message.setDate(timezoneService.convertToUserTimezone(dbMessage.getSendTime().toInstant(), sender.getTimezone()));
                 message.setReceiverChatRoomId(String.valueOf(roomId));
+
+                // payload je hotový – do RabbitMQ jde přes outbox ve stejné transakci jako zpráva
+                messagePersistenceService.persist(dbMessage, chatMessageService.broadcastEvent(message));
+                eventStreamService.roomMessage(roomId, message);
+
+                recentMessageCache.append(roomId,
+                        new RecentMessageCache.CachedMessage(serverId, dbMessage.getSendTime().toInstant(), message));
+                searchIndexService.add(new SearchDocRow(serverId, roomId, null, sender.getUsername(),
+                        dbMessage.getContent(), message.getFileName()));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -102,9 +148,7 @@ public class ChatController {
 
             PayloadMessage message = new PayloadMessage();
             if (id != null && !id.isEmpty()) {
-                message.setId(id);
-            } else {
-                message.setId(UUID.randomUUID().toString());
+                message.setClientId(id);
             }
 
             message.setSenderName(username);
@@ -114,6 +158,9 @@ public class ChatController {
             message.setContent(file.getOriginalFilename());
             message.setFileUrl(fileUrl);
             message.setFileName(file.getOriginalFilename());
+            message.setFileSize(file.getSize());
+            message.setMimeType(file.getContentType() != null ? file.getContentType()
+                    : fileService.guessMimeType(file.getOriginalFilename()));
             message.setMessageType(isImage ? "IMAGE" : "FILE");
             message.setDate(timezoneService.getCurrentTimeInTimezone(sender.getTimezone()));
 
@@ -142,30 +189,32 @@ public class ChatController {
     }
 
     private PayloadMessage handlePrivateMessage(PayloadMessage message) {
-
-        if (message.getId() == null || message.getId().isBlank()) {
-            message.setId(UUID.randomUUID().toString());
-        }
+        long serverId = assignServerId(message);
 
         ChatUser sender = userRepository.findChatUserByUsernameIgnoreCase(message.getSenderName());
         ChatUser receiver = userRepository.findChatUserByUsernameIgnoreCase(message.getReceiverName());
 
         if (sender != null && receiver != null) {
             DirectMessage dm = new DirectMessage();
+            dm.setServerId(serverId);
             dm.setSender(sender);
             dm.setReceiver(receiver);
-            if (message.getFileUrl() != null) {
-                dm.setContent("[FILE] " + message.getFileName() + " | " + message.getFileUrl());
-            } else {
-                dm.setContent(message.getContent());
-            }
+            dm.setContent(message.getContent() != null ? message.getContent() : "");
+            dm.setAttachment(toAttachment(message));
+            dm.setMessageType(message.getMessageType());
             dm.setSendTime(new Date());
             dm.setIsRead(false);
-            directMessageRepository.save(dm);
 
             message.setSenderAvatarUrl(avatarService.normalizeAvatarUrl(sender.getAvatarUrl()));
             message.setDate(timezoneService.convertToUserTimezone(dm.getSendTime().toInstant(), sender.getTimezone()));
 
+            // do fronty příjemce přes outbox a +1 nepřečtených ve stejné transakci jako DM
+            chatMessageService.saveDirectMessage(dm, message);
+            eventStreamService.directMessage(sender.getUserId(), receiver.getUserId(), message);
+            unreadCounterService.pushCounts(receiver);
+            searchIndexService.add(new SearchDocRow(serverId, null, dm.getConversationKey(), sender.getUsername(),
+                    dm.getContent(), message.getFileName()));
+
             messagingTemplate.convertAndSendToUser(message.getReceiverName(), "/private", message);
             messagingTemplate.convertAndSendToUser(message.getSenderName(), "/private", message);
 
@@ -176,37 +225,222 @@ public class ChatController {
 
     @GetMapping("/api/history")
     @ResponseBody
-    public List<PayloadMessage> getHistory(@RequestParam String chatRoomId, @RequestParam(required = false) String username) {
+    public List<PayloadMessage> getHistory(@RequestParam String chatRoomId,
+                                           @RequestParam(required = false) String username,
+                                           @RequestParam(required = false) Long before,
+                                           @RequestParam(required = false) Long after,
+                                           @RequestParam(required = false) Integer limit) {
+        return getHistoryPage(chatRoomId, username, before, after, limit).getMessages();
+    }
+
+    @GetMapping("/api/history/page")
+    @ResponseBody
+    public HistoryPage getHistoryPage(@RequestParam String chatRoomId,
+                                      @RequestParam(required = false) String username,
+                                      @RequestParam(required = false) Long before,
+                                      @RequestParam(required = false) Long after,
+                                      @RequestParam(required = false) Integer limit) {
         Integer id = Integer.valueOf(chatRoomId);
-        ChatUser user = username != null ? userRepository.findChatUserByUsernameIgnoreCase(username) : null;
-        String userTimezone = user != null ? user.getTimezone() : "UTC";
+        String userTimezone = historyTimezone(username);
+        int size = clampHistoryLimit(limit);
+
+        // o jednu víc, ať víme, jestli je za stránkou ještě něco
+        warmHistoryCache(id);
+        List<RecentMessageCache.CachedMessage> cached = after != null
+                ? committedOnly(recentMessageCache.after(id, after, size + 1))
+                : recentMessageCache.before(id, before, size + 1);
+        if (cached != null) {
+            boolean hasMore = cached.size() > size;
+            // cache vrací vzestupně: u after je navíc nejnovější, u before/latest nejstarší
+            List<RecentMessageCache.CachedMessage> pageRows = !hasMore ? cached
+                    : after != null ? cached.subList(0, size) : cached.subList(1, cached.size());
+            return toHistoryPage(recentMessageCache.toPayloads(pageRows, userTimezone), before, after, hasMore);
+        }
+
+        List<MessageRow> rows = after != null
+                ? roomRowsAfter(id, after, size + 1)
+                : roomRowsBefore(id, before, size + 1);
+
+        boolean hasMore = rows.size() > size;
+        List<MessageRow> pageRows = new ArrayList<>(hasMore ? rows.subList(0, size) : rows);
+        if (after == null) Collections.reverse(pageRows); // before/latest chodí sestupně
+
+        List<PayloadMessage> messages = pageRows.stream()
+                .map(m -> mapToPayload(m, userTimezone))
+                .collect(Collectors.toList());
+        return toHistoryPage(messages, before, after, hasMore);
+    }
+
+    private HistoryPage toHistoryPage(List<PayloadMessage> messages, Long before, Long after, boolean hasMore) {
+        String oldestId = messages.isEmpty() ? (before != null ? before.toString() : null)
+                : messages.get(0).getId();
+        String newestId = messages.isEmpty() ? (after != null ? after.toString() : null)
+                : messages.get(messages.size() - 1).getId();
+        return new HistoryPage(messages, oldestId, newestId, hasMore);
+    }
+
+    // Při prvním čtení místnosti naplní ring buffer posledními zprávami z DB
+    private void warmHistoryCache(Integer roomId) {
+        if (recentMessageCache.isWarm(roomId)) return;
+        int capacity = recentMessageCache.capacityFor(roomId);
+        List<MessageRow> rows = roomRowsBefore(roomId, null, capacity);
+        Collections.reverse(rows);
+        List<RecentMessageCache.CachedMessage> cached = rows.stream()
+                .map(m -> new RecentMessageCache.CachedMessage(m.serverId(), m.sendTime().toInstant(), mapToPayload(m, "UTC")))
+                .collect(Collectors.toList());
+        recentMessageCache.warm(roomId, cached, rows.size() < capacity);
+    }
+
+    // Delta feed pro pollery: jen zprávy za kurzorem, 204 když se nic nezměnilo
+    @GetMapping("/api/history/since")
+    @ResponseBody
+    public ResponseEntity<HistoryPage> getHistorySince(@RequestParam String chatRoomId,
+                                                       @RequestParam(required = false) String username,
+                                                       @RequestParam(required = false) Long after,
+                                                       @RequestParam(required = false) Integer limit) {
+        if (after == null) {
+            HistoryPage latest = getHistoryPage(chatRoomId, username, null, null, limit);
+            latest.setNewestId(committedCursor(latest.getNewestId()));
+            return ResponseEntity.ok(latest);
+        }
+
+        Integer id = Integer.valueOf(chatRoomId);
+        int size = limit == null ? MAX_HISTORY_LIMIT : clampHistoryLimit(limit);
+        warmHistoryCache(id);
+        List<RecentMessageCache.CachedMessage> cached = committedOnly(recentMessageCache.after(id, after, size + 1));
+        if (cached != null) {
+            if (cached.isEmpty()) {
+                return ResponseEntity.noContent().build();
+            }
+            boolean hasMore = cached.size() > size;
+            List<RecentMessageCache.CachedMessage> pageRows = hasMore ? cached.subList(0, size) : cached;
+            return ResponseEntity.ok(toHistoryPage(
+                    recentMessageCache.toPayloads(pageRows, historyTimezone(username)), null, after, hasMore));
+        }
+
+        List<MessageRow> rows = roomRowsAfter(id, after, size + 1);
+        if (rows.isEmpty()) {
+            return ResponseEntity.noContent().build();
+        }
 
-        return messageRepository.findByChatRoom_ChatIdOrderBySendTimeAsc(id)
-                .stream()
+        String userTimezone = historyTimezone(username);
+        boolean hasMore = rows.size() > size;
+        List<MessageRow> pageRows = hasMore ? rows.subList(0, size) : rows;
+        List<PayloadMessage> messages = pageRows.stream()
                 .map(m -> mapToPayload(m, userTimezone))
                 .collect(Collectors.toList());
+        return ResponseEntity.ok(toHistoryPage(messages, null, after, hasMore));
+    }
+
+    // Do minulosti (sestupně): živá tabulka, a když nestačí, pokračuje se v archivu
+    private List<MessageRow> roomRowsBefore(Integer roomId, Long before, int count) {
+        PageRequest page = PageRequest.of(0, count);
+        List<MessageRow> rows = new ArrayList<>(before != null
+                ? messageRepository.findPageBefore(roomId, before, page)
+                : messageRepository.findLatestPage(roomId, page));
+        if (rows.size() < count && !messageArchiveService.isEmpty()) {
+            Long cursor = rows.isEmpty() ? before : rows.get(rows.size() - 1).serverId();
+            rows.addAll(messageArchiveService.roomBefore(roomId, cursor, count - rows.size()));
+        }
+        return rows;
     }
 
-    private PayloadMessage mapToPayload(Message m, String userTimezone) {
+    /**
+     * Nejvyšší server_id, které už smí vidět kurzor "za". ID se přiděluje před commitem, takže
+     * zpráva s nižším ID může být commitnutá až po vyšší (souběžní zapisovatelé, write-behind);
+     * poller, který by kurzorem přeskočil, by ji nikdy nedostal. Novější zprávy přijdou
+     * v dalším dotazu, klienti duplicity zahazují podle id.
+     */
+    private long committedBound() {
+        return MessageIdGenerator.firstIdAt(Instant.now().minusMillis(commitLagMs));
+    }
+
+    private List<RecentMessageCache.CachedMessage> committedOnly(List<RecentMessageCache.CachedMessage> cached) {
+        if (cached == null) return null;
+        long bound = committedBound();
+        int end = 0;
+        while (end < cached.size() && cached.get(end).serverId() < bound) end++;
+        return end == cached.size() ? cached : cached.subList(0, end);
+    }
+
+    // Kurzor první (latest) stránky pollera nesmí přeskočit okno commitu – zprávy z okna pošle znovu
+    private String committedCursor(String newestId) {
+        if (newestId == null) return null;
+        return String.valueOf(Math.min(Long.parseLong(newestId), committedBound() - 1));
+    }
+
+    // Za kurzorem (vzestupně): leží-li kurzor v archivu, začne se tam a pokračuje živou tabulkou
+    // (živé řádky jen pod committedBound)
+    private List<MessageRow> roomRowsAfter(Integer roomId, long after, int count) {
+        List<MessageRow> rows = new ArrayList<>();
+        long cursor = after;
+        if (messageArchiveService.mayHaveAfter(after)) {
+            rows.addAll(messageArchiveService.roomAfter(roomId, after, count));
+            if (!rows.isEmpty()) cursor = rows.get(rows.size() - 1).serverId();
+        }
+        if (rows.size() < count) {
+            rows.addAll(messageRepository.findRangeAfter(roomId, cursor, committedBound(), PageRequest.of(0, count - rows.size())));
+        }
+        return rows;
+    }
+
+    private List<MessageRow> conversationRowsBefore(String key, Long before, int count) {
+        PageRequest page = PageRequest.of(0, count);
+        List<MessageRow> rows = new ArrayList<>(before != null
+                ? directMessageRepository.findConversationBefore(key, before, page)
+                : directMessageRepository.findConversationLatest(key, page));
+        if (rows.size() < count && !messageArchiveService.isEmpty()) {
+            Long cursor = rows.isEmpty() ? before : rows.get(rows.size() - 1).serverId();
+            rows.addAll(messageArchiveService.conversationBefore(key, cursor, count - rows.size()));
+        }
+        return rows;
+    }
+
+    private List<MessageRow> conversationRowsAfter(String key, long after, int count) {
+        List<MessageRow> rows = new ArrayList<>();
+        long cursor = after;
+        if (messageArchiveService.mayHaveAfter(after)) {
+            rows.addAll(messageArchiveService.conversationAfter(key, after, count));
+            if (!rows.isEmpty()) cursor = rows.get(rows.size() - 1).serverId();
+        }
+        if (rows.size() < count) {
+            rows.addAll(directMessageRepository.findConversationRangeAfter(key, cursor, committedBound(),
+                    PageRequest.of(0, count - rows.size())));
+        }
+        return rows;
+    }
+
+    private String historyTimezone(String username) {
+        ChatUser user = username != null ? userRepository.findChatUserByUsernameIgnoreCase(username) : null;
+        return user != null ? user.getTimezone() : "UTC";
+    }
+
+    private int clampHistoryLimit(Integer limit) {
+        if (limit == null || limit <= 0) return DEFAULT_HISTORY_LIMIT;
+        return Math.min(limit, MAX_HISTORY_LIMIT);
+    }
+
+    private PayloadMessage mapToPayload(MessageRow m, String userTimezone) {
         PayloadMessage p = new PayloadMessage();
-        p.setId(UUID.randomUUID().toString());
-        p.setSenderName(m.getChatUser().getUsername());
-        p.setSenderAvatarUrl(avatarService.normalizeAvatarUrl(m.getChatUser().getAvatarUrl()));
-        p.setReceiverChatRoomId(String.valueOf(m.getChatRoom().getChatId()));
-        p.setContent(m.getContent());
-        if (m.getContent() != null && m.getContent().startsWith("[FILE]")) {
-            try {
-                String[] parts = m.getContent().replace("[FILE]", "").split("\\|");
-                if (parts.length >= 2) {
-                    p.setFileName(parts[0].trim());
-                    p.setFileUrl(parts[1].trim());
-                }
-            } catch (Exception e) {}
+        p.setId(String.valueOf(m.serverId()));
+        p.setSenderName(m.senderName());
+        p.setSenderAvatarUrl(avatarService.normalizeAvatarUrl(m.senderAvatarUrl()));
+        if (m.chatId() != null) p.setReceiverChatRoomId(String.valueOf(m.chatId()));
+        p.setReceiverName(m.receiverName());
+        p.setContent(m.content());
+        p.setMessageType(m.messageType() != null ? m.messageType() : "TEXT");
+        if (m.fileUrl() != null) {
+            p.setFileName(m.fileName());
+            p.setFileUrl(m.fileUrl());
+            p.setFileSize(m.fileSize());
+            p.setMimeType(m.mimeType());
         }
-        p.setDate(timezoneService.convertToUserTimezone(m.getSendTime().toInstant(), userTimezone));
+        p.setDate(timezoneService.convertToUserTimezone(m.sendTime().toInstant(), userTimezone));
         return p;
     }
 
+    // Starý nestránkovaný endpoint: živá tabulka + nejvýš jedna stránka z archivu před ní
+    // (celý archiv by byla neomezená odpověď). Starší historie jen přes /api/direct-history/page.
     @GetMapping("/api/direct-history")
     @ResponseBody
     public List<PayloadMessage> getDirectHistory(@RequestParam String user1, @RequestParam String user2) {
@@ -215,56 +449,173 @@ public class ChatController {
         String tz = u1 != null ? u1.getTimezone() : "UTC";
 
         if (u1 != null && u2 != null) {
-            return directMessageRepository.findConversationBetweenUsers(u1, u2).stream().map(dm -> {
-                PayloadMessage p = new PayloadMessage();
-                p.setId(UUID.randomUUID().toString());
-                p.setSenderName(dm.getSender().getUsername());
-                p.setSenderAvatarUrl(avatarService.normalizeAvatarUrl(dm.getSender().getAvatarUrl()));
-                p.setReceiverName(dm.getReceiver().getUsername());
-                p.setContent(dm.getContent());
-                if (dm.getContent() != null && dm.getContent().startsWith("[FILE]")) {
-                    try {
-                        String[] parts = dm.getContent().replace("[FILE]", "").split("\\|");
-                        if (parts.length >= 2) {
-                            p.setFileName(parts[0].trim());
-                            p.setFileUrl(parts[1].trim());
-                        }
-                    } catch (Exception e) {}
-                }
-                p.setDate(timezoneService.convertToUserTimezone(dm.getSendTime().toInstant(), tz));
-                return p;
-            }).collect(Collectors.toList());
+            String key = DirectMessage.conversationKey(u1.getUserId(), u2.getUserId());
+            List<MessageRow> live = directMessageRepository.findConversation(key);
+            List<MessageRow> rows = new ArrayList<>();
+            if (!messageArchiveService.isEmpty()) {
+                Long oldestLive = live.stream().map(MessageRow::serverId).min(Long::compare).orElse(null);
+                rows.addAll(messageArchiveService.conversationBefore(key, oldestLive, MAX_HISTORY_LIMIT));
+                Collections.reverse(rows);
+            }
+            rows.addAll(live);
+            return rows.stream()
+                    .map(dm -> mapToPayload(dm, tz))
+                    .collect(Collectors.toList());
         }
         return List.of();
     }
 
+    @GetMapping("/api/direct-history/since")
+    @ResponseBody
+    public ResponseEntity<HistoryPage> getDirectHistorySince(@RequestParam String user1,
+                                                             @RequestParam String user2,
+                                                             @RequestParam(required = false) Long after,
+                                                             @RequestParam(required = false) Integer limit) {
+        ChatUser u1 = userRepository.findChatUserByUsernameIgnoreCase(user1);
+        ChatUser u2 = userRepository.findChatUserByUsernameIgnoreCase(user2);
+        if (u1 == null || u2 == null) {
+            return ResponseEntity.noContent().build();
+        }
+
+        String key = DirectMessage.conversationKey(u1.getUserId(), u2.getUserId());
+        int size = limit == null ? MAX_HISTORY_LIMIT : clampHistoryLimit(limit);
+        List<MessageRow> rows;
+        if (after == null) {
+            rows = conversationRowsBefore(key, null, size + 1);
+            Collections.reverse(rows);
+        } else {
+            rows = conversationRowsAfter(key, after, size + 1);
+        }
+        if (rows.isEmpty()) {
+            return ResponseEntity.noContent().build();
+        }
+
+        boolean hasMore = rows.size() > size;
+        // latest: nejstarší řádek navíc je na začátku, after: nejnovější navíc je na konci
+        List<MessageRow> pageRows = !hasMore ? rows
+                : after == null ? rows.subList(1, rows.size()) : rows.subList(0, size);
+        String tz = u1.getTimezone();
+        List<PayloadMessage> messages = pageRows.stream()
+                .map(dm -> mapToPayload(dm, tz))
+                .collect(Collectors.toList());
+        String newestId = String.valueOf(pageRows.get(pageRows.size() - 1).serverId());
+        return ResponseEntity.ok(new HistoryPage(messages,
+                String.valueOf(pageRows.get(0).serverId()),
+                after == null ? committedCursor(newestId) : newestId,
+                hasMore));
+    }
+
+    // Stránkování DM do minulosti (stejné kurzory jako /api/history/page)
+    @GetMapping("/api/direct-history/page")
+    @ResponseBody
+    public HistoryPage getDirectHistoryPage(@RequestParam String user1,
+                                            @RequestParam String user2,
+                                            @RequestParam(required = false) Long before,
+                                            @RequestParam(required = false) Integer limit) {
+        ChatUser u1 = userRepository.findChatUserByUsernameIgnoreCase(user1);
+        ChatUser u2 = userRepository.findChatUserByUsernameIgnoreCase(user2);
+        if (u1 == null || u2 == null) {
+            return toHistoryPage(List.of(), before, null, false);
+        }
+
+        String key = DirectMessage.conversationKey(u1.getUserId(), u2.getUserId());
+        int size = clampHistoryLimit(limit);
+        List<MessageRow> rows = conversationRowsBefore(key, before, size + 1);
+
+        boolean hasMore = rows.size() > size;
+        List<MessageRow> pageRows = new ArrayList<>(hasMore ? rows.subList(0, size) : rows);
+        Collections.reverse(pageRows);
+        String tz = u1.getTimezone();
+        List<PayloadMessage> messages = pageRows.stream()
+                .map(dm -> mapToPayload(dm, tz))
+                .collect(Collectors.toList());
+        return toHistoryPage(messages, before, null, hasMore);
+    }
+
+    // Fulltext nad místnostmi a DM; DM vidí jen jejich účastníci
+    @GetMapping("/api/search")
+    @ResponseBody
+    public ResponseEntity<SearchPage> search(@RequestParam String username,
+                                             @RequestParam String q,
+                                             @RequestParam(required = false) String chatRoomId,
+                                             @RequestParam(required = false) String peer,
+                                             @RequestParam(required = false) String sender,
+                                             @RequestParam(required = false) String from,
+                                             @RequestParam(required = false) String to,
+                                             @RequestParam(required = false) Long before,
+                                             @RequestParam(required = false) Integer limit) {
+        ChatUser user = userRepository.findChatUserByUsernameIgnoreCase(username);
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        String conversationKey = null;
+        if (peer != null && !peer.isBlank()) {
+            ChatUser peerUser = userRepository.findChatUserByUsernameIgnoreCase(peer);
+            if (peerUser == null) {
+                return ResponseEntity.ok(new SearchPage(List.of(), null, false));
+            }
+            conversationKey = DirectMessage.conversationKey(user.getUserId(), peerUser.getUserId());
+        }
+        Integer chatId;
+        Long fromId;
+        Long toId;
+        try {
+            chatId = chatRoomId != null && !chatRoomId.isBlank() ? Integer.valueOf(chatRoomId) : null;
+            // from/to jako ISO-8601 okamžik (2025-03-01T00:00:00Z); server_id nese čas odeslání
+            fromId = from != null && !from.isBlank() ? MessageIdGenerator.firstIdAt(Instant.parse(from)) : null;
+            toId = to != null && !to.isBlank() ? MessageIdGenerator.firstIdAt(Instant.parse(to)) : null;
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        SearchIndexService.Result result = searchIndexService.search(new SearchIndexService.Query(
+                q, user.getUserId(), chatId, conversationKey, sender, fromId, toId, before, clampHistoryLimit(limit)));
+        String tz = user.getTimezone();
+        List<PayloadMessage> messages = result.rows().stream()
+                .map(m -> mapToPayload(m, tz))
+                .collect(Collectors.toList());
+        String nextCursor = messages.isEmpty() ? null : messages.get(messages.size() - 1).getId();
+        return ResponseEntity.ok(new SearchPage(messages, nextCursor, result.hasMore()));
+    }
+
     @GetMapping("/api/unread-messages")
     @ResponseBody
     public List<PayloadMessage> getUnreadMessages(@RequestParam String username) {
         ChatUser user = userRepository.findByUsernameIgnoreCase(username).orElse(null);
         String tz = user != null ? user.getTimezone() : "UTC";
         if (user != null) {
-            return directMessageRepository.findUnreadMessages(user).stream().map(dm -> {
-                PayloadMessage p = new PayloadMessage();
-                p.setId(UUID.randomUUID().toString());
-                p.setSenderName(dm.getSender().getUsername());
-                p.setContent(dm.getContent());
-                p.setDate(timezoneService.convertToUserTimezone(dm.getSendTime().toInstant(), tz));
-                return p;
-            }).collect(Collectors.toList());
+            // se shardy přijdou konverzace po shardech – seřadit zpět podle času
+            return directMessageRepository.findUnreadRows(user).stream()
+                    .sorted(Comparator.comparing(MessageRow::serverId))
+                    .map(dm -> mapToPayload(dm, tz))
+                    .collect(Collectors.toList());
         }
         return List.of();
     }
 
+    // Bez peer označí vše (původní chování); s peer jen danou konverzaci, volitelně do upTo (server_id)
     @PostMapping("/api/mark-messages-read")
     @ResponseBody
-    public void markMessagesAsRead(@RequestParam String username) {
+    public int markMessagesAsRead(@RequestParam String username,
+                                  @RequestParam(required = false) String peer,
+                                  @RequestParam(required = false) Long upTo) {
         ChatUser user = userRepository.findByUsernameIgnoreCase(username).orElse(null);
-        if (user != null) {
-            List<DirectMessage> unread = directMessageRepository.findUnreadMessages(user);
-            unread.forEach(dm -> dm.setIsRead(true));
-            directMessageRepository.saveAll(unread);
+        if (user == null) return 0;
+        if (peer == null || peer.isBlank()) {
+            return unreadCounterService.markAllRead(user);
         }
+        ChatUser sender = userRepository.findByUsernameIgnoreCase(peer).orElse(null);
+        if (sender == null) return 0;
+        return unreadCounterService.markConversationRead(user, sender, upTo);
+    }
+
+    // Jen čísla pro badge – jeden řádek na peera místo celého seznamu nepřečtených zpráv
+    @GetMapping("/api/unread-counts")
+    @ResponseBody
+    public UnreadCounts getUnreadCounts(@RequestParam String username) {
+        ChatUser user = userRepository.findByUsernameIgnoreCase(username).orElse(null);
+        if (user == null) return new UnreadCounts(0, java.util.Map.of());
+        return unreadCounterService.countsFor(user.getUserId());
     }
 
     @PostMapping("/api/upload-avatar")
@@ -276,6 +627,7 @@ public class ChatController {
                 String url = fileService.storeFile(file);
                 user.setAvatarUrl(url);
                 userRepository.save(user);
+                notificationService.notifyAvatarChanged(user.getUsername(), url);
                 return url;
             }
         } catch (Exception e) {}
@@ -297,6 +649,7 @@ public class ChatController {
         if (user != null) {
             user.setAvatarUrl(avatarService.avatarByIndex(avatarIndex));
             userRepository.save(user);
+            notificationService.notifyAvatarChanged(user.getUsername(), user.getAvatarUrl());
         }
     }
 
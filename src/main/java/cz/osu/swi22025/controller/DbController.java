@@ -2,11 +2,14 @@ package cz.osu.swi22025.controller;
 
 import cz.osu.swi22025.model.ChatRoom;
 import cz.osu.swi22025.model.ChatUser;
+import cz.osu.swi22025.model.json.RoomSummary;
 import cz.osu.swi22025.service.DbService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -28,4 +31,24 @@ public class DbController {
     public ResponseEntity<List<ChatRoom>> getChatRooms(@RequestParam String username) {
         return dbService.getChatRooms(username);
     }
+
+    @GetMapping(value = "/chatrooms/summary")
+    public ResponseEntity<List<RoomSummary>> getRoomSummaries(@RequestParam String username) {
+        return dbService.getRoomSummaries(username);
+    }
+
+    @PostMapping(value = "/chatrooms/{chatId}/read")
+    public ResponseEntity<Void> markRoomRead(@PathVariable Integer chatId, @RequestParam String username) {
+        return dbService.markRoomRead(username, chatId);
+    }
+
+    @PostMapping(value = "/chatrooms/{chatId}/join")
+    public ResponseEntity<Void> joinRoom(@PathVariable Integer chatId, @RequestParam String username) {
+        return dbService.joinRoom(username, chatId);
+    }
+
+    @PostMapping(value = "/chatrooms/{chatId}/leave")
+    public ResponseEntity<Void> leaveRoom(@PathVariable Integer chatId, @RequestParam String username) {
+        return dbService.leaveRoom(username, chatId);
+    }
 }
@@ -0,0 +1,48 @@
+package cz.osu.swi22025.controller;
+
+import cz.osu.swi22025.service.EventStreamService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.UUID;
+
+@RestController
+@CrossOrigin
+public class EventStreamController {
+
+    @Autowired
+    private EventStreamService eventStreamService;
+
+    // SSE: message / direct / unread / avatar / resync; při obnovení spojení Last-Event-ID
+    // (EventSource ho posílá sám, lastEventId v query je pro klienty, které hlavičku nastavit nemůžou)
+    @GetMapping(value = "/api/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@RequestParam String userId,
+                             @RequestHeader(value = "Last-Event-ID", required = false) String lastEventIdHeader,
+                             @RequestParam(required = false) String lastEventId) {
+        UUID id;
+        try {
+            id = UUID.fromString(userId.trim());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid userId");
+        }
+
+        SseEmitter emitter = eventStreamService.subscribe(id, parseEventId(
+                lastEventIdHeader != null ? lastEventIdHeader : lastEventId));
+        if (emitter == null) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found");
+        return emitter;
+    }
+
+    // neplatné ID = jako by žádné nebylo (klient dostane jen nové události)
+    private static Long parseEventId(String value) {
+        if (value == null || value.isBlank()) return null;
+        try {
+            return Long.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
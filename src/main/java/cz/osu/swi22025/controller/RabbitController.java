@@ -1,52 +1,79 @@
 package cz.osu.swi22025.controller;
 
 import cz.osu.swi22025.model.json.PayloadMessage;
-import org.springframework.amqp.core.Queue;
+import cz.osu.swi22025.service.QueueBindingService;
+import cz.osu.swi22025.service.QueuePollService;
 import org.springframework.amqp.rabbit.core.RabbitAdmin;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 @RestController
-@CrossOrigin
+@CrossOrigin(exposedHeaders = RabbitController.RESYNC_HEADER)
 public class RabbitController {
 
+    public static final String RESYNC_HEADER = "X-Queue-Resync";
+
     @Autowired
     private RabbitAdmin admin;
 
     @Autowired
-    private RabbitTemplate template;
+    private QueueBindingService queueBindingService;
+
+    @Autowired
+    private QueuePollService queuePollService;
 
+    @Value("${chat.queue.poll.max-wait-ms:30000}")
+    private long maxWaitMs;
+
+    // Long-poll: wait = ms čekání na první zprávu (0 / bez parametru = jen vybrat, co je ve frontě)
     @GetMapping("/api/queue")
-    public List<PayloadMessage> getMessages(@RequestParam String userId) {
+    public DeferredResult<ResponseEntity<List<PayloadMessage>>> getMessages(@RequestParam String userId,
+                                                                            @RequestParam(required = false) Long wait,
+                                                                            @RequestParam(required = false) Integer max,
+                                                                            @RequestParam(required = false) Long maxBytes) {
+        // timeout kontejneru až za limitem čekání – dřív odpoví timeout QueuePollService
+        DeferredResult<ResponseEntity<List<PayloadMessage>>> result = new DeferredResult<>(maxWaitMs + 5_000L);
 
         // 1) Validace – ať nikdy nedostaneš 500 kvůli blbému parametru
-        if (userId == null || userId.trim().isEmpty()) {
-            return List.of();
+        UUID id;
+        try {
+            id = UUID.fromString(userId.trim());
+        } catch (IllegalArgumentException e) {
+            result.setResult(ResponseEntity.ok(List.of()));
+            return result;
         }
 
-        String queueName = "chatroom.queue." + userId.trim();
+        String queueName = QueueBindingService.queueName(id);
 
-        // 2) Pokud queue neexistuje, NEPADNI – vrať prázdný seznam
-        //    (a klidně ji rovnou vytvoř, aby další pokusy fungovaly)
+        // 2) Pokud queue neexistuje (vypršela po nečinnosti), NEPADNI – založ ji i s vazbami
+        //    a řekni klientovi, že mu mezitím mohly utéct zprávy (X-Queue-Resync)
         if (admin.getQueueInfo(queueName) == null) {
-            admin.declareQueue(new Queue(queueName, true));
-            return List.of();
+            queueBindingService.ensureUserQueue(id);
+            result.setResult(ResponseEntity.ok().header(RESYNC_HEADER, "true").body(List.of()));
+            return result;
         }
 
-        // 3) Drain FIFO zpráv bezpečně (bez getMessageCount / race condition)
-        List<PayloadMessage> received = new ArrayList<>();
-        while (true) {
-            Object obj = template.receiveAndConvert(queueName);
-            if (obj == null) break;
-
-            if (obj instanceof PayloadMessage msg) {
-                received.add(msg);
-            }
+        // 3) Co už ve frontě je, se vrátí hned (po dávkách, jeden ack)
+        int limit = queuePollService.maxMessages(max);
+        long bytes = queuePollService.maxBytes(maxBytes);
+        List<PayloadMessage> ready = queuePollService.drain(queueName, limit, bytes);
+        long waitMs = wait == null ? 0 : Math.min(Math.max(wait, 0), maxWaitMs);
+        if (!ready.isEmpty() || waitMs == 0) {
+            result.setResult(ResponseEntity.ok(ready));
+            return result;
         }
-        return received;
+
+        // 4) Jinak request zaparkuje (async servlet) a odpoví první dávka nebo timeout
+        QueuePollService.Poll poll = queuePollService.await(queueName, limit, bytes, waitMs,
+                messages -> result.setResult(ResponseEntity.ok(messages)));
+        result.onTimeout(poll::cancel);
+        result.onError(e -> poll.cancel());
+        return result;
     }
 }
@@ -2,6 +2,7 @@ package cz.osu.swi22025.controller;
 
 import cz.osu.swi22025.model.json.PayloadMessage;
 import cz.osu.swi22025.model.json.SignupForm;
+import cz.osu.swi22025.service.UserDirectoryService;
 import cz.osu.swi22025.service.UserService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
@@ -9,6 +10,7 @@ import org.springframework.web.bind.annotation.*;
 import cz.osu.swi22025.model.json.AvatarUpdateRequest;
 import cz.osu.swi22025.model.json.UserProfileDto;
 
+import java.util.List;
 import java.util.UUID;
 
 @RestController
@@ -16,10 +18,26 @@ import java.util.UUID;
 public class UserController {
     private final UserService userService;
     private final SimpMessagingTemplate messagingTemplate;
+    private final UserDirectoryService userDirectoryService;
 
-    public UserController(UserService userService, SimpMessagingTemplate messagingTemplate) {
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
+    private static final int MAX_SEARCH_LIMIT = 100;
+
+    public UserController(UserService userService,
+                          SimpMessagingTemplate messagingTemplate,
+                          UserDirectoryService userDirectoryService) {
         this.userService = userService;
         this.messagingTemplate = messagingTemplate;
+        this.userDirectoryService = userDirectoryService;
+    }
+
+    // Hledání podle prefixu (bez ohledu na velikost písmen), vrací jen prvních pár jmen abecedně
+    @GetMapping("/api/users/search")
+    public List<String> searchUsers(@RequestParam(required = false, defaultValue = "") String prefix,
+                                    @RequestParam(required = false) Integer limit,
+                                    @RequestParam(required = false) String exclude) {
+        int size = limit == null || limit <= 0 ? DEFAULT_SEARCH_LIMIT : Math.min(limit, MAX_SEARCH_LIMIT);
+        return userDirectoryService.search(prefix, size, exclude);
     }
 
     @GetMapping("/api/users/by-username/{username}")
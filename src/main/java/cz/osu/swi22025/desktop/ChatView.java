@@ -1,6 +1,9 @@
 package cz.osu.swi22025.desktop;
 
+import cz.osu.swi22025.model.json.HistoryPage;
 import cz.osu.swi22025.model.json.PayloadMessage;
+import cz.osu.swi22025.model.json.UnreadCounts;
+import cz.osu.swi22025.model.json.UserProfileDto;
 import cz.osu.swi22025.model.json.UserToken;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
@@ -51,16 +54,27 @@ public class ChatView extends BorderPane {
     private final VBox messagesBox = new VBox(8);
     private final ScrollPane scrollPane = new ScrollPane(messagesBox);
 
-    private Timeline queuePoller;
+    // Push: jedno STOMP/SSE spojení; pollery níž běží jen jako záloha, když push nejede
+    private final PushChannel pushChannel;
+    private boolean closed = false;
+
+    private volatile Thread queuePoller; // long-poll smyčka /api/queue
     private Timeline historyPoller;
 
     private Timeline dmUnreadPoller;
     private final Label dmBadge = new Label(""); // červená tečka / číslo
 
-    // Dedupe (history + queue mohou vracet stejné zprávy)
+    // Dedupe (history + queue mohou vracet stejné zprávy) – podle serverového ID
     private final Set<String> seen = new HashSet<>();
 
-    private int lastHistorySize = 0;
+    // Lazy načítání starší historie (keyset kurzor)
+    private static final int HISTORY_PAGE_SIZE = 50;
+    private static final long QUEUE_WAIT_MS = 25_000;
+    private static final long QUEUE_RETRY_MS = 2_000;
+    private String oldestHistoryId = null;
+    private volatile String newestHistoryId = null; // high-water mark pro delta polling
+    private boolean hasOlderHistory = true;
+    private boolean loadingOlder = false;
 
     private static final DateTimeFormatter TIME_FMT = DateTimeFormatter.ofPattern("HH:mm:ss");
 
@@ -73,6 +87,7 @@ public class ChatView extends BorderPane {
         this.client = client;
         this.user = user;
         this.onLogout = onLogout;
+        this.pushChannel = client.openPushChannel(user);
 
         setPadding(new Insets(12));
 
@@ -135,7 +150,7 @@ public class ChatView extends BorderPane {
          -fx-padding: 6 14;""");
 
         logoutBtn.setOnAction(e -> {
-            stopPolling();          // ⛔ zastaví history + queue polling
+            close();                // ⛔ zastaví push i pollery
             avatarCache.clear();    // pro jistotu
             if (onLogout != null) onLogout.run(); // ↩️ zpět na LoginView
         });
@@ -170,6 +185,11 @@ public class ChatView extends BorderPane {
         scrollPane.setStyle("-fx-background: #f6f7f9; -fx-background-color: #f6f7f9;");
         setCenter(scrollPane);
 
+        // Odscrollování nahoru dotáhne další (starší) stránku historie
+        scrollPane.vvalueProperty().addListener((obs, oldV, newV) -> {
+            if (newV.doubleValue() <= 0.0 && oldestHistoryId != null) loadOlderHistory();
+        });
+
         // Input bar
         input.setPromptText("Napiš zprávu…");
         Button send = new Button("Send");
@@ -202,26 +222,89 @@ public class ChatView extends BorderPane {
         // Načti avatar přihlášeného usera z backendu (aby seděl i s webem)
         loadMyAvatarFromBackend();
 
-        // Polling (queue = offline, history = online)
-        startQueuePolling();
-        startHistoryPolling();
-        startDmUnreadPolling();
+        // Nejnovější stránka historie, starší až při scrollu
+        loadOlderHistory();
+
+        // Do připojení push kanálu jedou pollery (queue = offline, history = online), pak je vystřídá push
+        startPolling();
+        pushChannel.addListener(pushListener);
+        pushChannel.start();
 
         // Stop timers when window closes
         sceneProperty().addListener((obs, oldScene, newScene) -> {
             if (newScene != null) {
                 newScene.windowProperty().addListener((o2, oldW, newW) -> {
                     if (newW != null) {
-                        newW.setOnHidden(e -> stopPolling());
+                        newW.setOnHidden(e -> close());
                     }
                 });
             }
         });
     }
 
+    private final PushListener pushListener = new PushListener() {
+        @Override
+        public void onMessage(PayloadMessage m) {
+            // SSE nese všechny místnosti uživatele – tady jen Public
+            if (m.getReceiverName() != null || !"1".equals(m.getReceiverChatRoomId())) return;
+            Platform.runLater(() -> {
+                boolean stick = isNearBottom();
+                appendMessage(m);
+                advanceNewestHistoryId(m.getId());
+                if (stick) scrollToBottom();
+            });
+        }
+
+        @Override
+        public void onUnread(UnreadCounts counts) {
+            Platform.runLater(() -> updateDmBadge(counts.getTotal()));
+        }
+
+        @Override
+        public void onAvatar(UserProfileDto profile) {
+            avatarCache.put(profile.getUsername(), profile.getAvatarUrl());
+            if (!user.getUsername().equalsIgnoreCase(profile.getUsername())) return;
+            Platform.runLater(() -> {
+                currentAvatarUrl = profile.getAvatarUrl();
+                headerAvatarView.setImage(new Image(BASE_URL + currentAvatarUrl, 28, 28, true, true));
+            });
+        }
+
+        @Override
+        public void onResync() {
+            Platform.runLater(ChatView.this::fetchHistoryDelta);
+        }
+
+        @Override
+        public void onConnection(boolean connected) {
+            Platform.runLater(() -> {
+                if (closed) return;
+                if (connected) {
+                    stopPolling();
+                    fetchHistoryDelta(); // co přišlo mezi posledním pollem / výpadkem a připojením
+                } else {
+                    startPolling();
+                }
+            });
+        }
+    };
+
+    private void close() {
+        closed = true;
+        pushChannel.removeListener(pushListener);
+        pushChannel.stop();
+        stopPolling();
+    }
+
+    private void startPolling() {
+        if (queuePoller == null) startQueuePolling();
+        if (historyPoller == null) startHistoryPolling();
+        if (dmUnreadPoller == null) startDmUnreadPolling();
+    }
+
     private void stopPolling() {
         if (queuePoller != null) {
-            queuePoller.stop();
+            queuePoller.interrupt();
             queuePoller = null;
         }
         if (historyPoller != null) {
@@ -272,53 +355,102 @@ public class ChatView extends BorderPane {
         }
     }
 
+    // Long-poll: server drží request, dokud nepřijde zpráva (nebo QUEUE_WAIT_MS), pak hned další
     private void startQueuePolling() {
-        queuePoller = new Timeline(new KeyFrame(Duration.millis(300), e -> {
-            new Thread(() -> {
+        Thread poller = new Thread(() -> {
+            while (queuePoller == Thread.currentThread()) {
                 try {
                     List<PayloadMessage> list =
-                            client.pickupMessages(user.getUserId().toString());
+                            client.pickupMessages(user.getUserId().toString(), QUEUE_WAIT_MS);
                     if (list != null && !list.isEmpty()) {
                         Platform.runLater(() -> {
                             boolean stick = isNearBottom();
-                            for (var m : list) appendMessage(m);
+                            for (var m : list) {
+                                // fronta nese i DM a ostatní místnosti – tady jen Public
+                                if (m.getReceiverName() == null && "1".equals(m.getReceiverChatRoomId())) appendMessage(m);
+                            }
                             if (stick) scrollToBottom();
                         });
                     }
+                } catch (InterruptedException ex) {
+                    return;
                 } catch (Exception ex) {
                     System.out.println("Queue polling error: " + ex.getMessage());
+                    try {
+                        Thread.sleep(QUEUE_RETRY_MS); // server nedostupný – nezahltit ho
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
                 }
-            }).start();
-        }));
-        queuePoller.setCycleCount(Timeline.INDEFINITE);
-        queuePoller.play();
+            }
+        }, "queue-long-poll");
+        poller.setDaemon(true);
+        queuePoller = poller;
+        poller.start();
     }
 
     private void startHistoryPolling() {
-        historyPoller = new Timeline(new KeyFrame(Duration.millis(300), e -> {
-            new Thread(() -> {
-                try {
-                    List<PayloadMessage> list = client.getHistory("1");
-                    if (list != null && !list.isEmpty()) {
-                        Platform.runLater(() -> {
-                            boolean stick = isNearBottom();
+        historyPoller = new Timeline(new KeyFrame(Duration.millis(300), e -> fetchHistoryDelta()));
+        historyPoller.setCycleCount(Timeline.INDEFINITE);
+        historyPoller.play();
+    }
 
-                            if (list.size() < lastHistorySize) lastHistorySize = 0;
-                            for (int i = lastHistorySize; i < list.size(); i++) {
-                                appendMessage(list.get(i));
-                            }
-                            lastHistorySize = list.size();
+    private void fetchHistoryDelta() {
+        String after = newestHistoryId;
+        new Thread(() -> {
+            try {
+                // jen zprávy za high-water mark, prázdná odpověď když se nic nezměnilo
+                HistoryPage delta = client.getHistory("1", after);
+                List<PayloadMessage> list = delta.getMessages();
+                if (list != null && !list.isEmpty()) {
+                    Platform.runLater(() -> {
+                        advanceNewestHistoryId(delta.getNewestId());
+                        boolean stick = isNearBottom();
+                        for (var m : list) appendMessage(m);
+                        if (stick) scrollToBottom();
+                    });
+                }
+            } catch (Exception ex) {
+                System.out.println("History polling error: " + ex.getMessage());
+            }
+        }).start();
+    }
 
-                            if (stick) scrollToBottom();
-                        });
+    // high-water mark jen roste (delta i push můžou dorazit v libovolném pořadí)
+    private void advanceNewestHistoryId(String id) {
+        if (id == null || id.isBlank()) return;
+        try {
+            if (newestHistoryId == null || Long.parseLong(id) > Long.parseLong(newestHistoryId)) newestHistoryId = id;
+        } catch (NumberFormatException ignored) {}
+    }
+
+    private void loadOlderHistory() {
+        if (loadingOlder || !hasOlderHistory) return;
+        loadingOlder = true;
+
+        String before = oldestHistoryId;
+        new Thread(() -> {
+            try {
+                HistoryPage page = client.getHistoryPage("1", before, HISTORY_PAGE_SIZE);
+                Platform.runLater(() -> {
+                    if (page.getOldestId() != null) oldestHistoryId = page.getOldestId();
+                    advanceNewestHistoryId(page.getNewestId());
+                    hasOlderHistory = page.isHasMore();
+
+                    List<PayloadMessage> list = page.getMessages() == null ? List.of() : page.getMessages();
+                    if (before == null) {
+                        for (var m : list) appendMessage(m);
+                        scrollToBottom();
+                    } else {
+                        prependMessages(list);
                     }
-                } catch (Exception ex) {
-                    System.out.println("History polling error: " + ex.getMessage());
-                }
-            }).start();
-        }));
-        historyPoller.setCycleCount(Timeline.INDEFINITE);
-        historyPoller.play();
+                    loadingOlder = false;
+                });
+            } catch (Exception ex) {
+                System.out.println("History page error: " + ex.getMessage());
+                Platform.runLater(() -> loadingOlder = false);
+            }
+        }).start();
     }
 
     private void startDmUnreadPolling() {
@@ -327,8 +459,8 @@ public class ChatView extends BorderPane {
         dmUnreadPoller = new Timeline(new KeyFrame(Duration.millis(300), e -> {
             new Thread(() -> {
                 try {
-                    List<PayloadMessage> unread = client.getUnreadDirectMessages(user.getUsername());
-                    int count = (unread == null) ? 0 : unread.size();
+                    UnreadCounts counts = client.getUnreadCounts(user.getUsername());
+                    int count = (counts == null) ? 0 : counts.getTotal();
 
                     Platform.runLater(() -> updateDmBadge(count));
                 } catch (Exception ex) {
@@ -375,7 +507,26 @@ public class ChatView extends BorderPane {
     }
 
     private void appendMessage(PayloadMessage msg) {
-        if (msg == null) return;
+        HBox row = createMessageRow(msg);
+        if (row != null) messagesBox.getChildren().add(row);
+    }
+
+    private void prependMessages(List<PayloadMessage> list) {
+        int insertAt = 0;
+        for (var m : list) {
+            HBox row = createMessageRow(m);
+            if (row != null) messagesBox.getChildren().add(insertAt++, row);
+        }
+        if (insertAt == 0) return;
+
+        // drž pohled zhruba na stejné zprávě, na které uživatel byl
+        int total = messagesBox.getChildren().size();
+        double keep = (double) insertAt / total;
+        Platform.runLater(() -> scrollPane.setVvalue(keep));
+    }
+
+    private HBox createMessageRow(PayloadMessage msg) {
+        if (msg == null) return null;
 
         // robust fields
         String room = safe(msg.getReceiverChatRoomId());
@@ -383,11 +534,13 @@ public class ChatView extends BorderPane {
         String content = safe(msg.getContent());
         String date = msg.getDate();
 
-        // Dedupe key: room + sender + content + normalized time bucket (seconds)
-        String timeBucket = normalizeToSecond(date);
-        String key = room + "|" + sender + "|" + content + "|" + timeBucket;
+        // Dedupe key: serverové ID; fallback room + sender + content + time bucket (seconds)
+        String key = safe(msg.getId());
+        if (key.isBlank()) {
+            key = room + "|" + sender + "|" + content + "|" + normalizeToSecond(date);
+        }
 
-        if (seen.contains(key)) return;
+        if (seen.contains(key)) return null;
         seen.add(key);
 
         boolean mine = sender.equals(user.getUsername());
@@ -448,8 +601,9 @@ public class ChatView extends BorderPane {
         String initial = (cached != null && !cached.isBlank()) ? cached : DEFAULT_AVATAR_URL;
         msgAvatar.setImage(new Image(BASE_URL + initial, 24, 24, true, true));
 
-// ✅ vždy na pozadí ověř, jestli se avatar nezměnil (např. změna z webu)
-        new Thread(() -> {
+// ✅ na pozadí ověř, jestli se avatar nezměnil (např. změna z webu) – se streamem chodí změny
+        //    jako události, takže stačí, když ho ještě nemáme
+        if (cached == null || !pushChannel.isConnected()) new Thread(() -> {
             try {
                 String fresh = client.getAvatarUrlByUsername(sender);
                 if (fresh == null || fresh.isBlank()) fresh = DEFAULT_AVATAR_URL;
@@ -477,7 +631,7 @@ public class ChatView extends BorderPane {
         }
 
         row.setPadding(new Insets(2, 0, 2, 0));
-        messagesBox.getChildren().add(row);
+        return row;
     }
 
     private static String safe(String s) {
@@ -597,7 +751,7 @@ public class ChatView extends BorderPane {
         dmStage.initOwner(owner);
         dmStage.setTitle("Direct Messages · " + user.getUsername());
 
-        DirectMessagesView dmView = new DirectMessagesView(client, user, avatarCache);
+        DirectMessagesView dmView = new DirectMessagesView(client, user, avatarCache, pushChannel);
 
         dmStage.setScene(new javafx.scene.Scene(dmView, 980, 640));
         dmStage.show();
@@ -2,7 +2,9 @@ package cz.osu.swi22025.desktop;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.osu.swi22025.model.json.HistoryPage;
 import cz.osu.swi22025.model.json.PayloadMessage;
+import cz.osu.swi22025.model.json.UnreadCounts;
 import cz.osu.swi22025.model.json.UserToken;
 
 import java.awt.Desktop;
@@ -90,8 +92,16 @@ public class DesktopClient {
     }
 
     public List<PayloadMessage> pickupMessages(String userId) throws IOException, InterruptedException {
+        return pickupMessages(userId, 0);
+    }
+
+    // waitMs > 0: long-poll, server odpoví první dávkou zpráv nebo po waitMs prázdným seznamem
+    public List<PayloadMessage> pickupMessages(String userId, long waitMs) throws IOException, InterruptedException {
+        String url = BASE_URL + "/api/queue?userId=" + URLEncoder.encode(userId, StandardCharsets.UTF_8);
+        if (waitMs > 0) url += "&wait=" + waitMs;
+
         HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(BASE_URL + "/api/queue?userId=" + URLEncoder.encode(userId, StandardCharsets.UTF_8)))
+                .uri(URI.create(url))
                 .GET()
                 .build();
 
@@ -103,8 +113,12 @@ public class DesktopClient {
         return objectMapper.readValue(response.body(), new TypeReference<List<PayloadMessage>>() {});
     }
 
-    public List<PayloadMessage> getHistory(String chatRoomId) throws IOException, InterruptedException {
-        String url = BASE_URL + "/api/history?chatRoomId=" + URLEncoder.encode(chatRoomId, StandardCharsets.UTF_8);
+    // Delta: jen zprávy novější než afterId (204 = nic nového)
+    public HistoryPage getHistory(String chatRoomId, String afterId) throws IOException, InterruptedException {
+        String url = BASE_URL + "/api/history/since?chatRoomId=" + URLEncoder.encode(chatRoomId, StandardCharsets.UTF_8);
+        if (afterId != null && !afterId.isBlank()) {
+            url += "&after=" + URLEncoder.encode(afterId, StandardCharsets.UTF_8);
+        }
 
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(url))
@@ -115,8 +129,43 @@ public class DesktopClient {
         if (response.statusCode() >= 300) {
             throw new IOException(response.body() == null ? "History failed" : response.body());
         }
+        if (response.statusCode() == 204) {
+            return new HistoryPage(List.of(), afterId, afterId, false);
+        }
 
-        return objectMapper.readValue(response.body(), new TypeReference<List<PayloadMessage>>() {});
+        return objectMapper.readValue(response.body(), HistoryPage.class);
+    }
+
+    public HistoryPage getHistoryPage(String chatRoomId, String beforeId, int limit)
+            throws IOException, InterruptedException {
+        String url = BASE_URL + "/api/history/page?chatRoomId=" + URLEncoder.encode(chatRoomId, StandardCharsets.UTF_8)
+                + "&limit=" + limit;
+        if (beforeId != null && !beforeId.isBlank()) {
+            url += "&before=" + URLEncoder.encode(beforeId, StandardCharsets.UTF_8);
+        }
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .GET()
+                .build();
+
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() >= 300) {
+            throw new IOException(response.body() == null ? "History failed" : response.body());
+        }
+
+        return objectMapper.readValue(response.body(), HistoryPage.class);
+    }
+
+    // ===== PUSH (STOMP / SSE) =====
+
+    // jedno spojení na přihlášeného uživatele, sdílí ho hlavní okno i okno DM;
+    // výchozí STOMP jako web, -Dswi.push=sse přepne na /api/stream
+    public PushChannel openPushChannel(UserToken user) {
+        if ("sse".equalsIgnoreCase(System.getProperty("swi.push", "stomp"))) {
+            return new EventStream(httpClient, objectMapper, BASE_URL, user.getUserId().toString());
+        }
+        return new StompPushChannel(httpClient, objectMapper, BASE_URL, user.getUsername());
     }
 
     // ===== AVATARS =====
@@ -170,6 +219,25 @@ public class DesktopClient {
         return objectMapper.readValue(response.body(), new TypeReference<List<String>>() {});
     }
 
+    // Prefix hledání v adresáři uživatelů – jen pár jmen místo celé tabulky
+    public List<String> searchUsers(String prefix, int limit, String exclude) throws IOException, InterruptedException {
+        String url = BASE_URL + "/api/users/search?prefix=" + URLEncoder.encode(prefix, StandardCharsets.UTF_8)
+                + "&limit=" + limit
+                + "&exclude=" + URLEncoder.encode(exclude, StandardCharsets.UTF_8);
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .GET()
+                .build();
+
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() >= 300) {
+            throw new IOException(response.body() == null ? "Failed to search users" : response.body());
+        }
+
+        return objectMapper.readValue(response.body(), new TypeReference<List<String>>() {});
+    }
+
     // ===== DIRECT MESSAGES =====
 
     public void sendDirectMessage(UserToken user, String receiverName, String content)
@@ -196,13 +264,16 @@ public class DesktopClient {
         }
     }
 
-    public List<PayloadMessage> getDirectHistory(String user1, String user2)
+    public HistoryPage getDirectHistory(String user1, String user2, String afterId)
             throws IOException, InterruptedException {
 
-        String url = BASE_URL + "/api/direct-history?user1="
+        String url = BASE_URL + "/api/direct-history/since?user1="
                 + URLEncoder.encode(user1, StandardCharsets.UTF_8)
                 + "&user2="
                 + URLEncoder.encode(user2, StandardCharsets.UTF_8);
+        if (afterId != null && !afterId.isBlank()) {
+            url += "&after=" + URLEncoder.encode(afterId, StandardCharsets.UTF_8);
+        }
 
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(url))
@@ -213,8 +284,11 @@ public class DesktopClient {
         if (response.statusCode() >= 300) {
             throw new IOException(response.body() == null ? "Failed to fetch DM history" : response.body());
         }
+        if (response.statusCode() == 204) {
+            return new HistoryPage(List.of(), afterId, afterId, false);
+        }
 
-        return objectMapper.readValue(response.body(), new TypeReference<List<PayloadMessage>>() {});
+        return objectMapper.readValue(response.body(), HistoryPage.class);
     }
 
     public List<PayloadMessage> getUnreadDirectMessages(String username)
@@ -236,10 +310,30 @@ public class DesktopClient {
         return objectMapper.readValue(response.body(), new TypeReference<List<PayloadMessage>>() {});
     }
 
-    public void markDirectMessagesRead(String username) throws IOException, InterruptedException {
-        String url = BASE_URL + "/api/mark-messages-read?username="
+    // Jen počty nepřečtených DM (celkem + po odesílatelích) pro badge
+    public UnreadCounts getUnreadCounts(String username) throws IOException, InterruptedException {
+        String url = BASE_URL + "/api/unread-counts?username="
                 + URLEncoder.encode(username, StandardCharsets.UTF_8);
 
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .GET()
+                .build();
+
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() >= 300) {
+            throw new IOException(response.body() == null ? "Failed to fetch unread counts" : response.body());
+        }
+
+        return objectMapper.readValue(response.body(), UnreadCounts.class);
+    }
+
+    // peer = jen konverzace s tímto uživatelem
+    public void markDirectMessagesRead(String username, String peer) throws IOException, InterruptedException {
+        String url = BASE_URL + "/api/mark-messages-read?username="
+                + URLEncoder.encode(username, StandardCharsets.UTF_8)
+                + "&peer=" + URLEncoder.encode(peer, StandardCharsets.UTF_8);
+
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(url))
                 .POST(HttpRequest.BodyPublishers.noBody())
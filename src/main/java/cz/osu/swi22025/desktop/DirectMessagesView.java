@@ -1,6 +1,9 @@
 package cz.osu.swi22025.desktop;
 
+import cz.osu.swi22025.model.json.HistoryPage;
 import cz.osu.swi22025.model.json.PayloadMessage;
+import cz.osu.swi22025.model.json.UnreadCounts;
+import cz.osu.swi22025.model.json.UserProfileDto;
 import cz.osu.swi22025.model.json.UserToken;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
@@ -25,20 +28,26 @@ import java.util.*;
  * Desktop Direct Messages implementation compatible with the web app:
  * - REST send: POST /api/private-message
  * - REST history: GET /api/direct-history?user1&user2
- * - REST users: GET /users
+ * - REST users: GET /api/users/search?prefix&limit&exclude
  *
  * Works together with the web (STOMP) because backend broadcasts every DM
  * to /user/{name}/private, and also stores messages in DB.
+ *
+ * New DMs, unread counts and avatar changes come through the shared
+ * {@link PushChannel} (STOMP by default); the 300 ms pollers only run while it is down.
  */
 public class DirectMessagesView extends BorderPane {
 
     private static final String BASE_URL = "http://localhost:8081";
     private static final String DEFAULT_AVATAR_URL = "/avatars/cat.png";
     private static final DateTimeFormatter TIME_FMT = DateTimeFormatter.ofPattern("HH:mm:ss");
+    private static final int USER_SEARCH_LIMIT = 50;
 
     private final DesktopClient client;
     private final UserToken me;
     private final AvatarCache avatarCache;
+    private final PushChannel pushChannel;
+    private boolean closed = false;
 
     private java.io.File pendingFile = null;
     private final Label pendingFileLabel = new Label("");
@@ -62,17 +71,18 @@ public class DirectMessagesView extends BorderPane {
 
     // Polling history
     private Timeline dmHistoryPoller;
-    private int lastHistorySize = 0;
+    private volatile String newestDmId = null; // high-water mark aktivní konverzace
     private final Set<String> seen = new HashSet<>();
 
     // Unread counters
     private Timeline unreadPoller;
     private final Map<String, Integer> unreadByUser = new HashMap<>();
 
-    public DirectMessagesView(DesktopClient client, UserToken me, AvatarCache avatarCache) {
+    public DirectMessagesView(DesktopClient client, UserToken me, AvatarCache avatarCache, PushChannel pushChannel) {
         this.client = client;
         this.me = me;
         this.avatarCache = avatarCache;
+        this.pushChannel = pushChannel;
 
         setPadding(new Insets(12));
 
@@ -126,7 +136,8 @@ public class DirectMessagesView extends BorderPane {
                 String url = (cached == null || cached.isBlank()) ? DEFAULT_AVATAR_URL : cached;
                 av.setImage(new Image(BASE_URL + url, 26, 26, true, true));
 
-                new Thread(() -> {
+                // se streamem chodí změny avatarů jako události – backend jen pro neznámé
+                if (cached == null || !pushChannel.isConnected()) new Thread(() -> {
                     try {
                         String fresh = client.getAvatarUrlByUsername(item);
                         if (fresh == null || fresh.isBlank()) fresh = DEFAULT_AVATAR_URL;
@@ -199,20 +210,79 @@ public class DirectMessagesView extends BorderPane {
         setCenter(center);
         BorderPane.setMargin(center, new Insets(0, 0, 0, 10));
 
-        // Initial load
+        // Initial load; počty nepřečtených pak posílá push kanál (pollery jen při jeho výpadku)
         loadUsers("");
-        startUnreadPolling();
+        pushChannel.addListener(pushListener);
+        if (pushChannel.isConnected()) {
+            fetchUnread();
+        } else {
+            startUnreadPolling();
+        }
 
         // Cleanup when window closes
         sceneProperty().addListener((obs, oldScene, newScene) -> {
             if (newScene != null) {
                 newScene.windowProperty().addListener((o2, oldW, newW) -> {
-                    if (newW != null) newW.setOnHidden(e -> stopPolling());
+                    if (newW != null) newW.setOnHidden(e -> close());
                 });
             }
         });
     }
 
+    private final PushListener pushListener = new PushListener() {
+        @Override
+        public void onDirect(PayloadMessage m) {
+            Platform.runLater(() -> {
+                // appendMessage vezme jen zprávy aktivní konverzace
+                boolean stick = isNearBottom();
+                int before = messagesBox.getChildren().size();
+                appendMessage(m);
+                if (messagesBox.getChildren().size() > before) {
+                    advanceNewestDmId(m.getId());
+                    if (stick) scrollToBottom();
+                }
+            });
+        }
+
+        @Override
+        public void onUnread(UnreadCounts counts) {
+            Platform.runLater(() -> applyUnread(counts));
+        }
+
+        @Override
+        public void onAvatar(UserProfileDto profile) {
+            avatarCache.put(profile.getUsername(), profile.getAvatarUrl());
+            Platform.runLater(usersList::refresh);
+        }
+
+        @Override
+        public void onResync() {
+            Platform.runLater(() -> {
+                if (activePeer != null) fetchConversationDelta(activePeer);
+            });
+        }
+
+        @Override
+        public void onConnection(boolean connected) {
+            Platform.runLater(() -> {
+                if (closed) return;
+                if (connected) {
+                    stopPolling();
+                    if (activePeer != null) fetchConversationDelta(activePeer);
+                } else {
+                    if (unreadPoller == null) startUnreadPolling();
+                    if (activePeer != null && dmHistoryPoller == null) startHistoryPolling(activePeer);
+                }
+            });
+        }
+    };
+
+    private void close() {
+        closed = true;
+        pushChannel.removeListener(pushListener);
+        stopPolling();
+    }
+
     private void stopPolling() {
         if (dmHistoryPoller != null) {
             dmHistoryPoller.stop();
@@ -227,17 +297,13 @@ public class DirectMessagesView extends BorderPane {
     private void loadUsers(String filter) {
         new Thread(() -> {
             try {
-                List<String> users = client.getAllUsers();
-                users = users == null ? List.of() : users;
-
-                String f = filter == null ? "" : filter.toLowerCase(Locale.ROOT);
-                List<String> filtered = users.stream()
-                        .filter(u -> u != null && !u.equalsIgnoreCase(me.getUsername()))
-                        .filter(u -> f.isBlank() || u.toLowerCase(Locale.ROOT).contains(f))
-                        .sorted(String::compareToIgnoreCase)
-                        .toList();
+                // server filtruje podle prefixu a vrací už seřazené jména bez mě
+                List<String> users = client.searchUsers(filter == null ? "" : filter, USER_SEARCH_LIMIT, me.getUsername());
+                List<String> filtered = users == null ? List.of() : users;
 
                 Platform.runLater(() -> {
+                    // mezitím mohl uživatel psát dál – starší odpověď nepřepíše novější
+                    if (!safe(search.getText()).trim().equals(filter == null ? "" : filter)) return;
                     String selected = usersList.getSelectionModel().getSelectedItem();
                     usersList.getItems().setAll(filtered);
                     if (selected != null && filtered.contains(selected)) {
@@ -258,82 +324,97 @@ public class DirectMessagesView extends BorderPane {
         unreadByUser.put(peer, 0);
         usersList.refresh();
         new Thread(() -> {
-            try { client.markDirectMessagesRead(me.getUsername()); } catch (Exception ignored) {}
+            try { client.markDirectMessagesRead(me.getUsername(), peer); } catch (Exception ignored) {}
         }).start();
 
         // Reset history
-        lastHistorySize = 0;
+        newestDmId = null;
         seen.clear();
         messagesBox.getChildren().clear();
 
-        // Start polling this conversation
-        startHistoryPolling(peer);
+        // Historie konverzace jednou, nové DM pak přes push (polling jen bez něj)
+        if (dmHistoryPoller != null) {
+            dmHistoryPoller.stop();
+            dmHistoryPoller = null;
+        }
+        fetchConversationDelta(peer);
+        if (!pushChannel.isConnected()) startHistoryPolling(peer);
     }
 
     private void startHistoryPolling(String peer) {
         if (dmHistoryPoller != null) dmHistoryPoller.stop();
 
-        dmHistoryPoller = new Timeline(new KeyFrame(Duration.millis(300), e -> {
-            new Thread(() -> {
-                try {
-                    if (activePeer == null || !activePeer.equals(peer)) return;
-
-                    List<PayloadMessage> list = client.getDirectHistory(me.getUsername(), peer);
-                    if (list == null) list = List.of();
+        dmHistoryPoller = new Timeline(new KeyFrame(Duration.millis(300), e -> fetchConversationDelta(peer)));
 
-                    List<PayloadMessage> finalList = list;
-                    Platform.runLater(() -> {
-                        boolean stick = isNearBottom();
+        dmHistoryPoller.setCycleCount(Timeline.INDEFINITE);
+        dmHistoryPoller.play();
+    }
 
-                        if (finalList.size() < lastHistorySize) lastHistorySize = 0;
+    private void fetchConversationDelta(String peer) {
+        String after = newestDmId;
+        new Thread(() -> {
+            try {
+                if (activePeer == null || !activePeer.equals(peer)) return;
 
-                        for (int i = lastHistorySize; i < finalList.size(); i++) {
-                            appendMessage(finalList.get(i));
-                        }
+                HistoryPage delta = client.getDirectHistory(me.getUsername(), peer, after);
+                List<PayloadMessage> list = delta.getMessages();
+                if (list == null || list.isEmpty()) return;
 
-                        lastHistorySize = finalList.size();
+                Platform.runLater(() -> {
+                    // mezitím mohl uživatel přepnout konverzaci
+                    if (activePeer == null || !activePeer.equals(peer)) return;
+                    advanceNewestDmId(delta.getNewestId());
 
-                        if (stick) scrollToBottom();
-                    });
-                } catch (Exception ignored) {}
-            }).start();
-        }));
+                    boolean stick = isNearBottom();
+                    for (PayloadMessage m : list) appendMessage(m);
+                    if (stick) scrollToBottom();
+                });
+            } catch (Exception ignored) {}
+        }).start();
+    }
 
-        dmHistoryPoller.setCycleCount(Timeline.INDEFINITE);
-        dmHistoryPoller.play();
+    // high-water mark jen roste (delta i push můžou dorazit v libovolném pořadí)
+    private void advanceNewestDmId(String id) {
+        if (id == null || id.isBlank()) return;
+        try {
+            if (newestDmId == null || Long.parseLong(id) > Long.parseLong(newestDmId)) newestDmId = id;
+        } catch (NumberFormatException ignored) {}
     }
 
     private void startUnreadPolling() {
-        unreadPoller = new Timeline(new KeyFrame(Duration.millis(300), e -> {
-            new Thread(() -> {
-                try {
-                    List<PayloadMessage> unread = client.getUnreadDirectMessages(me.getUsername());
-                    if (unread == null) unread = List.of();
-
-                    Map<String, Integer> counts = new HashMap<>();
-                    for (PayloadMessage m : unread) {
-                        if (m == null) continue;
-                        String sender = safe(m.getSenderName());
-                        if (sender.isBlank() || sender.equalsIgnoreCase(me.getUsername())) continue;
-                        counts.put(sender, counts.getOrDefault(sender, 0) + 1);
-                    }
+        unreadPoller = new Timeline(new KeyFrame(Duration.millis(300), e -> fetchUnread()));
 
-                    Platform.runLater(() -> {
-                        unreadByUser.clear();
-                        unreadByUser.putAll(counts);
+        unreadPoller.setCycleCount(Timeline.INDEFINITE);
+        unreadPoller.play();
+    }
+
+    private void fetchUnread() {
+        new Thread(() -> {
+            try {
+                UnreadCounts unread = client.getUnreadCounts(me.getUsername());
+                Platform.runLater(() -> applyUnread(unread));
+            } catch (Exception ex) {
+                System.out.println("DM unread poll error: " + ex.getMessage());
+            }
+        }).start();
+    }
 
-                        // If we are currently chatting with someone, keep it 0 locally
-                        if (activePeer != null) unreadByUser.put(activePeer, 0);
-                        usersList.refresh();
-                    });
-                } catch (Exception ex) {
-                    System.out.println("DM unread poll error: " + ex.getMessage());
+    private void applyUnread(UnreadCounts unread) {
+        Map<String, Integer> counts = new HashMap<>();
+        if (unread != null && unread.getBySender() != null) {
+            unread.getBySender().forEach((sender, count) -> {
+                if (!safe(sender).isBlank() && !sender.equalsIgnoreCase(me.getUsername())) {
+                    counts.put(sender, count);
                 }
-            }).start();
-        }));
+            });
+        }
 
-        unreadPoller.setCycleCount(Timeline.INDEFINITE);
-        unreadPoller.play();
+        unreadByUser.clear();
+        unreadByUser.putAll(counts);
+
+        // If we are currently chatting with someone, keep it 0 locally
+        if (activePeer != null) unreadByUser.put(activePeer, 0);
+        usersList.refresh();
     }
 
     private void sendDm() {
@@ -386,7 +467,10 @@ public class DirectMessagesView extends BorderPane {
                 || (sender.equalsIgnoreCase(activePeer) && receiver.equalsIgnoreCase(me.getUsername()));
         if (!isBetween) return;
 
-        String key = sender + "|" + receiver + "|" + content + "|" + normalizeToSecond(date);
+        String key = safe(msg.getId());
+        if (key.isBlank()) {
+            key = sender + "|" + receiver + "|" + content + "|" + normalizeToSecond(date);
+        }
         if (seen.contains(key)) return;
         seen.add(key);
 
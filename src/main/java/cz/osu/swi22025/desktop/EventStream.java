@@ -0,0 +1,189 @@
+package cz.osu.swi22025.desktop;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.osu.swi22025.model.json.PayloadMessage;
+import cz.osu.swi22025.model.json.UnreadCounts;
+import cz.osu.swi22025.model.json.UserProfileDto;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+/**
+ * Jedno dlouhé SSE spojení na /api/stream místo pollerů (fronta, historie, nepřečtené, DM).
+ * Po výpadku se samo připojí znovu s Last-Event-ID, server pošle zmeškané události nebo resync.
+ */
+public class EventStream implements PushChannel {
+
+    private static final long DEFAULT_RETRY_MS = 3_000;
+
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final String url;
+    private final List<PushListener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile Thread worker;
+    private volatile Stream<String> body;
+    private volatile boolean connected;
+    private volatile String lastEventId;
+    private volatile long retryMs = DEFAULT_RETRY_MS;
+
+    EventStream(HttpClient httpClient, ObjectMapper objectMapper, String baseUrl, String userId) {
+        this.httpClient = httpClient;
+        this.objectMapper = objectMapper;
+        this.url = baseUrl + "/api/stream?userId=" + URLEncoder.encode(userId, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void addListener(PushListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(PushListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (worker != null) return;
+        Thread thread = new Thread(this::run, "event-stream");
+        thread.setDaemon(true);
+        worker = thread;
+        thread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        Thread thread = worker;
+        worker = null;
+        if (thread != null) thread.interrupt();
+        // zavření těla odblokuje čtení řádků
+        Stream<String> current = body;
+        if (current != null) current.close();
+    }
+
+    private void run() {
+        while (worker == Thread.currentThread()) {
+            try {
+                readStream();
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                if (worker != Thread.currentThread()) break;
+                System.out.println("Event stream error: " + e.getMessage());
+            }
+            setConnected(false);
+            try {
+                Thread.sleep(retryMs);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        setConnected(false);
+    }
+
+    private void readStream() throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .header("Accept", "text/event-stream")
+                .GET();
+        if (lastEventId != null) request.header("Last-Event-ID", lastEventId);
+
+        HttpResponse<Stream<String>> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofLines());
+        try (Stream<String> lines = response.body()) {
+            if (response.statusCode() != 200) {
+                throw new IOException("Event stream failed: " + response.statusCode());
+            }
+            body = lines;
+            if (worker != Thread.currentThread()) return;
+            setConnected(true);
+
+            // formát SSE: pole "id:", "event:", "data:", "retry:", komentář ":"; prázdný řádek = konec události
+            String id = null;
+            String event = null;
+            StringBuilder data = new StringBuilder();
+            Iterator<String> iterator = lines.iterator();
+            while (iterator.hasNext()) {
+                String line = iterator.next();
+                if (line.isEmpty()) {
+                    if (id != null) lastEventId = id;
+                    if (event != null || data.length() > 0) dispatch(event == null ? "message" : event, data.toString());
+                    id = null;
+                    event = null;
+                    data.setLength(0);
+                    continue;
+                }
+                if (line.startsWith(":")) continue;
+
+                int colon = line.indexOf(':');
+                String field = colon < 0 ? line : line.substring(0, colon);
+                String value = colon < 0 ? "" : line.substring(colon + 1);
+                if (value.startsWith(" ")) value = value.substring(1);
+
+                switch (field) {
+                    case "id" -> id = value;
+                    case "event" -> event = value;
+                    case "data" -> {
+                        if (data.length() > 0) data.append('\n');
+                        data.append(value);
+                    }
+                    case "retry" -> {
+                        try {
+                            retryMs = Long.parseLong(value.trim());
+                        } catch (NumberFormatException ignored) {}
+                    }
+                    default -> {}
+                }
+            }
+        } finally {
+            body = null;
+        }
+    }
+
+    private void dispatch(String event, String data) {
+        try {
+            switch (event) {
+                case "message" -> {
+                    PayloadMessage message = objectMapper.readValue(data, PayloadMessage.class);
+                    listeners.forEach(l -> l.onMessage(message));
+                }
+                case "direct" -> {
+                    PayloadMessage message = objectMapper.readValue(data, PayloadMessage.class);
+                    listeners.forEach(l -> l.onDirect(message));
+                }
+                case "unread" -> {
+                    UnreadCounts counts = objectMapper.readValue(data, UnreadCounts.class);
+                    listeners.forEach(l -> l.onUnread(counts));
+                }
+                case "avatar" -> {
+                    UserProfileDto profile = objectMapper.readValue(data, UserProfileDto.class);
+                    listeners.forEach(l -> l.onAvatar(profile));
+                }
+                case "resync" -> listeners.forEach(PushListener::onResync);
+                default -> {}
+            }
+        } catch (Exception e) {
+            System.out.println("Event stream: bad " + event + " event: " + e.getMessage());
+        }
+    }
+
+    private void setConnected(boolean value) {
+        if (connected == value) return;
+        connected = value;
+        listeners.forEach(l -> l.onConnection(value));
+    }
+}
@@ -0,0 +1,18 @@
+package cz.osu.swi22025.desktop;
+
+/**
+ * Jedno push spojení přihlášeného uživatele, sdílené hlavním oknem i oknem DM.
+ * Implementace: {@link StompPushChannel} (WebSocket, výchozí) a {@link EventStream} (SSE).
+ */
+public interface PushChannel {
+
+    void addListener(PushListener listener);
+
+    void removeListener(PushListener listener);
+
+    boolean isConnected();
+
+    void start();
+
+    void stop();
+}
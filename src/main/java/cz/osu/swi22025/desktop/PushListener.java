@@ -0,0 +1,25 @@
+package cz.osu.swi22025.desktop;
+
+import cz.osu.swi22025.model.json.PayloadMessage;
+import cz.osu.swi22025.model.json.UnreadCounts;
+import cz.osu.swi22025.model.json.UserProfileDto;
+
+/**
+ * Události z {@link PushChannel}. Volají se z vlákna spojení – UI si je přehazuje přes Platform.runLater.
+ */
+public interface PushListener {
+
+    default void onMessage(PayloadMessage message) {}
+
+    default void onDirect(PayloadMessage message) {}
+
+    default void onUnread(UnreadCounts counts) {}
+
+    default void onAvatar(UserProfileDto profile) {}
+
+    // zmeškané události už server nemá – dotáhnout stav přes REST
+    default void onResync() {}
+
+    // true = push běží (pollery můžou stát), false = výpadek
+    default void onConnection(boolean connected) {}
+}
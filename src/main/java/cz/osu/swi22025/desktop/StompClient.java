@@ -0,0 +1,344 @@
+package cz.osu.swi22025.desktop;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Minimální STOMP 1.2 klient nad {@link java.net.http.WebSocket} (jen odběr – posílá se přes REST).
+ * <ul>
+ *   <li>heart-beaty podle CONNECTED: klient posílá "\n", spojení bez provozu déle než 3× interval
+ *       serveru považuje za mrtvé a zavře ho,</li>
+ *   <li>po výpadku reconnect s exponenciálním backoffem a jitterem – po restartu serveru se
+ *       klienti nepřipojují všichni ve stejnou chvíli,</li>
+ *   <li>po každém CONNECTED se znovu pošlou všechny SUBSCRIBE.</li>
+ * </ul>
+ */
+public class StompClient {
+
+    public interface ConnectionListener {
+        void onConnection(boolean connected);
+    }
+
+    private record Subscription(String destination, Consumer<String> handler) {}
+
+    private static final long HEARTBEAT_MS = 10_000;
+    private static final long INITIAL_BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 30_000;
+    private static final long CONNECT_TIMEOUT_MS = 10_000;
+
+    private final HttpClient httpClient;
+    private final URI uri;
+    private final String host;
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriptionIds = new AtomicInteger();
+    private final List<ConnectionListener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler;
+
+    private volatile boolean running;
+    private volatile boolean connected;
+    private volatile WebSocket webSocket;
+    private volatile long lastReceived;
+    private volatile long lastSent;
+    private volatile long sendIntervalMs;
+    private volatile long receiveIntervalMs;
+
+    // guarded by this: pořadí spojení (callbacky starého spojení se ignorují), backoff, odesílání
+    private long generation;
+    private int attempt;
+    private ScheduledFuture<?> heartbeat;
+    private CompletableFuture<?> sending = CompletableFuture.completedFuture(null);
+
+    StompClient(HttpClient httpClient, URI uri) {
+        this.httpClient = httpClient;
+        this.uri = uri;
+        this.host = uri.getHost();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "stomp-client");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void addConnectionListener(ConnectionListener listener) {
+        listeners.add(listener);
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        connect();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        generation++;
+        stopHeartbeat();
+        WebSocket ws = webSocket;
+        webSocket = null;
+        if (ws != null) {
+            send(ws, frame("DISCONNECT", Map.of(), ""));
+            ws.sendClose(WebSocket.NORMAL_CLOSURE, "bye");
+        }
+        setConnected(false);
+    }
+
+    /** Odběr destinace; handler dostane tělo každé zprávy. Přežije reconnect. */
+    public String subscribe(String destination, Consumer<String> handler) {
+        String id = "sub-" + subscriptionIds.incrementAndGet();
+        subscriptions.put(id, new Subscription(destination, handler));
+        WebSocket ws = webSocket;
+        if (connected && ws != null) sendSubscribe(ws, id, destination);
+        return id;
+    }
+
+    public void unsubscribe(String id) {
+        if (subscriptions.remove(id) == null) return;
+        WebSocket ws = webSocket;
+        if (connected && ws != null) send(ws, frame("UNSUBSCRIBE", Map.of("id", id), ""));
+    }
+
+    private synchronized void connect() {
+        if (!running) return;
+        long current = ++generation;
+        httpClient.newWebSocketBuilder()
+                .connectTimeout(Duration.ofMillis(CONNECT_TIMEOUT_MS))
+                .buildAsync(uri, new Handler(current))
+                .whenComplete((ws, error) -> {
+                    if (error != null) connectionLost(current, error.getMessage());
+                });
+    }
+
+    private synchronized void connectionLost(long lostGeneration, String reason) {
+        if (lostGeneration != generation) return;
+        generation++;
+        stopHeartbeat();
+        WebSocket ws = webSocket;
+        webSocket = null;
+        if (ws != null) ws.abort();
+        setConnected(false);
+        if (!running) return;
+
+        // exponenciální strop, čekání náhodně v jeho horní polovině
+        long cap = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << Math.min(attempt, 16));
+        long delay = cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+        attempt++;
+        System.out.println("STOMP connection lost (" + reason + "), reconnect in " + delay + " ms");
+        scheduler.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private final class Handler implements WebSocket.Listener {
+        private final long handlerGeneration;
+        private final StringBuilder buffer = new StringBuilder();
+
+        Handler(long handlerGeneration) {
+            this.handlerGeneration = handlerGeneration;
+        }
+
+        @Override
+        public void onOpen(WebSocket ws) {
+            synchronized (StompClient.this) {
+                if (handlerGeneration != generation) {
+                    ws.abort();
+                    return;
+                }
+                webSocket = ws;
+                sending = CompletableFuture.completedFuture(null);
+            }
+            lastReceived = System.currentTimeMillis();
+            ws.request(1);
+            Map<String, String> headers = new LinkedHashMap<>();
+            headers.put("accept-version", "1.2");
+            headers.put("host", host);
+            headers.put("heart-beat", HEARTBEAT_MS + "," + HEARTBEAT_MS);
+            send(ws, frame("CONNECT", headers, ""));
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket ws, CharSequence data, boolean last) {
+            lastReceived = System.currentTimeMillis();
+            buffer.append(data);
+            // rámec končí NUL, mezi rámci můžou být heart-beaty (prázdné řádky)
+            int end;
+            while ((end = buffer.indexOf("\0")) >= 0) {
+                String frame = buffer.substring(0, end);
+                buffer.delete(0, end + 1);
+                handleFrame(handlerGeneration, ws, stripLeadingEol(frame));
+            }
+            if (buffer.length() > 0 && stripLeadingEol(buffer.toString()).isEmpty()) buffer.setLength(0);
+            ws.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket ws, int statusCode, String reason) {
+            connectionLost(handlerGeneration, "closed " + statusCode);
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket ws, Throwable error) {
+            connectionLost(handlerGeneration, error.getMessage());
+        }
+    }
+
+    private void handleFrame(long frameGeneration, WebSocket ws, String frame) {
+        if (frame.isEmpty()) return;
+        int headerEnd = frame.indexOf("\n\n");
+        int bodyStart = headerEnd + 2;
+        if (headerEnd < 0) {
+            headerEnd = frame.length();
+            bodyStart = frame.length();
+        }
+        String[] lines = frame.substring(0, headerEnd).split("\n");
+        String command = lines[0];
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) continue;
+            // opakovaná hlavička: platí první výskyt
+            headers.putIfAbsent(unescape(lines[i].substring(0, colon)), unescape(lines[i].substring(colon + 1)));
+        }
+        String body = frame.substring(bodyStart);
+
+        switch (command) {
+            case "CONNECTED" -> onConnected(frameGeneration, ws, headers.get("heart-beat"));
+            case "MESSAGE" -> {
+                Subscription subscription = subscriptions.get(headers.getOrDefault("subscription", ""));
+                if (subscription == null) return;
+                try {
+                    subscription.handler().accept(body);
+                } catch (RuntimeException e) {
+                    System.out.println("STOMP handler of " + subscription.destination() + " failed: " + e.getMessage());
+                }
+            }
+            case "ERROR" -> connectionLost(frameGeneration, "ERROR " + headers.getOrDefault("message", body));
+            default -> {}
+        }
+    }
+
+    private void onConnected(long connectedGeneration, WebSocket ws, String heartBeat) {
+        // heart-beat serveru "sx,sy": posíláme po max(náš, sy), čekáme provoz aspoň po max(náš, sx)
+        long serverSends = 0;
+        long serverExpects = 0;
+        if (heartBeat != null && heartBeat.contains(",")) {
+            try {
+                String[] parts = heartBeat.split(",");
+                serverSends = Long.parseLong(parts[0].trim());
+                serverExpects = Long.parseLong(parts[1].trim());
+            } catch (NumberFormatException ignored) {}
+        }
+        synchronized (this) {
+            if (connectedGeneration != generation) return;
+            attempt = 0;
+            sendIntervalMs = serverExpects > 0 ? Math.max(HEARTBEAT_MS, serverExpects) : 0;
+            receiveIntervalMs = serverSends > 0 ? Math.max(HEARTBEAT_MS, serverSends) : 0;
+            startHeartbeat(connectedGeneration);
+        }
+        subscriptions.forEach((id, subscription) -> sendSubscribe(ws, id, subscription.destination()));
+        setConnected(true);
+    }
+
+    private void startHeartbeat(long heartbeatGeneration) {
+        stopHeartbeat();
+        long send = sendIntervalMs;
+        long receive = receiveIntervalMs;
+        if (send == 0 && receive == 0) return;
+        long period = Math.max(500, Math.min(send == 0 ? Long.MAX_VALUE : send, receive == 0 ? Long.MAX_VALUE : receive) / 2);
+        heartbeat = scheduler.scheduleAtFixedRate(() -> {
+            WebSocket ws = webSocket;
+            if (ws == null) return;
+            long now = System.currentTimeMillis();
+            if (receive > 0 && now - lastReceived > receive * 3) {
+                connectionLost(heartbeatGeneration, "no heart-beat from server");
+            } else if (send > 0 && now - lastSent >= send) {
+                send(ws, "\n");
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private void stopHeartbeat() {
+        if (heartbeat != null) {
+            heartbeat.cancel(false);
+            heartbeat = null;
+        }
+    }
+
+    private void sendSubscribe(WebSocket ws, String id, String destination) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("id", id);
+        headers.put("destination", destination);
+        send(ws, frame("SUBSCRIBE", headers, ""));
+    }
+
+    // WebSocket nesmí mít rozpracované dvě odeslání najednou – řetězí se za sebe
+    private synchronized void send(WebSocket ws, String text) {
+        lastSent = System.currentTimeMillis();
+        sending = sending.handle((result, error) -> null).thenCompose(ignored -> ws.sendText(text, true));
+    }
+
+    private void setConnected(boolean value) {
+        if (connected == value) return;
+        connected = value;
+        listeners.forEach(l -> l.onConnection(value));
+    }
+
+    private static String frame(String command, Map<String, String> headers, String body) {
+        StringBuilder frame = new StringBuilder(command).append('\n');
+        // CONNECT hlavičky se podle STOMP 1.2 neescapují
+        boolean escape = !"CONNECT".equals(command);
+        headers.forEach((name, value) -> frame
+                .append(escape ? escape(name) : name).append(':')
+                .append(escape ? escape(value) : value).append('\n'));
+        return frame.append('\n').append(body).append('\0').toString();
+    }
+
+    private static String stripLeadingEol(String text) {
+        int i = 0;
+        while (i < text.length() && (text.charAt(i) == '\n' || text.charAt(i) == '\r')) i++;
+        return text.substring(i).replace("\r\n", "\n");
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\r", "\\r").replace("\n", "\\n").replace(":", "\\c");
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) return value;
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\' || i + 1 == value.length()) {
+                out.append(c);
+                continue;
+            }
+            char next = value.charAt(++i);
+            switch (next) {
+                case 'r' -> out.append('\r');
+                case 'n' -> out.append('\n');
+                case 'c' -> out.append(':');
+                default -> out.append(next);
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,109 @@
+package cz.osu.swi22025.desktop;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.osu.swi22025.model.json.PayloadMessage;
+import cz.osu.swi22025.model.json.UnreadCounts;
+import cz.osu.swi22025.model.json.UserProfileDto;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Push přes STOMP – stejné destinace, které odebírá web (/chatroom/1, /user/{name}/private),
+ * navíc /user/{name}/unread a /chatroom/avatars. STOMP nemá replay: po (re)connectu si views
+ * dotáhnou rozdíl přes REST a kanál sám načte aktuální počty nepřečtených.
+ */
+public class StompPushChannel implements PushChannel {
+
+    private static final String PUBLIC_ROOM = "/chatroom/1";
+
+    private final StompClient stomp;
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final String baseUrl;
+    private final String username;
+    private final List<PushListener> listeners = new CopyOnWriteArrayList<>();
+
+    StompPushChannel(HttpClient httpClient, ObjectMapper objectMapper, String baseUrl, String username) {
+        this.httpClient = httpClient;
+        this.objectMapper = objectMapper;
+        this.baseUrl = baseUrl;
+        this.username = username;
+        this.stomp = new StompClient(httpClient, URI.create(baseUrl.replaceFirst("^http", "ws") + "/ws/websocket"));
+
+        stomp.subscribe(PUBLIC_ROOM, body -> {
+            PayloadMessage message = read(body, PayloadMessage.class);
+            if (message != null) listeners.forEach(l -> l.onMessage(message));
+        });
+        stomp.subscribe("/user/" + username + "/private", body -> {
+            PayloadMessage message = read(body, PayloadMessage.class);
+            if (message != null) listeners.forEach(l -> l.onDirect(message));
+        });
+        stomp.subscribe("/user/" + username + "/unread", body -> {
+            UnreadCounts counts = read(body, UnreadCounts.class);
+            if (counts != null) listeners.forEach(l -> l.onUnread(counts));
+        });
+        stomp.subscribe("/chatroom/avatars", body -> {
+            UserProfileDto profile = read(body, UserProfileDto.class);
+            if (profile != null) listeners.forEach(l -> l.onAvatar(profile));
+        });
+        stomp.addConnectionListener(connected -> {
+            listeners.forEach(l -> l.onConnection(connected));
+            if (connected) fetchUnreadSnapshot();
+        });
+    }
+
+    @Override
+    public void addListener(PushListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(PushListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return stomp.isConnected();
+    }
+
+    @Override
+    public void start() {
+        stomp.start();
+    }
+
+    @Override
+    public void stop() {
+        stomp.stop();
+    }
+
+    // náhrada za "unread" snapshot z SSE; asynchronně, ať neblokuje vlákno WebSocketu
+    private void fetchUnreadSnapshot() {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/api/unread-counts?username=" + URLEncoder.encode(username, StandardCharsets.UTF_8)))
+                .GET()
+                .build();
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenAccept(response -> {
+                    if (response.statusCode() != 200) return;
+                    UnreadCounts counts = read(response.body(), UnreadCounts.class);
+                    if (counts != null) listeners.forEach(l -> l.onUnread(counts));
+                });
+    }
+
+    private <T> T read(String body, Class<T> type) {
+        try {
+            return objectMapper.readValue(body, type);
+        } catch (Exception e) {
+            System.out.println("STOMP: bad " + type.getSimpleName() + " payload: " + e.getMessage());
+            return null;
+        }
+    }
+}
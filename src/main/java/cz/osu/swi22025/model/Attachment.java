@@ -0,0 +1,28 @@
+package cz.osu.swi22025.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Embeddable
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Attachment {
+    @Column(name = "attachment_name")
+    private String fileName;
+
+    @Column(name = "attachment_url")
+    private String fileUrl;
+
+    @Column(name = "attachment_size")
+    private Long fileSize;
+
+    @Column(name = "attachment_mime_type")
+    private String mimeType;
+
+    @Column(name = "attachment_image")
+    private Boolean image;
+}
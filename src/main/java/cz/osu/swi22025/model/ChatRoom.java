@@ -2,18 +2,25 @@ package cz.osu.swi22025.model;
 
 import jakarta.persistence.*;
 import lombok.Data;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
 @Data
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@EntityListeners(ShardReferenceListener.class)
 public class ChatRoom {
     @Id
     @GeneratedValue(strategy = GenerationType.AUTO)
     private Integer chatId;
 
+    // inverzní strana – Hibernate ji v cache sám neaktualizuje, viz EntityCacheService
     @ManyToMany(mappedBy = "joinedRooms")
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     private List<ChatUser> joinedUsers = new ArrayList<>();
 
     @OneToMany(mappedBy = "chatRoom")
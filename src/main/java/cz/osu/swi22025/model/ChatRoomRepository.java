@@ -1,14 +1,35 @@
 package cz.osu.swi22025.model;
 
 import cz.osu.swi22025.model.ChatRoom;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.UUID;
 
 public interface ChatRoomRepository extends CrudRepository<ChatRoom, Integer> {
     List<ChatRoom> findByJoinedUsers_UserId(UUID userId);
+    @Transactional(readOnly = true)
     List<ChatRoom> findByJoinedUsers_Username(String username);
     boolean existsByChatNameIgnoreCase(String chatName);
     ChatRoom findByChatNameIgnoreCase(String chatName);
+
+    @Query("SELECT r.chatId FROM ChatRoom r")
+    List<Integer> findAllIds();
+
+    @Query("SELECT r.chatId FROM ChatUser u JOIN u.joinedRooms r WHERE u.userId = :userId")
+    List<Integer> findJoinedRoomIds(@Param("userId") UUID userId);
+
+    // Souhrn místností uživatele jedním dotazem (členové přes agregaci, zbytek z ChatRoomStats)
+    @Transactional(readOnly = true)
+    @Query("SELECT new cz.osu.swi22025.model.RoomSummaryRow(r.chatId, r.chatName, SIZE(r.joinedUsers), " +
+           "st.messageCount, st.lastServerId, st.lastMessagePreview, st.lastSenderName, st.lastActivity, " +
+           "s.readCount, u.timezone) " +
+           "FROM ChatUser u JOIN u.joinedRooms r " +
+           "LEFT JOIN ChatRoomStats st ON st.chatId = r.chatId " +
+           "LEFT JOIN RoomReadState s ON s.id.userId = u.userId AND s.id.chatId = r.chatId " +
+           "WHERE u.usernameNormalized = :username ORDER BY st.lastActivity DESC NULLS LAST, r.chatId")
+    List<RoomSummaryRow> findSummariesForUser(@Param("username") String usernameNormalized);
 }
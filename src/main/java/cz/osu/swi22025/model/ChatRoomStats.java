@@ -0,0 +1,39 @@
+package cz.osu.swi22025.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+// Souhrn místnosti pro seznam místností – udržuje MessagePersistenceService při zápisu zpráv.
+// Samostatná tabulka, aby časté UPDATE nezneplatňovaly ChatRoom v L2 cache.
+@Entity
+@Data
+@NoArgsConstructor
+@Table(name = "chat_room_stats")
+public class ChatRoomStats {
+    @Id
+    @Column(name = "chat_id")
+    private Integer chatId;
+
+    @Column(name = "message_count", nullable = false)
+    private long messageCount;
+
+    @Column(name = "last_server_id")
+    private Long lastServerId;
+
+    @Column(name = "last_message_preview")
+    private String lastMessagePreview;
+
+    @Column(name = "last_sender_name")
+    private String lastSenderName;
+
+    @Column(name = "last_activity")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date lastActivity;
+
+    public ChatRoomStats(Integer chatId) {
+        this.chatId = chatId;
+    }
+}
@@ -0,0 +1,31 @@
+package cz.osu.swi22025.model;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Date;
+import java.util.List;
+
+public interface ChatRoomStatsRepository extends JpaRepository<ChatRoomStats, Integer> {
+
+    @Modifying
+    @Query("UPDATE ChatRoomStats st SET st.messageCount = st.messageCount + :count WHERE st.chatId = :chatId")
+    int addMessageCount(@Param("chatId") Integer chatId, @Param("count") long count);
+
+    // Poslední zprávu přepisuje jen novější server_id (dávky mohou přijít mimo pořadí)
+    @Modifying
+    @Query("UPDATE ChatRoomStats st SET st.lastServerId = :serverId, st.lastMessagePreview = :preview, " +
+           "st.lastSenderName = :sender, st.lastActivity = :sendTime " +
+           "WHERE st.chatId = :chatId AND (st.lastServerId IS NULL OR st.lastServerId < :serverId)")
+    int updateLastMessage(@Param("chatId") Integer chatId,
+                          @Param("serverId") Long serverId,
+                          @Param("preview") String preview,
+                          @Param("sender") String sender,
+                          @Param("sendTime") Date sendTime);
+
+    // Backfill: místnosti, které ještě nemají souhrn
+    @Query("SELECT r.chatId FROM ChatRoom r WHERE NOT EXISTS (SELECT 1 FROM ChatRoomStats st WHERE st.chatId = r.chatId)")
+    List<Integer> findRoomIdsWithoutStats();
+}
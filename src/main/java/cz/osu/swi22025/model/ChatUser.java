@@ -2,13 +2,21 @@ package cz.osu.swi22025.model;
 
 import jakarta.persistence.*;
 import lombok.Data;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.UUID;
 
+// L2 cache: uživatel se čte při každé zprávě; zápisy jdou přes save(), takže READ_WRITE stačí
 @Entity
 @Data
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@EntityListeners(ShardReferenceListener.class)
+@Table(indexes = @Index(name = "ux_chat_user_username_normalized", columnList = "username_normalized", unique = true))
 public class ChatUser {
     @Id
     @GeneratedValue(strategy = GenerationType.UUID)
@@ -18,6 +26,10 @@ public class ChatUser {
     @Column(nullable = false, unique = true)
     private String username;
 
+    // username malými písmeny – case-insensitive hledání jde přes unikátní index (UserRepository)
+    @Column(name = "username_normalized")
+    private String usernameNormalized;
+
     @Column(nullable = false)
     private String password;
 
@@ -31,6 +43,7 @@ public class ChatUser {
     private Integer currentRoomId;
 
     @ManyToMany
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @JoinTable(
             name = "chat_member",
             joinColumns = @JoinColumn(name = "user_id"),
@@ -41,11 +54,31 @@ public class ChatUser {
     @OneToMany(mappedBy = "chatUser")
     private List<Message> messages = new ArrayList<>();
 
+    public void setUsername(String username) {
+        this.username = username;
+        this.usernameNormalized = normalizeUsername(username);
+    }
+
+    @PrePersist
+    void fillUsernameNormalized() {
+        if (usernameNormalized == null) usernameNormalized = normalizeUsername(username);
+    }
+
+    public static String normalizeUsername(String username) {
+        return username == null ? null : username.toLowerCase(Locale.ROOT);
+    }
+
     public void addRoom(ChatRoom chatRoom) {
         this.joinedRooms.add(chatRoom);
         chatRoom.getJoinedUsers().add(this);
     }
 
+    // podle ID – @Data equals by procházel obousměrné kolekce
+    public void removeRoom(ChatRoom chatRoom) {
+        this.joinedRooms.removeIf(room -> room.getChatId().equals(chatRoom.getChatId()));
+        chatRoom.getJoinedUsers().removeIf(user -> user.getUserId().equals(this.userId));
+    }
+
     public void addMessage(Message message) {
         this.messages.add(message);
         message.setChatUser(this);
@@ -4,14 +4,23 @@ import jakarta.persistence.*;
 import lombok.Data;
 
 import java.util.Date;
+import java.util.UUID;
 
 @Entity
 @Data
+@Table(indexes = {
+        @Index(name = "idx_dm_conversation_send_time", columnList = "conversation_key, send_time"),
+        @Index(name = "idx_dm_conversation_server_id", columnList = "conversation_key, server_id")
+})
 public class DirectMessage {
     @Id
     @GeneratedValue(strategy = GenerationType.AUTO)
     private Integer messageId;
 
+    // Serverové ID (MessageIdGenerator) – stabilní, časově řazené, posílá se klientům
+    @Column(name = "server_id", nullable = false, unique = true)
+    private Long serverId;
+
     @ManyToOne
     @JoinColumn(name = "sender_id", nullable = false)
     private ChatUser sender;
@@ -20,13 +29,38 @@ public class DirectMessage {
     @JoinColumn(name = "receiver_id", nullable = false)
     private ChatUser receiver;
 
+    // Seřazená dvojice ID uživatelů – stejná pro oba směry, konverzace = jeden index seek.
+    // Nullable jen kvůli starým řádkům, doplní je BackfillService.
+    @Column(name = "conversation_key", length = 73)
+    private String conversationKey;
+
     @Column(nullable = false)
     private String content;
 
-    @Column(nullable = false)
+    // TEXT / FILE / IMAGE
+    @Column(name = "message_type")
+    private String messageType = "TEXT";
+
+    @Embedded
+    private Attachment attachment;
+
+    @Column(name = "send_time", nullable = false)
     @Temporal(TemporalType.TIMESTAMP)
     private Date sendTime;
 
     @Column(nullable = false)
     private Boolean isRead = false;
+
+    @PrePersist
+    void fillConversationKey() {
+        if (conversationKey == null && sender != null && receiver != null) {
+            conversationKey = conversationKey(sender.getUserId(), receiver.getUserId());
+        }
+    }
+
+    public static String conversationKey(UUID user1, UUID user2) {
+        String a = user1.toString();
+        String b = user2.toString();
+        return a.compareTo(b) <= 0 ? a + ":" + b : b + ":" + a;
+    }
 }
@@ -2,27 +2,140 @@ package cz.osu.swi22025.model;
 
 import cz.osu.swi22025.model.DirectMessage;
 import cz.osu.swi22025.model.ChatUser;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
 @Repository
 public interface DirectMessageRepository extends JpaRepository<DirectMessage, Integer> {
     
-    @Query("SELECT dm FROM DirectMessage dm WHERE " +
-           "(dm.sender = :user1 AND dm.receiver = :user2) OR " +
-           "(dm.sender = :user2 AND dm.receiver = :user1) " +
-           "ORDER BY dm.sendTime ASC")
-    List<DirectMessage> findConversationBetweenUsers(@Param("user1") ChatUser user1, 
-                                                    @Param("user2") ChatUser user2);
-    
+    String ROW_SELECT = "SELECT new cz.osu.swi22025.model.MessageRow(dm.serverId, s.username, s.avatarUrl, " +
+            "null, r.username, dm.content, dm.messageType, dm.attachment.fileName, dm.attachment.fileUrl, " +
+            "dm.attachment.fileSize, dm.attachment.mimeType, dm.sendTime, dm.isRead) " +
+            "FROM DirectMessage dm JOIN dm.sender s JOIN dm.receiver r ";
+
+    // Konverzace se hledá přes conversation_key (DirectMessage.conversationKey) – jeden index seek
+    @Transactional(readOnly = true)
+    @Query(ROW_SELECT + "WHERE dm.conversationKey = :key ORDER BY dm.sendTime ASC")
+    List<MessageRow> findConversation(@ShardKey @Param("key") String conversationKey);
+
+    @Transactional(readOnly = true)
+    @Query(ROW_SELECT + "WHERE dm.conversationKey = :key ORDER BY dm.serverId DESC")
+    List<MessageRow> findConversationLatest(@ShardKey @Param("key") String conversationKey, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query(ROW_SELECT + "WHERE dm.conversationKey = :key AND dm.serverId < :before ORDER BY dm.serverId DESC")
+    List<MessageRow> findConversationBefore(@ShardKey @Param("key") String conversationKey,
+                                            @Param("before") Long before,
+                                            Pageable pageable);
+
+    // Archivace: konverzace se zprávami v rozsahu server_id [from, to)
+    @Query("SELECT DISTINCT dm.conversationKey FROM DirectMessage dm " +
+           "WHERE dm.serverId >= :from AND dm.serverId < :to AND dm.conversationKey IS NOT NULL")
+    List<String> findConversationKeysInRange(@Param("from") Long from, @Param("to") Long to);
+
+    // Za kurzorem a pod horní mezí (delta feed – mez commitu, archivace – konec měsíce); čte z primární
+    @Query(ROW_SELECT + "WHERE dm.conversationKey = :key AND dm.serverId > :after AND dm.serverId < :to " +
+           "ORDER BY dm.serverId ASC")
+    List<MessageRow> findConversationRangeAfter(@ShardKey @Param("key") String conversationKey,
+                                                @Param("after") Long after,
+                                                @Param("to") Long to,
+                                                Pageable pageable);
+
+    @Query("SELECT MIN(dm.serverId) FROM DirectMessage dm")
+    Long findMinServerId();
+
+    // Fulltext: výsledky hledání podle server_id a plnění indexu (vzestupně od kurzoru)
+    @Query(ROW_SELECT + "WHERE dm.serverId IN :ids")
+    List<MessageRow> findRowsByServerIds(@Param("ids") List<Long> serverIds);
+
+    @Query("SELECT new cz.osu.swi22025.model.SearchDocRow(dm.serverId, null, dm.conversationKey, s.username, " +
+           "dm.content, dm.attachment.fileName) FROM DirectMessage dm JOIN dm.sender s " +
+           "WHERE dm.serverId > :after AND dm.conversationKey IS NOT NULL ORDER BY dm.serverId ASC")
+    List<SearchDocRow> findSearchDocsAfter(@Param("after") Long after, Pageable pageable);
+
+    boolean existsByServerId(Long serverId);
+
+    // Retence: dávky nejstarších server_id (všechny konverzace / jedna konverzace) pod hranicí.
+    // Maže se podle server_id – je globálně unikátní, takže mazání puštěné na všechny shardy nesáhne na cizí řádky.
+    @Query("SELECT dm.serverId FROM DirectMessage dm WHERE dm.serverId < :before ORDER BY dm.serverId ASC")
+    List<Long> findServerIdsBefore(@Param("before") Long before, Pageable pageable);
+
+    @Query("SELECT dm.serverId FROM DirectMessage dm WHERE dm.conversationKey = :key AND dm.serverId < :before " +
+           "ORDER BY dm.serverId ASC")
+    List<Long> findConversationServerIdsBefore(@ShardKey @Param("key") String conversationKey,
+                                               @Param("before") Long before,
+                                               Pageable pageable);
+
+    @Query("SELECT dm.serverId FROM DirectMessage dm WHERE dm.conversationKey = :key ORDER BY dm.serverId DESC")
+    List<Long> findConversationServerIdsNewestFirst(@ShardKey @Param("key") String conversationKey, Pageable pageable);
+
+    // [conversation_key, počet] konverzací nad limitem
+    @Query("SELECT dm.conversationKey, COUNT(dm) FROM DirectMessage dm WHERE dm.conversationKey IS NOT NULL " +
+           "GROUP BY dm.conversationKey HAVING COUNT(dm) > :max")
+    List<Object[]> findConversationsLargerThan(@Param("max") long max);
+
+    // [receiver_id, sender_id, počet] nepřečtených v dávce – ať počítadla po smazání sedí (retence, archiv)
+    @Query("SELECT dm.receiver.userId, dm.sender.userId, COUNT(dm) FROM DirectMessage dm " +
+           "WHERE dm.serverId IN :serverIds AND dm.isRead = false GROUP BY dm.receiver.userId, dm.sender.userId")
+    List<Object[]> countUnreadByPairIn(@Param("serverIds") List<Long> serverIds);
+
+    @Modifying
+    @Query("DELETE FROM DirectMessage dm WHERE dm.serverId IN :serverIds")
+    int deleteByServerIds(@Param("serverIds") List<Long> serverIds);
+
+    @Query("SELECT DISTINCT dm.attachment.fileUrl FROM DirectMessage dm WHERE dm.attachment.fileUrl IS NOT NULL")
+    List<String> findFileUrls();
+
     List<DirectMessage> findByReceiverOrderBySendTimeDesc(ChatUser receiver);
     
     List<DirectMessage> findBySenderOrderBySendTimeDesc(ChatUser sender);
     
     @Query("SELECT dm FROM DirectMessage dm WHERE dm.receiver = :receiver AND dm.isRead = false ORDER BY dm.sendTime ASC")
     List<DirectMessage> findUnreadMessages(@Param("receiver") ChatUser receiver);
+
+    @Transactional(readOnly = true)
+    @Query(ROW_SELECT + "WHERE dm.receiver = :receiver AND dm.isRead = false ORDER BY dm.sendTime ASC")
+    List<MessageRow> findUnreadRows(@Param("receiver") ChatUser receiver);
+
+    // Odesílatelé nepřečtených zpráv příjemce – "přečíst vše" pak jde po konverzacích
+    @Query("SELECT DISTINCT s FROM DirectMessage dm JOIN dm.sender s WHERE dm.receiver = :receiver AND dm.isRead = false")
+    List<ChatUser> findUnreadSenders(@Param("receiver") ChatUser receiver);
+
+    // Jen jedna konverzace, jen zprávy od peera (ne moje vlastní)
+    @Modifying
+    @Query("UPDATE DirectMessage dm SET dm.isRead = true WHERE dm.conversationKey = :key " +
+           "AND dm.sender = :sender AND dm.isRead = false")
+    int markConversationRead(@ShardKey @Param("key") String conversationKey, @Param("sender") ChatUser sender);
+
+    // ... a jen do zprávy upTo (server_id) včetně, co klient opravdu zobrazil
+    @Modifying
+    @Query("UPDATE DirectMessage dm SET dm.isRead = true WHERE dm.conversationKey = :key " +
+           "AND dm.sender = :sender AND dm.isRead = false AND dm.serverId <= :upTo")
+    int markConversationReadUpTo(@ShardKey @Param("key") String conversationKey,
+                                 @Param("sender") ChatUser sender,
+                                 @Param("upTo") Long upTo);
+
+    // Backfill: řádky ze starého formátu "[FILE] name | url" – jen z doby před sloupcem message_type
+    @Query("SELECT dm FROM DirectMessage dm WHERE dm.messageType IS NULL AND dm.content LIKE '[FILE]%'")
+    List<DirectMessage> findLegacyFileMessages(Pageable pageable);
+
+    // Backfill počítadel nepřečtených: [receiverId, senderId, počet]
+    @Query("SELECT dm.receiver.userId, dm.sender.userId, COUNT(dm) FROM DirectMessage dm " +
+           "WHERE dm.isRead = false GROUP BY dm.receiver.userId, dm.sender.userId")
+    List<Object[]> countUnreadByPair();
+
+    // Backfill: řádky z doby před conversation_key
+    @Query("SELECT dm FROM DirectMessage dm WHERE dm.conversationKey IS NULL")
+    List<DirectMessage> findWithoutConversationKey(Pageable pageable);
+
+    @Modifying
+    @Query("UPDATE DirectMessage dm SET dm.messageType = 'TEXT' WHERE dm.messageType IS NULL")
+    int backfillTextMessageType();
 }
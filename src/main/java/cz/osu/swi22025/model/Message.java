@@ -7,11 +7,16 @@ import java.util.Date;
 
 @Entity
 @Data
+@Table(indexes = @Index(name = "idx_message_room_server_id", columnList = "chat_id, server_id"))
 public class Message {
     @Id
     @GeneratedValue(strategy = GenerationType.AUTO)
     private Integer messageId;
 
+    // Serverové ID (MessageIdGenerator) – stabilní, časově řazené, posílá se klientům
+    @Column(name = "server_id", nullable = false, unique = true)
+    private Long serverId;
+
     @ManyToOne
     @JoinColumn(name = "chat_id", nullable = false)
     private ChatRoom chatRoom;
@@ -23,6 +28,13 @@ public class Message {
     @Column(nullable = false)
     private String content;
 
+    // TEXT / FILE / IMAGE
+    @Column(name = "message_type")
+    private String messageType = "TEXT";
+
+    @Embedded
+    private Attachment attachment;
+
     @Column(nullable = false)
     @Temporal(TemporalType.TIMESTAMP)
     private Date sendTime;
@@ -0,0 +1,45 @@
+package cz.osu.swi22025.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import java.util.Date;
+
+// Archivovaný úsek historie jedné místnosti (chatId) nebo DM konverzace (conversationKey):
+// gzip JSON pole MessageRow vzestupně podle server_id. Úseky se v rámci jedné historie nepřekrývají.
+@Entity
+@Data
+@Table(name = "message_archive", indexes = {
+        @Index(name = "idx_archive_room_last_server_id", columnList = "chat_id, last_server_id"),
+        @Index(name = "idx_archive_conversation_last_server_id", columnList = "conversation_key, last_server_id")
+})
+public class MessageArchiveChunk {
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private Long chunkId;
+
+    @Column(name = "chat_id")
+    private Integer chatId;
+
+    @Column(name = "conversation_key", length = 73)
+    private String conversationKey;
+
+    @Column(name = "first_server_id", nullable = false)
+    private Long firstServerId;
+
+    @Column(name = "last_server_id", nullable = false)
+    private Long lastServerId;
+
+    @Column(name = "message_count", nullable = false)
+    private int messageCount;
+
+    @JdbcTypeCode(SqlTypes.LONG32VARBINARY)
+    @Column(nullable = false)
+    private byte[] payload;
+
+    @Column(name = "archived_at", nullable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date archivedAt;
+}
@@ -0,0 +1,62 @@
+package cz.osu.swi22025.model;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+public interface MessageArchiveRepository extends JpaRepository<MessageArchiveChunk, Long> {
+
+    // Úseky obsahující něco staršího než kurzor, od nejnovějšího
+    @Query("SELECT c FROM MessageArchiveChunk c WHERE c.chatId = :chatId AND c.firstServerId < :before " +
+           "ORDER BY c.lastServerId DESC")
+    List<MessageArchiveChunk> findRoomChunksBefore(@Param("chatId") Integer chatId,
+                                                   @Param("before") Long before,
+                                                   Pageable pageable);
+
+    // Úseky obsahující něco novějšího než kurzor, od nejstaršího
+    @Query("SELECT c FROM MessageArchiveChunk c WHERE c.chatId = :chatId AND c.lastServerId > :after " +
+           "ORDER BY c.lastServerId ASC")
+    List<MessageArchiveChunk> findRoomChunksAfter(@Param("chatId") Integer chatId,
+                                                  @Param("after") Long after,
+                                                  Pageable pageable);
+
+    @Query("SELECT c FROM MessageArchiveChunk c WHERE c.conversationKey = :key AND c.firstServerId < :before " +
+           "ORDER BY c.lastServerId DESC")
+    List<MessageArchiveChunk> findConversationChunksBefore(@Param("key") String conversationKey,
+                                                           @Param("before") Long before,
+                                                           Pageable pageable);
+
+    @Query("SELECT c FROM MessageArchiveChunk c WHERE c.conversationKey = :key AND c.lastServerId > :after " +
+           "ORDER BY c.lastServerId ASC")
+    List<MessageArchiveChunk> findConversationChunksAfter(@Param("key") String conversationKey,
+                                                          @Param("after") Long after,
+                                                          Pageable pageable);
+
+    // Úseky, jejichž rozsah obsahuje dané server_id (rozsahy různých historií se překrývají)
+    @Query("SELECT c FROM MessageArchiveChunk c WHERE c.firstServerId <= :serverId AND c.lastServerId >= :serverId")
+    List<MessageArchiveChunk> findChunksContaining(@Param("serverId") Long serverId);
+
+    // Retence: úseky se mažou celé, až je celý obsah za hranicí
+    @Modifying
+    @Query("DELETE FROM MessageArchiveChunk c WHERE c.chatId = :chatId AND c.lastServerId < :before")
+    int deleteRoomChunksBefore(@Param("chatId") Integer chatId, @Param("before") Long before);
+
+    @Modifying
+    @Query("DELETE FROM MessageArchiveChunk c WHERE c.conversationKey IS NOT NULL AND c.lastServerId < :before")
+    int deleteConversationChunksBefore(@Param("before") Long before);
+
+    @Modifying
+    @Query("DELETE FROM MessageArchiveChunk c WHERE c.conversationKey = :key AND c.lastServerId < :before")
+    int deleteConversationChunksBefore(@Param("key") String conversationKey, @Param("before") Long before);
+
+    @Query("SELECT c.chunkId FROM MessageArchiveChunk c ORDER BY c.chunkId ASC")
+    List<Long> findChunkIds(Pageable pageable);
+
+    // Všechno v archivu je starší než tahle hranice (null = archiv je prázdný)
+    @Query("SELECT MAX(c.lastServerId) FROM MessageArchiveChunk c")
+    Long findMaxArchivedServerId();
+}
@@ -1,10 +1,88 @@
 package cz.osu.swi22025.model;
 
 import cz.osu.swi22025.model.Message;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
 public interface MessageRepository extends CrudRepository<Message, Integer> {
-    List<Message> findByChatRoom_ChatIdOrderBySendTimeAsc(Integer chatId);
+    List<Message> findByChatRoom_ChatIdOrderBySendTimeAsc(@ShardKey Integer chatId);
+
+    long countByChatRoom_ChatId(@ShardKey Integer chatId);
+
+    String ROW_SELECT = "SELECT new cz.osu.swi22025.model.MessageRow(m.serverId, u.username, u.avatarUrl, " +
+            "m.chatRoom.chatId, null, m.content, m.messageType, m.attachment.fileName, m.attachment.fileUrl, " +
+            "m.attachment.fileSize, m.attachment.mimeType, m.sendTime, null) FROM Message m JOIN m.chatUser u ";
+
+    // Keyset paging nad (chat_id, server_id) – server_id je časově řazené, nikdy neskenuje celou místnost.
+    // Vrací rovnou projekci (jeden SELECT s joinem na autora), žádné entity.
+    @Transactional(readOnly = true)
+    @Query(ROW_SELECT + "WHERE m.chatRoom.chatId = :chatId ORDER BY m.serverId DESC")
+    List<MessageRow> findLatestPage(@ShardKey @Param("chatId") Integer chatId, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query(ROW_SELECT + "WHERE m.chatRoom.chatId = :chatId AND m.serverId < :before ORDER BY m.serverId DESC")
+    List<MessageRow> findPageBefore(@ShardKey @Param("chatId") Integer chatId,
+                                    @Param("before") Long before,
+                                    Pageable pageable);
+
+    // Archivace: místnosti se zprávami v rozsahu server_id [from, to)
+    @Query("SELECT DISTINCT m.chatRoom.chatId FROM Message m WHERE m.serverId >= :from AND m.serverId < :to")
+    List<Integer> findRoomIdsInRange(@Param("from") Long from, @Param("to") Long to);
+
+    // Za kurzorem a pod horní mezí (delta feed – mez commitu, archivace – konec měsíce); čte z primární
+    @Query(ROW_SELECT + "WHERE m.chatRoom.chatId = :chatId AND m.serverId > :after AND m.serverId < :to " +
+           "ORDER BY m.serverId ASC")
+    List<MessageRow> findRangeAfter(@ShardKey @Param("chatId") Integer chatId,
+                                    @Param("after") Long after,
+                                    @Param("to") Long to,
+                                    Pageable pageable);
+
+    @Query("SELECT MIN(m.serverId) FROM Message m")
+    Long findMinServerId();
+
+    // Fulltext: výsledky hledání podle server_id a plnění indexu (vzestupně od kurzoru)
+    @Query(ROW_SELECT + "WHERE m.serverId IN :ids")
+    List<MessageRow> findRowsByServerIds(@Param("ids") List<Long> serverIds);
+
+    @Query("SELECT new cz.osu.swi22025.model.SearchDocRow(m.serverId, m.chatRoom.chatId, null, u.username, " +
+           "m.content, m.attachment.fileName) FROM Message m JOIN m.chatUser u " +
+           "WHERE m.serverId > :after ORDER BY m.serverId ASC")
+    List<SearchDocRow> findSearchDocsAfter(@Param("after") Long after, Pageable pageable);
+
+    boolean existsByServerId(Long serverId);
+
+    // Retence: dávka nejstarších server_id místnosti pod hranicí (index chat_id, server_id).
+    // Maže se podle server_id – je globálně unikátní, takže mazání puštěné na všechny shardy nesáhne na cizí řádky.
+    @Query("SELECT m.serverId FROM Message m WHERE m.chatRoom.chatId = :chatId AND m.serverId < :before " +
+           "ORDER BY m.serverId ASC")
+    List<Long> findServerIdsBefore(@ShardKey @Param("chatId") Integer chatId, @Param("before") Long before, Pageable pageable);
+
+    // S offsetem max-count vrátí první server_id, které už se do limitu nevejde
+    @Query("SELECT m.serverId FROM Message m WHERE m.chatRoom.chatId = :chatId ORDER BY m.serverId DESC")
+    List<Long> findServerIdsNewestFirst(@ShardKey @Param("chatId") Integer chatId, Pageable pageable);
+
+    @Query("SELECT MIN(m.serverId) FROM Message m WHERE m.chatRoom.chatId = :chatId")
+    Long findMinServerIdInRoom(@ShardKey @Param("chatId") Integer chatId);
+
+    @Modifying
+    @Query("DELETE FROM Message m WHERE m.serverId IN :serverIds")
+    int deleteByServerIds(@Param("serverIds") List<Long> serverIds);
+
+    @Query("SELECT DISTINCT m.attachment.fileUrl FROM Message m WHERE m.attachment.fileUrl IS NOT NULL")
+    List<String> findFileUrls();
+
+    // Backfill: řádky ze starého formátu "[FILE] name | url" – jen z doby před sloupcem message_type
+    // (nové zprávy mají typ vždy, text začínající "[FILE]" se tak nepřevádí)
+    @Query("SELECT m FROM Message m WHERE m.messageType IS NULL AND m.content LIKE '[FILE]%'")
+    List<Message> findLegacyFileMessages(Pageable pageable);
+
+    @Modifying
+    @Query("UPDATE Message m SET m.messageType = 'TEXT' WHERE m.messageType IS NULL")
+    int backfillTextMessageType();
 }
@@ -0,0 +1,23 @@
+package cz.osu.swi22025.model;
+
+import java.util.Date;
+
+/**
+ * Projekce zprávy pro historii – jen sloupce, které potřebuje PayloadMessage.
+ * Plní se JPQL konstruktorem v jednom dotazu, bez načítání entit ChatUser/ChatRoom.
+ * U veřejné zprávy je vyplněné chatId, u přímé receiverName a příznak přečtení (read).
+ */
+public record MessageRow(Long serverId,
+                         String senderName,
+                         String senderAvatarUrl,
+                         Integer chatId,
+                         String receiverName,
+                         String content,
+                         String messageType,
+                         String fileName,
+                         String fileUrl,
+                         Long fileSize,
+                         String mimeType,
+                         Date sendTime,
+                         Boolean read) {
+}
@@ -0,0 +1,49 @@
+package cz.osu.swi22025.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.Instant;
+
+// Zpráva čekající na publikaci do RabbitMQ – zapisuje se ve stejné transakci jako data,
+// odesílá a maže ji OutboxRelayService (at-least-once – klient zahazuje duplicity podle id v payloadu)
+@Entity
+@Data
+@Table(name = "outbox_event", indexes = {
+        @Index(name = "idx_outbox_next_attempt", columnList = "next_attempt_at, id")
+})
+public class OutboxEvent {
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private Long id;
+
+    @Column(nullable = false)
+    private String exchange;
+
+    @Column(name = "routing_key", nullable = false)
+    private String routingKey = "";
+
+    // třída payloadu pro Jackson2JsonMessageConverter (hlavička __TypeId__)
+    @Column(name = "payload_type", nullable = false)
+    private String payloadType;
+
+    @Lob
+    @Column(nullable = false)
+    private String payload;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    @Column(name = "next_attempt_at", nullable = false)
+    private Instant nextAttemptAt;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    // instance relaye, která si dávku zabrala (platí do next_attempt_at)
+    @Column(name = "claim_token", length = 36)
+    private String claimToken;
+
+    @Column(name = "last_error", length = 500)
+    private String lastError;
+}
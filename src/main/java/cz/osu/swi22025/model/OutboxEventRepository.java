@@ -0,0 +1,41 @@
+package cz.osu.swi22025.model;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+
+    // Události připravené k odeslání, v pořadí zápisu
+    @Query("SELECT e FROM OutboxEvent e WHERE e.nextAttemptAt <= :now ORDER BY e.id ASC")
+    List<OutboxEvent> findReady(@Param("now") Instant now, Pageable pageable);
+
+    // Zabrání dávky: podmínka na next_attempt_at se po zámku řádku vyhodnotí znovu,
+    // takže řádek, který mezitím zabrala jiná instance, se přeskočí
+    @Modifying
+    @Query("UPDATE OutboxEvent e SET e.claimToken = :token, e.nextAttemptAt = :leaseUntil " +
+           "WHERE e.id IN :ids AND e.nextAttemptAt <= :now")
+    int claim(@Param("ids") Collection<Long> ids, @Param("token") String token,
+              @Param("leaseUntil") Instant leaseUntil, @Param("now") Instant now);
+
+    @Query("SELECT e FROM OutboxEvent e WHERE e.claimToken = :token ORDER BY e.id ASC")
+    List<OutboxEvent> findClaimed(@Param("token") String token);
+
+    @Modifying
+    @Query("DELETE FROM OutboxEvent e WHERE e.id IN :ids")
+    int deleteByIds(@Param("ids") Collection<Long> ids);
+
+    @Modifying
+    @Query("UPDATE OutboxEvent e SET e.attempts = e.attempts + 1, e.nextAttemptAt = :next, e.lastError = :error " +
+           "WHERE e.id IN :ids")
+    int markFailed(@Param("ids") Collection<Long> ids, @Param("next") Instant next, @Param("error") String error);
+
+    @Query("SELECT MIN(e.createdAt) FROM OutboxEvent e")
+    Instant findOldestCreatedAt();
+}
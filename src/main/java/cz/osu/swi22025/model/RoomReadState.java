@@ -0,0 +1,29 @@
+package cz.osu.swi22025.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+// Kolik zpráv místnosti už uživatel viděl – nepřečtené = ChatRoom.messageCount - readCount
+@Entity
+@Data
+@NoArgsConstructor
+@Table(name = "room_read_state")
+public class RoomReadState {
+    @EmbeddedId
+    private RoomReadStateId id;
+
+    @Column(name = "read_count", nullable = false)
+    private long readCount;
+
+    @Column(name = "last_read_server_id")
+    private Long lastReadServerId;
+
+    public RoomReadState(UUID userId, Integer chatId, long readCount, Long lastReadServerId) {
+        this.id = new RoomReadStateId(userId, chatId);
+        this.readCount = readCount;
+        this.lastReadServerId = lastReadServerId;
+    }
+}
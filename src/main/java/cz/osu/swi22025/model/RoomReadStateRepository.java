@@ -0,0 +1,23 @@
+package cz.osu.swi22025.model;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.UUID;
+
+public interface RoomReadStateRepository extends JpaRepository<RoomReadState, RoomReadStateId> {
+
+    // vlastní odeslané zprávy se počítají jako přečtené (relativně – nepřepíše souběžné označení)
+    @Modifying
+    @Query("UPDATE RoomReadState s SET s.readCount = s.readCount + :count " +
+           "WHERE s.id.userId = :userId AND s.id.chatId = :chatId")
+    int addReadCount(@Param("userId") UUID userId, @Param("chatId") Integer chatId, @Param("count") long count);
+
+    // čistý INSERT – save() by existující řádek přes merge přepsal
+    @Modifying
+    @Query(value = "INSERT INTO room_read_state (user_id, chat_id, read_count) VALUES (:userId, :chatId, 0)",
+           nativeQuery = true)
+    int insertEmpty(@Param("userId") UUID userId, @Param("chatId") Integer chatId);
+}
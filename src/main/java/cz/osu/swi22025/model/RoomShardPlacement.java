@@ -0,0 +1,31 @@
+package cz.osu.swi22025.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+// Místnost přesunutá rebalancerem na jiný shard, než by jí určil hash (leží vždy na primární DB)
+@Entity
+@Data
+@NoArgsConstructor
+@Table(name = "room_shard")
+public class RoomShardPlacement {
+    @Id
+    @Column(name = "chat_id")
+    private Integer chatId;
+
+    @Column(nullable = false)
+    private int shard;
+
+    @Column(name = "moved_at")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date movedAt;
+
+    public RoomShardPlacement(Integer chatId, int shard) {
+        this.chatId = chatId;
+        this.shard = shard;
+        this.movedAt = new Date();
+    }
+}
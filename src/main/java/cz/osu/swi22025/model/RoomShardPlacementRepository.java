@@ -0,0 +1,6 @@
+package cz.osu.swi22025.model;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface RoomShardPlacementRepository extends JpaRepository<RoomShardPlacement, Integer> {
+}
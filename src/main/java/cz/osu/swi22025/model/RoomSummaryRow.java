@@ -0,0 +1,16 @@
+package cz.osu.swi22025.model;
+
+import java.util.Date;
+
+/** Projekce pro seznam místností: souhrn místnosti + stav čtení volajícího, jeden řádek na místnost. */
+public record RoomSummaryRow(Integer chatId,
+                             String chatName,
+                             Integer memberCount,
+                             Long messageCount,
+                             Long lastServerId,
+                             String lastMessagePreview,
+                             String lastSenderName,
+                             Date lastActivity,
+                             Long readCount,
+                             String timezone) {
+}
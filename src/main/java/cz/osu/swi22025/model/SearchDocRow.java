@@ -0,0 +1,13 @@
+package cz.osu.swi22025.model;
+
+/**
+ * Zpráva pro fulltextový index: u místnosti je vyplněné chatId, u DM conversationKey.
+ */
+public record SearchDocRow(
+        long serverId,
+        Integer chatId,
+        String conversationKey,
+        String senderName,
+        String content,
+        String fileName
+) {}
@@ -0,0 +1,16 @@
+package cz.osu.swi22025.model;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Parametr metody MessageRepository / DirectMessageRepository, podle kterého se vybírá shard:
+ * {@code Integer} = chatId místnosti, {@code String} = conversation key DM.
+ * Metody bez klíče se pustí na všechny shardy (viz ShardRoutingAspect).
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ShardKey {
+}
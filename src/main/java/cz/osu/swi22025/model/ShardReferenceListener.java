@@ -0,0 +1,22 @@
+package cz.osu.swi22025.model;
+
+import cz.osu.swi22025.service.ShardSetupService;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+
+// Uživatelé a místnosti mají kopii na každém shardu zpráv – změnu je potřeba rozeslat
+public class ShardReferenceListener {
+
+    @Autowired
+    private ObjectProvider<ShardSetupService> shardSetupService;
+
+    @PostPersist
+    @PostUpdate
+    void changed(Object entity) {
+        if (shardSetupService != null) {
+            shardSetupService.ifAvailable(service -> service.referenceChanged(entity));
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package cz.osu.swi22025.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+// Počet nepřečtených DM pro dvojici (příjemce, odesílatel) – udržuje UnreadCounterService
+@Entity
+@Data
+@NoArgsConstructor
+@Table(name = "unread_counter")
+public class UnreadCounter {
+    @EmbeddedId
+    private UnreadCounterId id;
+
+    @Column(name = "unread_count", nullable = false)
+    private int unreadCount;
+
+    public UnreadCounter(UUID receiverId, UUID senderId, int unreadCount) {
+        this.id = new UnreadCounterId(receiverId, senderId);
+        this.unreadCount = unreadCount;
+    }
+}
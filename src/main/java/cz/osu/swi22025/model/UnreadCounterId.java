@@ -0,0 +1,22 @@
+package cz.osu.swi22025.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+@Embeddable
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UnreadCounterId implements Serializable {
+    @Column(name = "receiver_id", nullable = false)
+    private UUID receiverId;
+
+    @Column(name = "sender_id", nullable = false)
+    private UUID senderId;
+}
@@ -0,0 +1,36 @@
+package cz.osu.swi22025.model;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.UUID;
+
+public interface UnreadCounterRepository extends JpaRepository<UnreadCounter, UnreadCounterId> {
+
+    @Modifying
+    @Query("UPDATE UnreadCounter c SET c.unreadCount = c.unreadCount + 1 " +
+           "WHERE c.id.receiverId = :receiverId AND c.id.senderId = :senderId")
+    int increment(@Param("receiverId") UUID receiverId, @Param("senderId") UUID senderId);
+
+    // čistý INSERT – save() by existující řádek přes merge přepsal (a ztratil souběžné +1)
+    @Modifying
+    @Query(value = "INSERT INTO unread_counter (receiver_id, sender_id, unread_count) VALUES (:receiverId, :senderId, :count)",
+           nativeQuery = true)
+    int insert(@Param("receiverId") UUID receiverId, @Param("senderId") UUID senderId, @Param("count") int count);
+
+    @Modifying
+    @Query("UPDATE UnreadCounter c SET c.unreadCount = " +
+           "CASE WHEN c.unreadCount > :read THEN c.unreadCount - :read ELSE 0 END " +
+           "WHERE c.id.receiverId = :receiverId AND c.id.senderId = :senderId")
+    int decrement(@Param("receiverId") UUID receiverId, @Param("senderId") UUID senderId, @Param("read") int read);
+
+    // [jméno odesílatele, počet] – jen nenulové, jeden řádek na peer
+    @Transactional(readOnly = true)
+    @Query("SELECT u.username, c.unreadCount FROM UnreadCounter c, ChatUser u " +
+           "WHERE u.userId = c.id.senderId AND c.id.receiverId = :receiverId AND c.unreadCount > 0")
+    List<Object[]> findCountsBySender(@Param("receiverId") UUID receiverId);
+}
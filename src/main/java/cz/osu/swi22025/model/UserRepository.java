@@ -1,18 +1,51 @@
 package cz.osu.swi22025.model;
 
 import cz.osu.swi22025.model.ChatUser;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import jakarta.persistence.QueryHint;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import java.util.UUID;
 import java.util.List;
 import java.util.Optional;
 
 public interface UserRepository extends CrudRepository<ChatUser, UUID> {
-    ChatUser findChatUserByUsernameIgnoreCase(String username);
-    boolean existsByUsernameIgnoreCase(String username);
-    
-    // Add custom query to fix the 500 error
-    @Query("SELECT u FROM ChatUser u WHERE LOWER(u.username) = LOWER(:username)")
-    Optional<ChatUser> findByUsernameIgnoreCase(@Param("username") String username);
+    // Seek na unikátní index username_normalized (LOWER(username) = LOWER(?) index nepoužije).
+    // Explicitní JPQL místo odvozeného dotazu – ten se pokaždé staví přes Criteria API znovu.
+    // Výsledek jde do query cache (zneplatní ho jakýkoli zápis do chat_user).
+    @QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
+    @Query("SELECT u FROM ChatUser u WHERE u.usernameNormalized = :username")
+    ChatUser findByUsernameNormalized(@Param("username") String usernameNormalized);
+
+    @QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
+    @Query("SELECT COUNT(u) > 0 FROM ChatUser u WHERE u.usernameNormalized = :username")
+    boolean existsByUsernameNormalized(@Param("username") String usernameNormalized);
+
+    default ChatUser findChatUserByUsernameIgnoreCase(String username) {
+        return username == null ? null : findByUsernameNormalized(ChatUser.normalizeUsername(username));
+    }
+
+    default boolean existsByUsernameIgnoreCase(String username) {
+        return username != null && existsByUsernameNormalized(ChatUser.normalizeUsername(username));
+    }
+
+    default Optional<ChatUser> findByUsernameIgnoreCase(String username) {
+        return Optional.ofNullable(findChatUserByUsernameIgnoreCase(username));
+    }
+
+    // Backfill: uživatelé z doby před username_normalized
+    @Query("SELECT u FROM ChatUser u WHERE u.usernameNormalized IS NULL")
+    List<ChatUser> findWithoutNormalizedUsername(Pageable pageable);
+
+    // Retence uploadů: nahrané avatary (ne vestavěné /avatars/...)
+    @Query("SELECT u.avatarUrl FROM ChatUser u WHERE u.avatarUrl LIKE '/uploads/%'")
+    List<String> findUploadedAvatarUrls();
+
+    // Jen jména – pro UserDirectoryService, bez načítání entit
+    @Transactional(readOnly = true)
+    @Query("SELECT u.username FROM ChatUser u")
+    List<String> findAllUsernames();
 }
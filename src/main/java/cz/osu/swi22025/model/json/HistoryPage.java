@@ -0,0 +1,17 @@
+package cz.osu.swi22025.model.json;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HistoryPage {
+    private List<PayloadMessage> messages; // vždy vzestupně podle času
+    private String oldestId;               // kurzor pro ?before=
+    private String newestId;               // kurzor pro ?after=
+    private boolean hasMore;               // za stránkou jsou další zprávy (ve směru stránkování)
+}
@@ -3,7 +3,8 @@ package cz.osu.swi22025.model.json;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class PayloadMessage {
-    private String id;
+    private String id;       // serverové ID (MessageIdGenerator)
+    private String clientId; // ID, které poslal klient – vrací se mu zpět kvůli deduplikaci
 
     private String senderName;
     private String receiverName;
@@ -17,6 +18,8 @@ public class PayloadMessage {
     private String messageType; 
     private String fileUrl;
     private String fileName;
+    private Long fileSize;
+    private String mimeType;
     
     private boolean isNotification;
     private String notificationType;
@@ -46,6 +49,14 @@ public class PayloadMessage {
         this.id = id;
     }
 
+    public String getClientId() {
+        return clientId;
+    }
+
+    public void setClientId(String clientId) {
+        this.clientId = clientId;
+    }
+
     public void setIsNotification(boolean isNotification) {
         this.isNotification = isNotification;
     }
@@ -126,6 +137,22 @@ public class PayloadMessage {
         this.fileName = fileName;
     }
 
+    public Long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(Long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public void setMimeType(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
     public String getNotificationType() {
         return notificationType;
     }
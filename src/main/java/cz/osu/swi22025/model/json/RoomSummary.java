@@ -0,0 +1,19 @@
+package cz.osu.swi22025.model.json;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RoomSummary {
+    private Integer chatId;
+    private String chatName;
+    private int memberCount;
+    private String lastMessageId;      // serverové ID poslední zprávy (kurzor)
+    private String lastMessagePreview; // zkrácený text / název souboru
+    private String lastSenderName;
+    private String lastActivity;       // v časové zóně volajícího
+    private long unreadCount;          // pro volajícího
+}
@@ -0,0 +1,16 @@
+package cz.osu.swi22025.model.json;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SearchPage {
+    private List<PayloadMessage> messages; // od nejnovější
+    private String nextCursor;             // kurzor pro ?before= (server_id nejstarší vrácené zprávy)
+    private boolean hasMore;
+}
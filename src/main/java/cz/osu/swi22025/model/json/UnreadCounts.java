@@ -0,0 +1,15 @@
+package cz.osu.swi22025.model.json;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UnreadCounts {
+    private int total;                     // součet přes všechny peery (DM badge)
+    private Map<String, Integer> bySender; // odesílatel -> počet nepřečtených
+}
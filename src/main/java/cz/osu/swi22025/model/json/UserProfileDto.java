@@ -2,8 +2,10 @@ package cz.osu.swi22025.model.json;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 @Data
+@NoArgsConstructor
 @AllArgsConstructor
 public class UserProfileDto {
     private String username;
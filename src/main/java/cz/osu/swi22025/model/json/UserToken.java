@@ -6,6 +6,7 @@ public class UserToken {
 
     private UUID userId;
     private String username;
+    private boolean resyncRequired; // fronta zpráv byla založena znovu – načíst historii
 
     // ✅ POVINNÉ pro Jackson
     public UserToken() {
@@ -31,4 +32,12 @@ public class UserToken {
     public void setUsername(String username) {
         this.username = username;
     }
+
+    public boolean isResyncRequired() {
+        return resyncRequired;
+    }
+
+    public void setResyncRequired(boolean resyncRequired) {
+        this.resyncRequired = resyncRequired;
+    }
 }
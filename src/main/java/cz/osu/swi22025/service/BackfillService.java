@@ -0,0 +1,184 @@
+package cz.osu.swi22025.service;
+
+import cz.osu.swi22025.model.Attachment;
+import cz.osu.swi22025.model.ChatRoomStats;
+import cz.osu.swi22025.model.ChatRoomStatsRepository;
+import cz.osu.swi22025.model.ChatUser;
+import cz.osu.swi22025.model.DirectMessage;
+import cz.osu.swi22025.model.DirectMessageRepository;
+import cz.osu.swi22025.model.Message;
+import cz.osu.swi22025.model.MessageRepository;
+import cz.osu.swi22025.model.MessageRow;
+import cz.osu.swi22025.model.UnreadCounter;
+import cz.osu.swi22025.model.UnreadCounterRepository;
+import cz.osu.swi22025.model.UserRepository;
+import lombok.AllArgsConstructor;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Jednorázové datové migrace nad existujícími řádky. Běží po startu
+ * v dávkách, každá dávka ve vlastní transakci, a jsou idempotentní –
+ * při dalším startu už nenajdou nic ke zpracování.
+ */
+@Service
+@AllArgsConstructor
+public class BackfillService {
+    private static final int BATCH_SIZE = 500;
+
+    private final MessageRepository messageRepository;
+    private final DirectMessageRepository directMessageRepository;
+    private final UnreadCounterRepository unreadCounterRepository;
+    private final ChatRoomStatsRepository chatRoomStatsRepository;
+    private final UserRepository userRepository;
+    private final FileService fileService;
+    private final TransactionTemplate transactionTemplate;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void runBackfills() {
+        int normalized = backfillNormalizedUsernames();
+        if (normalized > 0) {
+            System.out.println("Backfill: normalized " + normalized + " usernames");
+        }
+        int migrated = backfillAttachments();
+        if (migrated > 0) {
+            System.out.println("Backfill: migrated " + migrated + " legacy file messages");
+        }
+        int keyed = backfillConversationKeys();
+        if (keyed > 0) {
+            System.out.println("Backfill: filled conversation key for " + keyed + " direct messages");
+        }
+        int counters = backfillUnreadCounters();
+        if (counters > 0) {
+            System.out.println("Backfill: created " + counters + " unread counters");
+        }
+        int rooms = backfillRoomSummaries();
+        if (rooms > 0) {
+            System.out.println("Backfill: computed summary for " + rooms + " chat rooms");
+        }
+    }
+
+    /** Založí souhrn (počet zpráv, poslední zpráva) místnostem, které ho ještě nemají. */
+    public int backfillRoomSummaries() {
+        return transactionTemplate.execute(tx -> {
+            List<Integer> roomIds = chatRoomStatsRepository.findRoomIdsWithoutStats();
+            for (Integer chatId : roomIds) {
+                ChatRoomStats stats = new ChatRoomStats(chatId);
+                stats.setMessageCount(messageRepository.countByChatRoom_ChatId(chatId));
+                if (stats.getMessageCount() > 0) {
+                    MessageRow last = messageRepository.findLatestPage(chatId, PageRequest.of(0, 1)).get(0);
+                    stats.setLastServerId(last.serverId());
+                    stats.setLastMessagePreview(MessagePersistenceService.preview(last.content()));
+                    stats.setLastSenderName(last.senderName());
+                    stats.setLastActivity(last.sendTime());
+                }
+                chatRoomStatsRepository.save(stats);
+            }
+            return roomIds.size();
+        });
+    }
+
+    /** Založí počítadla nepřečtených DM z existujících zpráv; jen dokud je tabulka prázdná. */
+    public int backfillUnreadCounters() {
+        return transactionTemplate.execute(tx -> {
+            if (unreadCounterRepository.count() > 0) return 0;
+            List<UnreadCounter> counters = directMessageRepository.countUnreadByPair().stream()
+                    .map(row -> new UnreadCounter((UUID) row[0], (UUID) row[1], ((Number) row[2]).intValue()))
+                    .toList();
+            unreadCounterRepository.saveAll(counters);
+            return counters.size();
+        });
+    }
+
+    /** Doplní conversation_key u přímých zpráv uložených před jeho zavedením. */
+    public int backfillConversationKeys() {
+        int total = 0;
+        int filled;
+        do {
+            filled = transactionTemplate.execute(tx -> {
+                List<DirectMessage> batch = directMessageRepository.findWithoutConversationKey(PageRequest.of(0, BATCH_SIZE));
+                batch.forEach(dm -> dm.setConversationKey(
+                        DirectMessage.conversationKey(dm.getSender().getUserId(), dm.getReceiver().getUserId())));
+                directMessageRepository.saveAll(batch);
+                return batch.size();
+            });
+            total += filled;
+        } while (filled == BATCH_SIZE);
+        return total;
+    }
+
+    /** Doplní username_normalized u uživatelů založených před jeho zavedením. */
+    public int backfillNormalizedUsernames() {
+        int total = 0;
+        int filled;
+        do {
+            filled = transactionTemplate.execute(tx -> {
+                List<ChatUser> batch = userRepository.findWithoutNormalizedUsername(PageRequest.of(0, BATCH_SIZE));
+                batch.forEach(u -> u.setUsernameNormalized(ChatUser.normalizeUsername(u.getUsername())));
+                userRepository.saveAll(batch);
+                return batch.size();
+            });
+            total += filled;
+        } while (filled == BATCH_SIZE);
+        return total;
+    }
+
+    /**
+     * Převod "[FILE] name | url" v content na strukturované sloupce přílohy. Převádí se jen řádky
+     * bez message_type (z doby před ním); zbytek pak dostane TEXT, takže další start už nic nenajde.
+     */
+    public int backfillAttachments() {
+        int total = 0;
+        int migrated;
+        do {
+            migrated = transactionTemplate.execute(tx -> {
+                List<Message> batch = messageRepository.findLegacyFileMessages(PageRequest.of(0, BATCH_SIZE));
+                batch.forEach(m -> m.setMessageType(applyLegacyFile(m.getContent(), m::setContent, m::setAttachment)));
+                messageRepository.saveAll(batch);
+                return batch.size();
+            });
+            total += migrated;
+        } while (migrated == BATCH_SIZE);
+
+        do {
+            migrated = transactionTemplate.execute(tx -> {
+                List<DirectMessage> batch = directMessageRepository.findLegacyFileMessages(PageRequest.of(0, BATCH_SIZE));
+                batch.forEach(dm -> dm.setMessageType(applyLegacyFile(dm.getContent(), dm::setContent, dm::setAttachment)));
+                directMessageRepository.saveAll(batch);
+                return batch.size();
+            });
+            total += migrated;
+        } while (migrated == BATCH_SIZE);
+
+        transactionTemplate.executeWithoutResult(tx -> {
+            messageRepository.backfillTextMessageType();
+            directMessageRepository.backfillTextMessageType();
+        });
+        return total;
+    }
+
+    // vrací nový typ zprávy; URL nikdy neobsahuje "|", takže dělíme podle posledního výskytu
+    private String applyLegacyFile(String content,
+                                   Consumer<String> setContent,
+                                   Consumer<Attachment> setAttachment) {
+        String rest = content.substring("[FILE]".length());
+        int sep = rest.lastIndexOf('|');
+        String fileName = (sep >= 0 ? rest.substring(0, sep) : rest).trim();
+        String fileUrl = sep >= 0 ? rest.substring(sep + 1).trim() : "";
+
+        setContent.accept(fileName);
+        if (fileUrl.isEmpty()) return "TEXT"; // bez URL není co stáhnout – jen text se jménem, žádná příloha
+
+        boolean isImage = fileService.isImageFile(fileName);
+        setAttachment.accept(new Attachment(fileName, fileUrl, fileService.sizeOf(fileUrl),
+                fileService.guessMimeType(fileName), isImage));
+        return isImage ? "IMAGE" : "FILE";
+    }
+}
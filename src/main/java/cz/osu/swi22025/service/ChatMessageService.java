@@ -1,20 +1,79 @@
 package cz.osu.swi22025.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import cz.osu.swi22025.config.RabbitMQConfig;
+import cz.osu.swi22025.model.DirectMessage;
+import cz.osu.swi22025.model.DirectMessageRepository;
+import cz.osu.swi22025.model.OutboxEvent;
+import cz.osu.swi22025.model.OutboxEventRepository;
 import cz.osu.swi22025.model.json.PayloadMessage;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Publikace zpráv do {@link RabbitMQConfig#CHATROOM_EXCHANGE} přes outbox: zpráva se zapíše
+ * jako {@link OutboxEvent} v transakci volajícího a do brokeru ji pošle OutboxRelayService.
+ * Veřejné zprávy jdou s klíčem místnosti (jen do front jejích členů), DM s klíčem příjemce.
+ */
 @Service
 public class ChatMessageService {
-    private final RabbitTemplate rabbitTemplate;
+    private final OutboxEventRepository outboxEventRepository;
+    private final DirectMessageRepository directMessageRepository;
+    private final UnreadCounterService unreadCounterService;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+
+    public ChatMessageService(OutboxEventRepository outboxEventRepository,
+                              DirectMessageRepository directMessageRepository,
+                              UnreadCounterService unreadCounterService,
+                              TransactionTemplate transactionTemplate,
+                              ObjectMapper objectMapper) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.directMessageRepository = directMessageRepository;
+        this.unreadCounterService = unreadCounterService;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+    }
+
+    /** Událost k uložení spolu se zprávou (MessagePersistenceService); payload se serializuje hned. */
+    public OutboxEvent broadcastEvent(PayloadMessage message) {
+        return event(RabbitMQConfig.roomRoutingKey(Integer.valueOf(message.getReceiverChatRoomId())), message);
+    }
 
-    public ChatMessageService(RabbitTemplate rabbitTemplate) {
-        this.rabbitTemplate = rabbitTemplate;
+    /**
+     * Uloží DM a v téže transakci událost pro frontu příjemce a +1 do jeho počítadla
+     * nepřečtených (označení za přečtené tak nemůže proběhnout mezi zprávou a počítadlem).
+     */
+    public DirectMessage saveDirectMessage(DirectMessage dm, PayloadMessage message) {
+        UUID receiverId = dm.getReceiver().getUserId();
+        UUID senderId = dm.getSender().getUserId();
+        OutboxEvent event = event(RabbitMQConfig.userRoutingKey(receiverId), message);
+        unreadCounterService.ensureCounter(receiverId, senderId);
+        return transactionTemplate.execute(tx -> {
+            DirectMessage saved = directMessageRepository.save(dm);
+            outboxEventRepository.save(event);
+            unreadCounterService.incrementInTransaction(receiverId, senderId);
+            return saved;
+        });
     }
 
-    public void broadcastMessage(PayloadMessage message) {
-        rabbitTemplate.convertAndSend
-                (RabbitMQConfig.CHATROOM_EXCHANGE, "", message);
+    private OutboxEvent event(String routingKey, PayloadMessage message) {
+        OutboxEvent event = new OutboxEvent();
+        event.setExchange(RabbitMQConfig.CHATROOM_EXCHANGE);
+        event.setRoutingKey(routingKey);
+        event.setPayloadType(PayloadMessage.class.getName());
+        try {
+            event.setPayload(objectMapper.writeValueAsString(message));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Cannot serialize message " + message.getId(), e);
+        }
+        Instant now = Instant.now();
+        event.setCreatedAt(now);
+        event.setNextAttemptAt(now);
+        return event;
     }
 }
@@ -1,13 +1,21 @@
 package cz.osu.swi22025.service;
 
 import cz.osu.swi22025.model.ChatRoomRepository;
+import cz.osu.swi22025.model.ChatRoomStats;
+import cz.osu.swi22025.model.ChatRoomStatsRepository;
 import cz.osu.swi22025.model.UserRepository;
 import cz.osu.swi22025.model.ChatRoom;
 import cz.osu.swi22025.model.ChatUser;
 import cz.osu.swi22025.model.Message;
+import cz.osu.swi22025.model.MessageRepository;
+import cz.osu.swi22025.model.RoomReadState;
+import cz.osu.swi22025.model.RoomReadStateRepository;
+import cz.osu.swi22025.model.RoomSummaryRow;
+import cz.osu.swi22025.model.json.RoomSummary;
 import lombok.AllArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.List;
 import java.util.UUID;
@@ -17,6 +25,14 @@ import java.util.UUID;
 public class DbService {
     private final UserRepository userRepository;
     private final ChatRoomRepository chatRoomRepository;
+    private final MessageRepository messageRepository;
+    private final RoomReadStateRepository roomReadStateRepository;
+    private final ChatRoomStatsRepository chatRoomStatsRepository;
+    private final TimezoneService timezoneService;
+    private final EntityCacheService entityCacheService;
+    private final QueueBindingService queueBindingService;
+    private final EventStreamService eventStreamService;
+    private final TransactionTemplate transactionTemplate;
 
     public ResponseEntity<List<String>> getUsers() {
         List<ChatUser> chatUsers = (List<ChatUser>) userRepository.findAll();
@@ -31,6 +47,8 @@ public class DbService {
                 .findByJoinedUsers_Username(username);
         chatRooms.forEach(chatRoom -> chatRoom.setJoinedUsers(null));
         for (ChatRoom chatRoom : chatRooms) {
+            // přes repozitář, ne lazy kolekci – zprávy můžou ležet na jiném shardu
+            chatRoom.setMessages(messageRepository.findByChatRoom_ChatIdOrderBySendTimeAsc(chatRoom.getChatId()));
             for (Message message : chatRoom.getMessages()) {
                 message.setChatRoom(null);
                 message.getChatUser().setMessages(null);
@@ -40,4 +58,71 @@ public class DbService {
         return ResponseEntity.ok(chatRooms);
     }
 
+    // Souhrn pro sidebar: jeden dotaz, žádné zprávy ani autoři
+    public ResponseEntity<List<RoomSummary>> getRoomSummaries(String username) {
+        List<RoomSummary> summaries = chatRoomRepository.findSummariesForUser(ChatUser.normalizeUsername(username)).stream()
+                .map(this::toSummary)
+                .collect(java.util.stream.Collectors.toList());
+        return ResponseEntity.ok(summaries);
+    }
+
+    private RoomSummary toSummary(RoomSummaryRow row) {
+        long messageCount = row.messageCount() != null ? row.messageCount() : 0;
+        long readCount = row.readCount() != null ? row.readCount() : 0;
+        return new RoomSummary(
+                row.chatId(),
+                row.chatName(),
+                row.memberCount() != null ? row.memberCount() : 0,
+                row.lastServerId() != null ? String.valueOf(row.lastServerId()) : null,
+                row.lastMessagePreview(),
+                row.lastSenderName(),
+                row.lastActivity() != null
+                        ? timezoneService.convertToUserTimezone(row.lastActivity().toInstant(), row.timezone())
+                        : null,
+                Math.max(0, messageCount - readCount));
+    }
+
+    // Uživatel viděl místnost až po aktuální poslední zprávu
+    public ResponseEntity<Void> markRoomRead(String username, Integer chatId) {
+        ChatUser user = userRepository.findByUsernameIgnoreCase(username).orElse(null);
+        if (user == null || !chatRoomRepository.existsById(chatId)) {
+            return ResponseEntity.notFound().build();
+        }
+        ChatRoomStats stats = chatRoomStatsRepository.findById(chatId).orElse(new ChatRoomStats(chatId));
+        roomReadStateRepository.save(new RoomReadState(user.getUserId(), chatId, stats.getMessageCount(), stats.getLastServerId()));
+        return ResponseEntity.noContent().build();
+    }
+
+    // Členství: vazby fronty na brokeru a členy v L2 cache upraví až commit
+    public ResponseEntity<Void> joinRoom(String username, Integer chatId) {
+        return changeMembership(username, chatId, true);
+    }
+
+    public ResponseEntity<Void> leaveRoom(String username, Integer chatId) {
+        return changeMembership(username, chatId, false);
+    }
+
+    private ResponseEntity<Void> changeMembership(String username, Integer chatId, boolean join) {
+        Boolean found = transactionTemplate.execute(tx -> {
+            ChatUser user = userRepository.findByUsernameIgnoreCase(username).orElse(null);
+            ChatRoom chatRoom = chatRoomRepository.findById(chatId).orElse(null);
+            if (user == null || chatRoom == null) return false;
+
+            boolean member = chatRoomRepository.findJoinedRoomIds(user.getUserId()).contains(chatId);
+            if (member == join) return true;
+            if (join) {
+                user.addRoom(chatRoom);
+                queueBindingService.joinRoom(user.getUserId(), chatId);
+                eventStreamService.roomJoined(user.getUserId(), chatId);
+            } else {
+                user.removeRoom(chatRoom);
+                queueBindingService.leaveRoom(user.getUserId(), chatId);
+                eventStreamService.roomLeft(user.getUserId(), chatId);
+            }
+            userRepository.save(user);
+            entityCacheService.evictRoomMembers(chatId);
+            return true;
+        });
+        return Boolean.TRUE.equals(found) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
 }
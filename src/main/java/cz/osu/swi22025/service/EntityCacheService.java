@@ -0,0 +1,47 @@
+package cz.osu.swi22025.service;
+
+import cz.osu.swi22025.model.ChatRoom;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Ruční zneplatnění L2 cache tam, kde to Hibernate neudělá sám.
+ * <p>
+ * Změny entit přes save() (avatar, aktuální místnost) aktualizuje READ_WRITE strategie
+ * při commitu a hromadné JPQL UPDATE zneplatní celý region. Inverzní strana vazby
+ * ({@link ChatRoom#getJoinedUsers()}) se ale při přidání člena přes vlastnickou stranu
+ * v cache nezmění – po změně členství se musí vyhodit.
+ */
+@Service
+public class EntityCacheService {
+
+    private static final String ROOM_MEMBERS_ROLE = ChatRoom.class.getName() + ".joinedUsers";
+
+    private final SessionFactory sessionFactory;
+
+    public EntityCacheService(EntityManagerFactory entityManagerFactory) {
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+    }
+
+    /** Vyhodí členy místnosti z cache; uvnitř transakce až po commitu (jinak by se mezitím načetl starý stav). */
+    public void evictRoomMembers(Integer chatId) {
+        if (chatId == null) return;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evictRoomMembersNow(chatId);
+                }
+            });
+        } else {
+            evictRoomMembersNow(chatId);
+        }
+    }
+
+    private void evictRoomMembersNow(Integer chatId) {
+        sessionFactory.getCache().evictCollectionData(ROOM_MEMBERS_ROLE, chatId);
+    }
+}
@@ -0,0 +1,357 @@
+package cz.osu.swi22025.service;
+
+import cz.osu.swi22025.model.ChatRoomRepository;
+import cz.osu.swi22025.model.UserRepository;
+import cz.osu.swi22025.model.json.PayloadMessage;
+import cz.osu.swi22025.model.json.UnreadCounts;
+import cz.osu.swi22025.model.json.UserProfileDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManagerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Server-Sent Events pro desktop klienty – jedno dlouhé spojení na uživatele místo pollerů.
+ * <ul>
+ *   <li>typy: {@code message} (veřejná zpráva členům místnosti), {@code direct} (DM odesílateli
+ *       i příjemci), {@code avatar} (změna avataru kohokoli), {@code unread} (počty nepřečtených DM)
+ *       a {@code resync},</li>
+ *   <li>ID událostí z {@link MessageIdGenerator}, takže rostou i přes restart serveru. Posledních
+ *       {@code chat.stream.replay-size} událostí zůstává v paměti a klient po výpadku dostane podle
+ *       Last-Event-ID, co zmeškal. Když už to v bufferu není (nebo jde o předchozí běh serveru),
+ *       dostane {@code resync} a stav si dotáhne přes REST,</li>
+ *   <li>{@code unread} je stav, ne změna – posílá se bez ID a mimo buffer, při každém připojení
+ *       jde aktuální snímek jako první událost,</li>
+ *   <li>každé spojení má vlastní frontu odesílanou na malém poolu (pořadí se drží, pomalý klient
+ *       nebrzdí ostatní). Kdo nestíhá ({@code chat.stream.max-pending}), je odpojen a po návratu
+ *       jede přes Last-Event-ID.</li>
+ * </ul>
+ */
+@Service
+public class EventStreamService {
+
+    public static final String MESSAGE = "message";
+    public static final String DIRECT = "direct";
+    public static final String AVATAR = "avatar";
+    public static final String UNREAD = "unread";
+    public static final String RESYNC = "resync";
+
+    // adresát: členové místnosti, vyjmenovaní uživatelé, nebo všichni (oboje null)
+    private record StreamEvent(long id, String type, Object data, Integer roomId, Set<UUID> users) {
+        boolean isFor(Connection connection) {
+            if (roomId != null) return connection.rooms.contains(roomId);
+            return users == null || users.contains(connection.userId);
+        }
+    }
+
+    private static final class Connection {
+        final UUID userId;
+        final SseEmitter emitter;
+        final Set<Integer> rooms = ConcurrentHashMap.newKeySet();
+        final Queue<SseEmitter.SseEventBuilder> pending = new ConcurrentLinkedQueue<>();
+        final AtomicInteger pendingCount = new AtomicInteger();
+        final AtomicBoolean draining = new AtomicBoolean();
+        volatile boolean closed;
+
+        Connection(UUID userId, SseEmitter emitter) {
+            this.userId = userId;
+            this.emitter = emitter;
+        }
+    }
+
+    private final MessageIdGenerator idGenerator;
+    private final UserRepository userRepository;
+    private final ChatRoomRepository chatRoomRepository;
+    private final ObjectProvider<UnreadCounterService> unreadCounterService;
+    private final EntityManagerFactory entityManagerFactory;
+
+    private final long timeoutMs;
+    private final int replaySize;
+    private final int maxPending;
+    private final long retryMs;
+
+    private final Map<UUID, List<Connection>> connections = new ConcurrentHashMap<>();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final ExecutorService senders;
+
+    // guarded by replay: buffer + hranice, pod kterou už resume není možný
+    private final ArrayDeque<StreamEvent> replay = new ArrayDeque<>();
+    private long replayFloor;
+
+    private final Counter publishedCounter;
+    private final Counter resyncCounter;
+    private final Counter droppedCounter;
+
+    public EventStreamService(MessageIdGenerator idGenerator,
+                              UserRepository userRepository,
+                              ChatRoomRepository chatRoomRepository,
+                              ObjectProvider<UnreadCounterService> unreadCounterService,
+                              EntityManagerFactory entityManagerFactory,
+                              MeterRegistry meterRegistry,
+                              @Value("${chat.stream.timeout-ms:1800000}") long timeoutMs,
+                              @Value("${chat.stream.replay-size:1000}") int replaySize,
+                              @Value("${chat.stream.max-pending:1000}") int maxPending,
+                              @Value("${chat.stream.retry-ms:3000}") long retryMs,
+                              @Value("${chat.stream.sender-threads:4}") int senderThreads) {
+        this.idGenerator = idGenerator;
+        this.userRepository = userRepository;
+        this.chatRoomRepository = chatRoomRepository;
+        this.unreadCounterService = unreadCounterService;
+        this.entityManagerFactory = entityManagerFactory;
+        this.timeoutMs = timeoutMs;
+        this.replaySize = replaySize;
+        this.maxPending = maxPending;
+        this.retryMs = retryMs;
+        // události z předchozího běhu serveru v bufferu nejsou
+        this.replayFloor = idGenerator.nextId();
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(senderThreads, r -> {
+            Thread thread = new Thread(r, "event-stream-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Gauge.builder("chat.stream.connections", connectionCount, AtomicInteger::get)
+                .description("Open SSE connections")
+                .register(meterRegistry);
+        this.publishedCounter = Counter.builder("chat.stream.events")
+                .description("Events published to SSE streams")
+                .register(meterRegistry);
+        this.resyncCounter = Counter.builder("chat.stream.resyncs")
+                .description("Resumes whose Last-Event-ID was no longer in the replay buffer")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("chat.stream.dropped")
+                .description("Connections closed because the client could not keep up")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Otevře stream uživatele; {@code lastEventId} = poslední přijatá událost při obnovení spojení.
+     * Vrací null pro neznámého uživatele.
+     */
+    public SseEmitter subscribe(UUID userId, Long lastEventId) {
+        // open-in-view by EntityManagerem requestu drželo spojení do DB po celou dobu streamu
+        List<Integer> rooms = withoutRequestEntityManager(() ->
+                userRepository.existsById(userId) ? chatRoomRepository.findJoinedRoomIds(userId) : null);
+        if (rooms == null) return null;
+        UnreadCounts unread = withoutRequestEntityManager(() -> unreadCounterService.getObject().countsFor(userId));
+
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Connection connection = new Connection(userId, emitter);
+        connection.rooms.addAll(rooms);
+        emitter.onCompletion(() -> remove(connection));
+        emitter.onTimeout(() -> {
+            remove(connection);
+            emitter.complete();
+        });
+        emitter.onError(e -> remove(connection));
+
+        enqueue(connection, SseEmitter.event().reconnectTime(retryMs).name(UNREAD).data(unread, MediaType.APPLICATION_JSON));
+        // registrace i replay pod zámkem bufferu – nová událost nepředběhne zmeškané
+        synchronized (replay) {
+            if (lastEventId != null) {
+                if (lastEventId < replayFloor) {
+                    resyncCounter.increment();
+                    enqueue(connection, SseEmitter.event().name(RESYNC).data(""));
+                } else {
+                    for (StreamEvent event : replay) {
+                        if (event.id() > lastEventId && event.isFor(connection)) enqueue(connection, toSse(event));
+                    }
+                }
+            }
+            connections.computeIfAbsent(userId, id -> new CopyOnWriteArrayList<>()).add(connection);
+            connectionCount.incrementAndGet();
+        }
+        schedule(connection);
+        return emitter;
+    }
+
+    /** Veřejná zpráva – dostanou ji připojení členové místnosti. */
+    public void roomMessage(Integer chatId, PayloadMessage message) {
+        publish(MESSAGE, message, chatId, null);
+    }
+
+    public void directMessage(UUID senderId, UUID receiverId, PayloadMessage message) {
+        publish(DIRECT, message, null, Set.of(senderId, receiverId));
+    }
+
+    public void avatarChanged(String username, String avatarUrl) {
+        publish(AVATAR, new UserProfileDto(username, avatarUrl), null, null);
+    }
+
+    public boolean isConnected(UUID userId) {
+        return connections.containsKey(userId);
+    }
+
+    /** Nový stav počítadel nepřečtených DM (jen připojeným, bez replay). */
+    public void unreadChanged(UUID userId, UnreadCounts counts) {
+        List<Connection> userConnections = connections.get(userId);
+        if (userConnections == null) return;
+        for (Connection connection : userConnections) {
+            enqueue(connection, SseEmitter.event().name(UNREAD).data(counts, MediaType.APPLICATION_JSON));
+            schedule(connection);
+        }
+    }
+
+    public void roomJoined(UUID userId, Integer chatId) {
+        List<Connection> userConnections = connections.get(userId);
+        if (userConnections != null) userConnections.forEach(c -> c.rooms.add(chatId));
+    }
+
+    public void roomLeft(UUID userId, Integer chatId) {
+        List<Connection> userConnections = connections.get(userId);
+        if (userConnections != null) userConnections.forEach(c -> c.rooms.remove(chatId));
+    }
+
+    private void publish(String type, Object data, Integer roomId, Set<UUID> users) {
+        if (connections.isEmpty() && replaySize <= 0) return;
+        List<Connection> targets = new ArrayList<>();
+        synchronized (replay) {
+            StreamEvent event = new StreamEvent(idGenerator.nextId(), type, data, roomId, users);
+            if (replaySize > 0) {
+                replay.addLast(event);
+                while (replay.size() > replaySize) replayFloor = replay.removeFirst().id();
+            } else {
+                replayFloor = event.id();
+            }
+            for (List<Connection> userConnections : connections.values()) {
+                for (Connection connection : userConnections) {
+                    if (event.isFor(connection)) {
+                        enqueue(connection, toSse(event));
+                        targets.add(connection);
+                    }
+                }
+            }
+        }
+        publishedCounter.increment();
+        targets.forEach(this::schedule);
+    }
+
+    // Komentář projde proxy i load balancery bez timeoutu a odhalí spadlá spojení
+    @Scheduled(fixedDelayString = "${chat.stream.heartbeat-ms:15000}")
+    public void heartbeat() {
+        for (List<Connection> userConnections : connections.values()) {
+            for (Connection connection : userConnections) {
+                enqueue(connection, SseEmitter.event().comment("ping"));
+                schedule(connection);
+            }
+        }
+    }
+
+    private static SseEmitter.SseEventBuilder toSse(StreamEvent event) {
+        return SseEmitter.event()
+                .id(String.valueOf(event.id()))
+                .name(event.type())
+                .data(event.data(), MediaType.APPLICATION_JSON);
+    }
+
+    private void enqueue(Connection connection, SseEmitter.SseEventBuilder event) {
+        if (connection.closed) return;
+        if (connection.pendingCount.incrementAndGet() > maxPending) {
+            droppedCounter.increment();
+            close(connection, "client too slow");
+            return;
+        }
+        connection.pending.add(event);
+    }
+
+    private void schedule(Connection connection) {
+        if (connection.closed || !connection.draining.compareAndSet(false, true)) return;
+        try {
+            senders.execute(() -> drain(connection));
+        } catch (RuntimeException e) {
+            connection.draining.set(false);
+        }
+    }
+
+    private void drain(Connection connection) {
+        try {
+            SseEmitter.SseEventBuilder event;
+            while (!connection.closed && (event = connection.pending.poll()) != null) {
+                connection.pendingCount.decrementAndGet();
+                connection.emitter.send(event);
+            }
+        } catch (IOException | IllegalStateException e) {
+            // klient odešel (nebo už spojení skončilo) – zbytek fronty nemá smysl
+            close(connection, e.getMessage());
+        } finally {
+            connection.draining.set(false);
+        }
+        if (!connection.closed && !connection.pending.isEmpty()) schedule(connection);
+    }
+
+    private void close(Connection connection, String reason) {
+        if (connection.closed) return;
+        remove(connection);
+        try {
+            connection.emitter.complete();
+        } catch (RuntimeException ignored) {
+        }
+        System.out.println("SSE stream of " + connection.userId + " closed: " + reason);
+    }
+
+    private void remove(Connection connection) {
+        connection.closed = true;
+        connection.pending.clear();
+        connections.computeIfPresent(connection.userId, (id, list) -> {
+            if (list.remove(connection)) connectionCount.decrementAndGet();
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    private <T> T withoutRequestEntityManager(Supplier<T> work) {
+        Object outer = TransactionSynchronizationManager.unbindResourceIfPossible(entityManagerFactory);
+        try {
+            return work.get();
+        } finally {
+            if (outer != null) TransactionSynchronizationManager.bindResource(entityManagerFactory, outer);
+        }
+    }
+
+    // Otevřené streamy by graceful shutdown serveru držely až do timeoutu – ukončí se hned na začátku zavírání
+    @EventListener(ContextClosedEvent.class)
+    public void closeStreams() {
+        for (List<Connection> userConnections : connections.values()) {
+            for (Connection connection : userConnections) {
+                remove(connection);
+                try {
+                    connection.emitter.complete();
+                } catch (RuntimeException ignored) {
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        senders.shutdownNow();
+    }
+}
@@ -9,7 +9,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.List;
 import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class FileService {
@@ -55,6 +58,42 @@ public class FileService {
                extension.equals("bmp") || extension.equals("webp");
     }
 
+    public String guessMimeType(String filename) {
+        if (filename == null) return "application/octet-stream";
+        switch (getFileExtension(filename).toLowerCase()) {
+            case "jpg": case "jpeg": return "image/jpeg";
+            case "png": return "image/png";
+            case "gif": return "image/gif";
+            case "bmp": return "image/bmp";
+            case "webp": return "image/webp";
+            case "pdf": return "application/pdf";
+            case "txt": return "text/plain";
+            default: return "application/octet-stream";
+        }
+    }
+
+    /** Velikost uloženého souboru podle URL "/uploads/xxx", null když neexistuje. */
+    public Long sizeOf(String fileUrl) {
+        if (fileUrl == null || !fileUrl.startsWith("/uploads/")) return null;
+        try {
+            return Files.size(loadFile(fileUrl.substring("/uploads/".length())));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Všechny uložené soubory (pro úklid osiřelých uploadů). */
+    public List<Path> listStoredFiles() throws IOException {
+        try (Stream<Path> files = Files.list(rootLocation)) {
+            return files.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+    }
+
+    /** URL, pod kterou se soubor servíruje (a ukládá do zpráv). */
+    public String urlOf(Path file) {
+        return "/uploads/" + file.getFileName();
+    }
+
     private String getFileExtension(String filename) {
         int lastDotIndex = filename.lastIndexOf('.');
         if (lastDotIndex == -1) {
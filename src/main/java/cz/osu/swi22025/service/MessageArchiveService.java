@@ -0,0 +1,303 @@
+package cz.osu.swi22025.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.osu.swi22025.model.DirectMessageRepository;
+import cz.osu.swi22025.model.MessageArchiveChunk;
+import cz.osu.swi22025.model.MessageArchiveRepository;
+import cz.osu.swi22025.model.MessageRepository;
+import cz.osu.swi22025.model.MessageRow;
+import cz.osu.swi22025.model.UnreadCounterRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Archiv staré historie.
+ * <p>
+ * Měsíce starší než {@code chat.archive.after-months} se přesunou do tabulky message_archive
+ * jako komprimované úseky (gzip JSON, po {@code chat.archive.chunk-size} zprávách na místnost
+ * nebo konverzaci) a z živých tabulek zmizí. Každý úsek je vlastní krátká transakce: zápis úseku
+ * a smazání právě jeho řádků podle server_id, takže živé tabulky nejsou zamčené celý měsíc
+ * a přerušená archivace při dalším běhu pokračuje, kde skončila. Prázdné partitiony měsíce
+ * (PostgreSQL, {@link MessagePartitionService}) se nakonec zahodí. DM si v archivu nesou příznak
+ * přečtení; nepřečtené se odečtou z počítadel, jinak by badge odkazoval na zprávy, které už
+ * nejde označit za přečtené.
+ * <p>
+ * Čtecí metody vrací řádky ve stejném pořadí jako odpovídající dotazy repozitářů, takže je
+ * historie jen připojí, když kurzor přejde do archivu. Vše v archivu je starší než
+ * {@link #archivedBefore()} – novější kurzory se archivu vůbec neptají.
+ */
+@Service
+public class MessageArchiveService {
+
+    private static final TypeReference<List<MessageRow>> ROWS = new TypeReference<>() {};
+
+    private final MessageRepository messageRepository;
+    private final DirectMessageRepository directMessageRepository;
+    private final MessageArchiveRepository archiveRepository;
+    private final MessagePartitionService partitionService;
+    private final UnreadCounterRepository unreadCounterRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final boolean enabled;
+    private final int afterMonths;
+    private final int chunkSize;
+
+    // server_id, pod kterým už může něco ležet v archivu (0 = archiv je prázdný)
+    private final AtomicLong archivedBefore = new AtomicLong();
+
+    public MessageArchiveService(MessageRepository messageRepository,
+                                 DirectMessageRepository directMessageRepository,
+                                 MessageArchiveRepository archiveRepository,
+                                 MessagePartitionService partitionService,
+                                 UnreadCounterRepository unreadCounterRepository,
+                                 TransactionTemplate transactionTemplate,
+                                 @Value("${chat.archive.enabled:true}") boolean enabled,
+                                 @Value("${chat.archive.after-months:6}") int afterMonths,
+                                 @Value("${chat.archive.chunk-size:500}") int chunkSize) {
+        this.messageRepository = messageRepository;
+        this.directMessageRepository = directMessageRepository;
+        this.archiveRepository = archiveRepository;
+        this.partitionService = partitionService;
+        this.unreadCounterRepository = unreadCounterRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.afterMonths = afterMonths;
+        this.chunkSize = chunkSize;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadBoundary() {
+        Long max = archiveRepository.findMaxArchivedServerId();
+        archivedBefore.set(max != null ? max + 1 : 0);
+    }
+
+    public long archivedBefore() {
+        return archivedBefore.get();
+    }
+
+    public boolean isEmpty() {
+        return archivedBefore.get() == 0;
+    }
+
+    /** Může být v archivu něco novějšího než kurzor? */
+    public boolean mayHaveAfter(long after) {
+        return after < archivedBefore.get();
+    }
+
+    // ---------- archivace ----------
+
+    @Scheduled(cron = "${chat.archive.cron:0 30 3 * * *}")
+    public void archiveOldMonths() {
+        if (!enabled) return;
+        YearMonth cutoff = YearMonth.now(ZoneOffset.UTC).minusMonths(afterMonths);
+        Long oldest = minLiveServerId();
+        if (oldest == null) return;
+        for (YearMonth month = MessagePartitionService.monthOf(oldest); month.isBefore(cutoff); month = month.plusMonths(1)) {
+            archiveMonth(month);
+        }
+    }
+
+    private Long minLiveServerId() {
+        Long rooms = messageRepository.findMinServerId();
+        Long direct = directMessageRepository.findMinServerId();
+        if (rooms == null) return direct;
+        if (direct == null) return rooms;
+        return Math.min(rooms, direct);
+    }
+
+    /** Přesune jeden měsíc obou tabulek do archivu; vrací počet archivovaných zpráv. */
+    public int archiveMonth(YearMonth month) {
+        long from = MessagePartitionService.firstIdOf(month);
+        long to = MessagePartitionService.firstIdOf(month.plusMonths(1));
+        List<Integer> roomIds = messageRepository.findRoomIdsInRange(from, to);
+        List<String> conversationKeys = directMessageRepository.findConversationKeysInRange(from, to);
+        if (roomIds.isEmpty() && conversationKeys.isEmpty()) return 0;
+
+        // čtení historie se do archivu musí dívat už během přesunu (úseky mizí z živých tabulek průběžně)
+        archivedBefore.accumulateAndGet(to, Math::max);
+        int archived = 0;
+        for (Integer chatId : roomIds) {
+            archived += archiveRange(from, (after, page) -> messageRepository.findRangeAfter(chatId, after, to, page),
+                    messageRepository::deleteByServerIds, chatId, null);
+        }
+        for (String key : conversationKeys) {
+            archived += archiveRange(from, (after, page) -> directMessageRepository.findConversationRangeAfter(key, after, to, page),
+                    this::deleteDirectMessages, null, key);
+        }
+        // partitiona (jen primární PostgreSQL) je teď prázdná – zahodí se i s místem na disku
+        transactionTemplate.executeWithoutResult(tx -> {
+            partitionService.dropPartition("message", month);
+            partitionService.dropPartition("direct_message", month);
+        });
+        if (archived > 0) {
+            System.out.println("Archivováno " + archived + " zpráv z " + month);
+        }
+        return archived;
+    }
+
+    // úsek po úseku: zápis úseku a smazání jeho řádků v jedné krátké transakci
+    private int archiveRange(long from, BiFunction<Long, PageRequest, List<MessageRow>> query,
+                             Function<List<Long>, Integer> delete, Integer chatId, String conversationKey) {
+        int count = 0;
+        long cursor = from - 1;
+        while (true) {
+            long after = cursor;
+            List<MessageRow> rows = transactionTemplate.execute(tx -> {
+                List<MessageRow> page = query.apply(after, PageRequest.of(0, chunkSize));
+                if (page.isEmpty()) return page;
+                MessageArchiveChunk chunk = new MessageArchiveChunk();
+                chunk.setChatId(chatId);
+                chunk.setConversationKey(conversationKey);
+                chunk.setFirstServerId(page.get(0).serverId());
+                chunk.setLastServerId(page.get(page.size() - 1).serverId());
+                chunk.setMessageCount(page.size());
+                chunk.setPayload(compress(page));
+                chunk.setArchivedAt(new Date());
+                // úsek zapsat dřív, než se smažou řádky – mazání na shardu se commitne hned (REQUIRES_NEW)
+                archiveRepository.saveAndFlush(chunk);
+                delete.apply(page.stream().map(MessageRow::serverId).toList());
+                return page;
+            });
+            if (rows == null || rows.isEmpty()) break;
+            count += rows.size();
+            cursor = rows.get(rows.size() - 1).serverId();
+            if (rows.size() < chunkSize) break;
+        }
+        return count;
+    }
+
+    // Archivované nepřečtené DM se odečtou z počítadel (stejně jako při retenci)
+    private int deleteDirectMessages(List<Long> serverIds) {
+        for (Object[] row : directMessageRepository.countUnreadByPairIn(serverIds)) {
+            unreadCounterRepository.decrement((UUID) row[0], (UUID) row[1], ((Number) row[2]).intValue());
+        }
+        return directMessageRepository.deleteByServerIds(serverIds);
+    }
+
+    // ---------- čtení ----------
+
+    /** Až {@code count} zpráv místnosti starších než kurzor, sestupně (jako findPageBefore). */
+    public List<MessageRow> roomBefore(Integer chatId, Long before, int count) {
+        return collectBefore(before, count, (cursor, page) -> archiveRepository.findRoomChunksBefore(chatId, cursor, page));
+    }
+
+    /** Až {@code count} zpráv místnosti novějších než kurzor, vzestupně (jako findRangeAfter). */
+    public List<MessageRow> roomAfter(Integer chatId, long after, int count) {
+        return collectAfter(after, count, (cursor, page) -> archiveRepository.findRoomChunksAfter(chatId, cursor, page));
+    }
+
+    public List<MessageRow> conversationBefore(String conversationKey, Long before, int count) {
+        return collectBefore(before, count, (cursor, page) -> archiveRepository.findConversationChunksBefore(conversationKey, cursor, page));
+    }
+
+    public List<MessageRow> conversationAfter(String conversationKey, long after, int count) {
+        return collectAfter(after, count, (cursor, page) -> archiveRepository.findConversationChunksAfter(conversationKey, cursor, page));
+    }
+
+    // Úseky se čtou po jednom, dokud není dost řádků (stránka historie obvykle stačí z jednoho)
+    private List<MessageRow> collectBefore(Long before, int count,
+                                           BiFunction<Long, PageRequest, List<MessageArchiveChunk>> chunks) {
+        List<MessageRow> result = new ArrayList<>();
+        long cursor = before != null ? Math.min(before, archivedBefore.get()) : archivedBefore.get();
+        while (result.size() < count) {
+            List<MessageArchiveChunk> next = chunks.apply(cursor, PageRequest.of(0, 1));
+            if (next.isEmpty()) break;
+            List<MessageRow> rows = decompress(next.get(0).getPayload());
+            for (int i = rows.size() - 1; i >= 0 && result.size() < count; i--) {
+                if (rows.get(i).serverId() < cursor) result.add(rows.get(i));
+            }
+            cursor = Math.min(cursor, next.get(0).getFirstServerId());
+        }
+        return result;
+    }
+
+    private List<MessageRow> collectAfter(long after, int count,
+                                          BiFunction<Long, PageRequest, List<MessageArchiveChunk>> chunks) {
+        List<MessageRow> result = new ArrayList<>();
+        long cursor = after;
+        while (result.size() < count) {
+            List<MessageArchiveChunk> next = chunks.apply(cursor, PageRequest.of(0, 1));
+            if (next.isEmpty()) break;
+            for (MessageRow row : decompress(next.get(0).getPayload())) {
+                if (row.serverId() > cursor && result.size() < count) result.add(row);
+            }
+            cursor = Math.max(cursor, next.get(0).getLastServerId());
+        }
+        return result;
+    }
+
+    /** Zpráva z archivu podle server_id (null = v archivu není). */
+    public MessageRow findRow(long serverId) {
+        if (serverId >= archivedBefore.get()) return null;
+        for (MessageArchiveChunk chunk : archiveRepository.findChunksContaining(serverId)) {
+            for (MessageRow row : decompress(chunk.getPayload())) {
+                if (row.serverId() == serverId) return row;
+            }
+        }
+        return null;
+    }
+
+    /** Projde celý archiv po úsecích (úsek se načítá až při průchodu, v paměti je vždy jen jeden). */
+    public void forEachChunk(BiConsumer<MessageArchiveChunk, List<MessageRow>> consumer) {
+        int page = 0;
+        while (true) {
+            List<Long> ids = archiveRepository.findChunkIds(PageRequest.of(page++, 100));
+            for (Long id : ids) {
+                archiveRepository.findById(id).ifPresent(chunk -> consumer.accept(chunk, decompress(chunk.getPayload())));
+            }
+            if (ids.size() < 100) break;
+        }
+    }
+
+    /** Přidá do {@code into} URL příloh z archivu (úklid uploadů nesmí smazat archivované soubory). */
+    public void collectFileUrls(Set<String> into) {
+        forEachChunk((chunk, rows) -> {
+            for (MessageRow row : rows) {
+                if (row.fileUrl() != null) into.add(row.fileUrl());
+            }
+        });
+    }
+
+    private byte[] compress(List<MessageRow> rows) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            objectMapper.writeValue(gzip, rows);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private List<MessageRow> decompress(byte[] payload) {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(payload))) {
+            return objectMapper.readValue(gzip, ROWS);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package cz.osu.swi22025.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+
+/**
+ * Snowflake-like generátor serverových ID zpráv:
+ * 41 bitů ms od EPOCH | 10 bitů node | 12 bitů sekvence.
+ * ID jsou monotónní v rámci uzlu a řadí se podle času odeslání,
+ * takže slouží zároveň jako stránkovací kurzor i klíč pro deduplikaci.
+ */
+@Service
+public class MessageIdGenerator {
+
+    private static final long EPOCH = 1735689600000L; // 2025-01-01T00:00:00Z
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_NODE = (1L << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long nodeId;
+    private long lastTimestamp = -1L;
+    private long sequence = 0L;
+
+    public MessageIdGenerator(@Value("${chat.node-id:0}") long nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE) {
+            throw new IllegalArgumentException("chat.node-id must be between 0 and " + MAX_NODE);
+        }
+        this.nodeId = nodeId;
+    }
+
+    /** Nejmenší možné ID vygenerované v okamžiku {@code time} – hranice pro rozsahy podle času. */
+    public static long firstIdAt(Instant time) {
+        return Math.max(0, time.toEpochMilli() - EPOCH) << (NODE_BITS + SEQUENCE_BITS);
+    }
+
+    /** Čas vygenerování ID (s přesností na ms). */
+    public static Instant timestampOf(long id) {
+        return Instant.ofEpochMilli((id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH);
+    }
+
+    public synchronized long nextId() {
+        // při posunu hodin zpět pokračujeme z poslední známé ms, ať ID neklesají
+        long now = Math.max(System.currentTimeMillis(), lastTimestamp);
+
+        if (now == lastTimestamp) {
+            sequence = (sequence + 1) & SEQUENCE_MASK;
+            if (sequence == 0) {
+                now = lastTimestamp + 1; // sekvence vyčerpaná, "půjčíme" si další ms
+            }
+        } else {
+            sequence = 0;
+        }
+        lastTimestamp = now;
+
+        return ((now - EPOCH) << (NODE_BITS + SEQUENCE_BITS))
+                | (nodeId << SEQUENCE_BITS)
+                | sequence;
+    }
+}
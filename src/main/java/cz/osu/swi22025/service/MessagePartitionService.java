@@ -0,0 +1,183 @@
+package cz.osu.swi22025.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.List;
+
+/**
+ * Měsíční range partitioning tabulek zpráv na PostgreSQL.
+ * <p>
+ * Klíčem je server_id (MessageIdGenerator) – nese čas odeslání, takže měsíc = souvislý rozsah ID
+ * a keyset dotazy historie ({@code server_id < kurzor}) rovnou prořezávají partitiony.
+ * Hibernate (ddl-auto) založí obyčejné tabulky; při startu se převedou na partitioned,
+ * denně se zakládají partitiony dopředu. Staré měsíce odpojuje {@link MessageArchiveService}.
+ * Na jiných databázích (H2) je služba neaktivní.
+ */
+@Service
+public class MessagePartitionService {
+
+    // Tabulka, její indexy a cizí klíče (musí odpovídat entitám Message a DirectMessage).
+    // PK i unique musí na partitioned tabulce obsahovat klíč partitioningu.
+    private record PartitionedTable(String name, List<String> constraints) {}
+
+    private static final List<PartitionedTable> TABLES = List.of(
+            new PartitionedTable("message", List.of(
+                    "ALTER TABLE message ADD PRIMARY KEY (message_id, server_id)",
+                    "ALTER TABLE message ADD CONSTRAINT uk_message_server_id UNIQUE (server_id)",
+                    "CREATE INDEX idx_message_room_server_id ON message (chat_id, server_id)",
+                    "ALTER TABLE message ADD CONSTRAINT fk_message_chat_room FOREIGN KEY (chat_id) REFERENCES chat_room",
+                    "ALTER TABLE message ADD CONSTRAINT fk_message_chat_user FOREIGN KEY (user_id) REFERENCES chat_user")),
+            new PartitionedTable("direct_message", List.of(
+                    "ALTER TABLE direct_message ADD PRIMARY KEY (message_id, server_id)",
+                    "ALTER TABLE direct_message ADD CONSTRAINT uk_direct_message_server_id UNIQUE (server_id)",
+                    "CREATE INDEX idx_dm_conversation_send_time ON direct_message (conversation_key, send_time)",
+                    "CREATE INDEX idx_dm_conversation_server_id ON direct_message (conversation_key, server_id)",
+                    "ALTER TABLE direct_message ADD CONSTRAINT fk_direct_message_sender FOREIGN KEY (sender_id) REFERENCES chat_user",
+                    "ALTER TABLE direct_message ADD CONSTRAINT fk_direct_message_receiver FOREIGN KEY (receiver_id) REFERENCES chat_user"))
+    );
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int monthsAhead;
+    private final boolean postgres;
+
+    public MessagePartitionService(JdbcTemplate jdbcTemplate,
+                                   TransactionTemplate transactionTemplate,
+                                   DataSource dataSource,
+                                   @Value("${chat.partitioning.enabled:true}") boolean enabled,
+                                   @Value("${chat.partitioning.months-ahead:2}") int monthsAhead) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.monthsAhead = monthsAhead;
+        this.postgres = isPostgres(dataSource);
+    }
+
+    private static boolean isPostgres(DataSource dataSource) {
+        try (Connection connection = dataSource.getConnection()) {
+            return "PostgreSQL".equals(connection.getMetaData().getDatabaseProductName());
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    public boolean isActive() {
+        return enabled && postgres;
+    }
+
+    // Před backfilly – ty už pracují nad partitioned tabulkami
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void init() {
+        if (!isActive()) return;
+        for (PartitionedTable table : TABLES) {
+            if (!isPartitioned(table.name())) {
+                try {
+                    convert(table);
+                } catch (RuntimeException e) {
+                    // transakce se vrátila celá, tabulka zůstává nepartitionovaná
+                    System.out.println("Převod tabulky " + table.name() + " na partitiony selhal: " + e.getMessage());
+                }
+            }
+        }
+        createUpcomingPartitions();
+    }
+
+    @Scheduled(cron = "${chat.partitioning.cron:0 0 3 * * *}")
+    public void createUpcomingPartitions() {
+        if (!isActive()) return;
+        YearMonth now = YearMonth.now(ZoneOffset.UTC);
+        for (PartitionedTable table : TABLES) {
+            for (int i = 0; i <= monthsAhead; i++) {
+                YearMonth month = now.plusMonths(i);
+                try {
+                    createPartition(table.name(), month);
+                } catch (Exception e) {
+                    // typicky řádky toho měsíce už leží v DEFAULT partitioně – zůstanou tam
+                    System.out.println("Nelze založit partition " + partitionName(table.name(), month) + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private boolean isPartitioned(String table) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM pg_partitioned_table pt JOIN pg_class c ON c.oid = pt.partrelid " +
+                "WHERE c.relname = ? AND c.relnamespace = to_regnamespace(current_schema())",
+                Integer.class, table);
+        return count != null && count > 0;
+    }
+
+    // Přejmenuje původní tabulku, založí partitioned kopii s partitionami pro existující data,
+    // přesype řádky a vrátí indexy a klíče. Vše v jedné transakci (DDL je na PG transakční) –
+    // chyba kteréhokoli příkazu ji celou vrátí, proto se tu nic nepolyká.
+    private void convert(PartitionedTable table) {
+        String name = table.name();
+        String old = name + "_unpartitioned";
+        transactionTemplate.executeWithoutResult(tx -> {
+            jdbcTemplate.execute("ALTER TABLE " + name + " RENAME TO " + old);
+            jdbcTemplate.execute("CREATE TABLE " + name + " (LIKE " + old + " INCLUDING DEFAULTS) " +
+                    "PARTITION BY RANGE (server_id)");
+            jdbcTemplate.execute("CREATE TABLE " + name + "_default PARTITION OF " + name + " DEFAULT");
+
+            Long minId = jdbcTemplate.queryForObject("SELECT MIN(server_id) FROM " + old, Long.class);
+            YearMonth first = minId != null ? monthOf(minId) : YearMonth.now(ZoneOffset.UTC);
+            YearMonth last = YearMonth.now(ZoneOffset.UTC).plusMonths(monthsAhead);
+            for (YearMonth m = first; !m.isAfter(last); m = m.plusMonths(1)) {
+                createPartition(name, m);
+            }
+
+            int moved = jdbcTemplate.update("INSERT INTO " + name + " SELECT * FROM " + old);
+            jdbcTemplate.execute("DROP TABLE " + old);
+            table.constraints().forEach(jdbcTemplate::execute);
+            System.out.println("Tabulka " + name + " převedena na měsíční partitiony (" + moved + " řádků)");
+        });
+    }
+
+    private void createPartition(String table, YearMonth month) {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + partitionName(table, month) +
+                " PARTITION OF " + table + " FOR VALUES FROM (" + firstIdOf(month) + ") TO (" + firstIdOf(month.plusMonths(1)) + ")");
+    }
+
+    /**
+     * Odpojí a zahodí partition měsíce (volá archivace, až jsou řádky měsíce přesunuté do archivu).
+     * Vrací false, když partition neexistuje.
+     */
+    public boolean dropPartition(String table, YearMonth month) {
+        if (!isActive()) return false;
+        String partition = partitionName(table, month);
+        Integer exists = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+                "JOIN pg_class p ON p.oid = i.inhparent WHERE c.relname = ? AND p.relname = ?",
+                Integer.class, partition, table);
+        if (exists == null || exists == 0) return false;
+        jdbcTemplate.execute("ALTER TABLE " + table + " DETACH PARTITION " + partition);
+        jdbcTemplate.execute("DROP TABLE " + partition);
+        return true;
+    }
+
+    public static YearMonth monthOf(long serverId) {
+        return YearMonth.from(MessageIdGenerator.timestampOf(serverId).atZone(ZoneOffset.UTC));
+    }
+
+    public static long firstIdOf(YearMonth month) {
+        return MessageIdGenerator.firstIdAt(month.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant());
+    }
+
+    private static String partitionName(String table, YearMonth month) {
+        return String.format("%s_p%04d_%02d", table, month.getYear(), month.getMonthValue());
+    }
+}
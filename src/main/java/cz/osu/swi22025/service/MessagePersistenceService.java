@@ -0,0 +1,278 @@
+package cz.osu.swi22025.service;
+
+import cz.osu.swi22025.model.ChatRoomStats;
+import cz.osu.swi22025.model.ChatRoomStatsRepository;
+import cz.osu.swi22025.model.Message;
+import cz.osu.swi22025.model.MessageRepository;
+import cz.osu.swi22025.model.OutboxEvent;
+import cz.osu.swi22025.model.OutboxEventRepository;
+import cz.osu.swi22025.model.RoomReadStateId;
+import cz.osu.swi22025.model.RoomReadStateRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Zápis veřejných zpráv do DB.
+ * <p>
+ * Synchronní režim (výchozí) uloží zprávu hned na volajícím vlákně.
+ * V asynchronním režimu ({@code chat.persistence.async=true}) se zpráva jen zařadí
+ * do omezené fronty a ukládá ji writer na pozadí v JDBC dávkách; při plné frontě
+ * se zapíše synchronně, takže se nic neztratí. Při vypnutí se fronta dopíše.
+ * Ve stejné transakci se aktualizuje souhrn místnosti (počet zpráv, poslední zpráva), posune
+ * stav přečtení autora (vlastní zprávy nejsou nepřečtené) a zapíše událost outboxu pro RabbitMQ,
+ * pokud ji volající předal.
+ */
+@Service
+public class MessagePersistenceService {
+
+    private record Pending(Message message, OutboxEvent broadcast, long enqueuedAtNanos) {}
+
+    private static final int PREVIEW_LENGTH = 100;
+
+    private final MessageRepository messageRepository;
+    private final ChatRoomStatsRepository chatRoomStatsRepository;
+    private final RoomReadStateRepository roomReadStateRepository;
+    private final OutboxEventRepository outboxEventRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    private final boolean async;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final BlockingQueue<Pending> queue;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private final Counter persistedCounter;
+    private final Counter overflowCounter;
+    private final Timer batchTimer;
+    private final Timer lagTimer;
+
+    public MessagePersistenceService(MessageRepository messageRepository,
+                                     ChatRoomStatsRepository chatRoomStatsRepository,
+                                     RoomReadStateRepository roomReadStateRepository,
+                                     OutboxEventRepository outboxEventRepository,
+                                     TransactionTemplate transactionTemplate,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${chat.persistence.async:false}") boolean async,
+                                     @Value("${chat.persistence.queue-capacity:10000}") int queueCapacity,
+                                     @Value("${chat.persistence.batch-size:200}") int batchSize,
+                                     @Value("${chat.persistence.flush-interval-ms:50}") long flushIntervalMs) {
+        this.messageRepository = messageRepository;
+        this.chatRoomStatsRepository = chatRoomStatsRepository;
+        this.roomReadStateRepository = roomReadStateRepository;
+        this.outboxEventRepository = outboxEventRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.async = async;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        this.persistedCounter = Counter.builder("chat.persistence.persisted")
+                .description("Public messages written to the database")
+                .register(meterRegistry);
+        this.overflowCounter = Counter.builder("chat.persistence.overflow")
+                .description("Messages written synchronously because the write-behind queue was full")
+                .register(meterRegistry);
+        this.batchTimer = Timer.builder("chat.persistence.batch")
+                .description("Time to write one batch of messages")
+                .register(meterRegistry);
+        this.lagTimer = Timer.builder("chat.persistence.lag")
+                .description("Delay between accepting a message and committing it")
+                .register(meterRegistry);
+        Gauge.builder("chat.persistence.queue.size", queue, BlockingQueue::size)
+                .description("Messages waiting for the background writer")
+                .register(meterRegistry);
+        Gauge.builder("chat.persistence.queue.oldest.age", this, MessagePersistenceService::oldestPendingAgeMillis)
+                .description("Age in ms of the oldest message not yet persisted")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+
+        if (async) {
+            writer = new Thread(this::drainLoop, "message-write-behind");
+            writer.setDaemon(true);
+            writer.start();
+        } else {
+            writer = null;
+        }
+    }
+
+    public void persist(Message message) {
+        persist(message, null);
+    }
+
+    /** Uloží zprávu a v téže transakci událost outboxu ({@code broadcast} může být null). */
+    public void persist(Message message, OutboxEvent broadcast) {
+        Pending pending = new Pending(message, broadcast, System.nanoTime());
+        if (!async || !running) {
+            writeBatch(List.of(pending));
+            return;
+        }
+        if (!queue.offer(pending)) {
+            overflowCounter.increment();
+            writeBatch(List.of(pending));
+        }
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    private void drainLoop() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                System.out.println("Write-behind batch failed: " + e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<Pending> batch) {
+        List<Message> messages = new ArrayList<>(batch.size());
+        List<OutboxEvent> broadcasts = new ArrayList<>();
+        for (Pending p : batch) {
+            messages.add(p.message());
+            if (p.broadcast() != null) broadcasts.add(p.broadcast());
+        }
+        ensureReadStates(messages);
+
+        try {
+            batchTimer.record(() -> transactionTemplate.executeWithoutResult(tx -> {
+                messageRepository.saveAll(messages);
+                updateRoomSummaries(messages);
+                if (!broadcasts.isEmpty()) outboxEventRepository.saveAll(broadcasts);
+            }));
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) throw e;
+            // jedna vadná zpráva nesmí shodit celou dávku – dopiš je po jedné. Zápis na shard běží
+            // ve vlastní transakci, takže část zpráv už mohla projít: ty se znovu nevkládají,
+            // jen se dopíše souhrn a událost outboxu, které padly s hlavní transakcí.
+            for (Pending p : batch) {
+                try {
+                    if (p.broadcast() != null) p.broadcast().setId(null);
+                    if (messageRepository.existsByServerId(p.message().getServerId())) {
+                        writeAlreadyStored(p);
+                        continue;
+                    }
+                    p.message().setMessageId(null); // ID z rollbacknuté transakce neplatí
+                    writeBatch(List.of(p));
+                } catch (RuntimeException single) {
+                    System.out.println("Dropping message " + p.message().getServerId() + ": " + single.getMessage());
+                }
+            }
+            return;
+        }
+
+        persistedCounter.increment(batch.size());
+        long now = System.nanoTime();
+        for (Pending p : batch) lagTimer.record(now - p.enqueuedAtNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Založí (s nulou) chybějící stavy přečtení autorů, aby v transakci zápisu stačil UPDATE
+     * a souběžné založení stejného řádku ji neshodilo (stejně jako počítadla nepřečtených DM).
+     */
+    private void ensureReadStates(List<Message> messages) {
+        Set<RoomReadStateId> ids = new HashSet<>();
+        for (Message m : messages) {
+            ids.add(new RoomReadStateId(m.getChatUser().getUserId(), m.getChatRoom().getChatId()));
+        }
+        for (RoomReadStateId id : ids) {
+            if (roomReadStateRepository.existsById(id)) continue;
+            try {
+                transactionTemplate.executeWithoutResult(tx -> roomReadStateRepository.insertEmpty(id.getUserId(), id.getChatId()));
+            } catch (DataIntegrityViolationException e) {
+                // řádek mezitím založil souběžný zápis
+            }
+        }
+    }
+
+    private void writeAlreadyStored(Pending p) {
+        transactionTemplate.executeWithoutResult(tx -> {
+            updateRoomSummaries(List.of(p.message()));
+            if (p.broadcast() != null) outboxEventRepository.save(p.broadcast());
+        });
+        persistedCounter.increment();
+        lagTimer.record(System.nanoTime() - p.enqueuedAtNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    // jeden UPDATE počtu + jeden poslední zprávy na místnost a dávku, ne na zprávu
+    // (a jeden UPDATE stavu přečtení na autora a místnost)
+    private void updateRoomSummaries(List<Message> messages) {
+        Map<Integer, Long> counts = new HashMap<>();
+        Map<Integer, Message> newest = new HashMap<>();
+        Map<RoomReadStateId, Long> ownCounts = new HashMap<>();
+        for (Message m : messages) {
+            Integer chatId = m.getChatRoom().getChatId();
+            counts.merge(chatId, 1L, Long::sum);
+            ownCounts.merge(new RoomReadStateId(m.getChatUser().getUserId(), chatId), 1L, Long::sum);
+            newest.merge(chatId, m, (a, b) -> a.getServerId() >= b.getServerId() ? a : b);
+        }
+        counts.forEach((chatId, count) -> {
+            // řádek souhrnu zakládá backfill po startu; tohle je jen pojistka pro nové místnosti
+            if (chatRoomStatsRepository.addMessageCount(chatId, count) == 0) {
+                ChatRoomStats stats = new ChatRoomStats(chatId);
+                stats.setMessageCount(count);
+                chatRoomStatsRepository.saveAndFlush(stats);
+            }
+        });
+        newest.forEach((chatId, m) -> chatRoomStatsRepository.updateLastMessage(
+                chatId, m.getServerId(), preview(m.getContent()), m.getChatUser().getUsername(), m.getSendTime()));
+        ownCounts.forEach((id, count) -> roomReadStateRepository.addReadCount(id.getUserId(), id.getChatId(), count));
+    }
+
+    public static String preview(String content) {
+        if (content == null) return "";
+        return content.length() <= PREVIEW_LENGTH ? content : content.substring(0, PREVIEW_LENGTH - 1) + "…";
+    }
+
+    private double oldestPendingAgeMillis() {
+        Pending head = queue.peek();
+        return head == null ? 0 : (System.nanoTime() - head.enqueuedAtNanos()) / 1_000_000.0;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (writer == null) return;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // co writer nestihl, dopiš na tomto vlákně
+        List<Pending> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        for (int i = 0; i < rest.size(); i += batchSize) {
+            writeBatch(rest.subList(i, Math.min(rest.size(), i + batchSize)));
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package cz.osu.swi22025.service;
 
+import cz.osu.swi22025.component.StompSubscriptionTracker;
 import cz.osu.swi22025.model.ChatUser;
 import cz.osu.swi22025.model.ChatRoom;
 import cz.osu.swi22025.model.json.PayloadMessage;
+import cz.osu.swi22025.model.json.UnreadCounts;
+import cz.osu.swi22025.model.json.UserProfileDto;
 import cz.osu.swi22025.model.UserRepository;
 import cz.osu.swi22025.model.ChatRoomRepository;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -24,6 +27,18 @@ public class NotificationService {
     @Autowired
     private ChatRoomRepository chatRoomRepository;
 
+    @Autowired
+    private EventStreamService eventStreamService;
+
+    @Autowired
+    private RecentMessageCache recentMessageCache;
+
+    @Autowired
+    private AvatarService avatarService;
+
+    @Autowired
+    private StompSubscriptionTracker stompSubscriptionTracker;
+
     public void notifyUsersInDifferentRooms(PayloadMessage message, Integer chatRoomId) {
         ChatRoom messageRoom = chatRoomRepository.findById(chatRoomId).orElse(null);
         if (messageRoom == null) return;
@@ -49,6 +64,30 @@ public class NotificationService {
         }
     }
 
+    // levná kontrola před výpočtem počítadel: otevřený SSE stream nebo STOMP odběr /user/{name}/unread
+    public boolean isListeningForUnread(ChatUser receiver) {
+        return eventStreamService.isConnected(receiver.getUserId())
+                || stompSubscriptionTracker.hasSubscribers(unreadDestination(receiver.getUsername()));
+    }
+
+    // nové počty nepřečtených: SSE stream příjemce + STOMP /user/{name}/unread (desktop)
+    public void notifyUnreadCounts(ChatUser receiver, UnreadCounts counts) {
+        eventStreamService.unreadChanged(receiver.getUserId(), counts);
+        messagingTemplate.convertAndSendToUser(receiver.getUsername(), "/unread", counts);
+    }
+
+    private static String unreadDestination(String username) {
+        return "/user/" + username + "/unread";
+    }
+
+    // změna avataru: SSE všem se sdílenou místností + STOMP /chatroom/avatars; buffer historie
+    // drží payloady s avatarem z doby odeslání, tak se v něm přepíše taky
+    public void notifyAvatarChanged(String username, String avatarUrl) {
+        recentMessageCache.updateSenderAvatar(username, avatarService.normalizeAvatarUrl(avatarUrl));
+        eventStreamService.avatarChanged(username, avatarUrl);
+        messagingTemplate.convertAndSend("/chatroom/avatars", new UserProfileDto(username, avatarUrl));
+    }
+
     private PayloadMessage createNotification(PayloadMessage originalMessage, String notificationType, Integer chatRoomId) {
         PayloadMessage notification = new PayloadMessage();
         notification.setSenderName(originalMessage.getSenderName());
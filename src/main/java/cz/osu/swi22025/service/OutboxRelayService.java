@@ -0,0 +1,205 @@
+package cz.osu.swi22025.service;
+
+import cz.osu.swi22025.model.OutboxEvent;
+import cz.osu.swi22025.model.OutboxEventRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Relay outboxu: vlákno na pozadí čte připravené {@link OutboxEvent} po dávkách, pošle je
+ * na jednom kanálu do RabbitMQ, počká na publisher confirms celé dávky a teprve pak je smaže.
+ * <p>
+ * Při chybě (broker nedostupný, nack, timeout) zůstane dávka v tabulce a další pokus se
+ * odloží s exponenciálním backoffem. Doručení je at-least-once – po pádu mezi confirmem a
+ * smazáním se dávka pošle znovu; desktop klient duplicity zahodí podle id zprávy v payloadu.
+ * <p>
+ * Relay může běžet na více instancích: dávku si instance nejdřív zabere (claim_token a
+ * next_attempt_at posunutý o {@code chat.outbox.lease-ms}), ostatní ji do vypršení nevidí.
+ * Když instance spadne, dávku po vypršení zabere jiná.
+ */
+@Service
+public class OutboxRelayService {
+
+    private static final int ERROR_LENGTH = 500;
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final RabbitTemplate rabbitTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    private final int batchSize;
+    private final long pollIntervalMs;
+    private final long confirmTimeoutMs;
+    private final Duration lease;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final Thread relay;
+    private volatile boolean running = true;
+
+    private final Counter publishedCounter;
+    private final Counter failedCounter;
+    private final Timer batchTimer;
+    private final Timer lagTimer;
+
+    public OutboxRelayService(OutboxEventRepository outboxEventRepository,
+                              RabbitTemplate rabbitTemplate,
+                              TransactionTemplate transactionTemplate,
+                              MeterRegistry meterRegistry,
+                              @Value("${chat.outbox.enabled:true}") boolean enabled,
+                              @Value("${chat.outbox.batch-size:100}") int batchSize,
+                              @Value("${chat.outbox.poll-interval-ms:100}") long pollIntervalMs,
+                              @Value("${chat.outbox.confirm-timeout-ms:5000}") long confirmTimeoutMs,
+                              @Value("${chat.outbox.lease-ms:30000}") long leaseMs,
+                              @Value("${chat.outbox.initial-backoff-ms:1000}") long initialBackoffMs,
+                              @Value("${chat.outbox.max-backoff-ms:60000}") long maxBackoffMs) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.rabbitTemplate = rabbitTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.pollIntervalMs = pollIntervalMs;
+        this.confirmTimeoutMs = confirmTimeoutMs;
+        this.lease = Duration.ofMillis(Math.max(leaseMs, 2 * confirmTimeoutMs));
+        this.initialBackoff = Duration.ofMillis(initialBackoffMs);
+        this.maxBackoff = Duration.ofMillis(maxBackoffMs);
+
+        this.publishedCounter = Counter.builder("chat.outbox.published")
+                .description("Outbox events confirmed by the broker")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("chat.outbox.failed")
+                .description("Outbox events whose publish attempt failed and was rescheduled")
+                .register(meterRegistry);
+        this.batchTimer = Timer.builder("chat.outbox.batch")
+                .description("Time to publish one batch including publisher confirms")
+                .register(meterRegistry);
+        this.lagTimer = Timer.builder("chat.outbox.lag")
+                .description("Delay between writing an outbox event and its confirmed publish")
+                .register(meterRegistry);
+
+        if (enabled) {
+            relay = new Thread(this::relayLoop, "outbox-relay");
+            relay.setDaemon(true);
+            relay.start();
+        } else {
+            relay = null;
+        }
+    }
+
+    private void relayLoop() {
+        while (running) {
+            try {
+                // plná dávka = nejspíš čeká další, jinak počkat na nové události
+                if (relayBatch() < batchSize) Thread.sleep(pollIntervalMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                System.out.println("Outbox relay failed: " + e.getMessage());
+                try {
+                    Thread.sleep(initialBackoff.toMillis());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+
+    /** Jedna dávka; vrací počet odeslaných událostí (0 i při chybě publikace). */
+    int relayBatch() {
+        List<OutboxEvent> batch = claimBatch();
+        if (batch.isEmpty()) return 0;
+        List<Long> ids = batch.stream().map(OutboxEvent::getId).toList();
+        try {
+            batchTimer.record(() -> publish(batch));
+        } catch (RuntimeException e) {
+            int attempt = batch.stream().mapToInt(OutboxEvent::getAttempts).max().orElse(0) + 1;
+            Duration delay = backoff(attempt);
+            transactionTemplate.executeWithoutResult(tx ->
+                    outboxEventRepository.markFailed(ids, Instant.now().plus(delay), error(e)));
+            failedCounter.increment(batch.size());
+            System.out.println("Outbox publish of " + batch.size() + " events failed (attempt " + attempt +
+                    ", retry in " + delay.toMillis() + " ms): " + e.getMessage());
+            return 0;
+        }
+        transactionTemplate.executeWithoutResult(tx -> outboxEventRepository.deleteByIds(ids));
+        publishedCounter.increment(batch.size());
+        Instant now = Instant.now();
+        for (OutboxEvent event : batch) lagTimer.record(Duration.between(event.getCreatedAt(), now));
+        return batch.size();
+    }
+
+    // připravené řádky zabrané touto instancí (co mezitím vzala jiná, v dávce chybí)
+    private List<OutboxEvent> claimBatch() {
+        Instant now = Instant.now();
+        List<Long> ready = outboxEventRepository.findReady(now, PageRequest.of(0, batchSize)).stream()
+                .map(OutboxEvent::getId).toList();
+        if (ready.isEmpty()) return List.of();
+        String token = UUID.randomUUID().toString();
+        return transactionTemplate.execute(tx -> {
+            if (outboxEventRepository.claim(ready, token, now.plus(lease), now) == 0) return List.of();
+            return outboxEventRepository.findClaimed(token);
+        });
+    }
+
+    // celá dávka na jednom kanálu, jedno čekání na confirms (bez nich jen odeslání)
+    private void publish(List<OutboxEvent> batch) {
+        boolean confirms = rabbitTemplate.getConnectionFactory().isSimplePublisherConfirms();
+        rabbitTemplate.invoke(operations -> {
+            for (OutboxEvent event : batch) {
+                operations.send(event.getExchange(), event.getRoutingKey(), toAmqp(event));
+            }
+            if (confirms) operations.waitForConfirmsOrDie(confirmTimeoutMs);
+            return null;
+        });
+    }
+
+    // stejný tvar jako z Jackson2JsonMessageConverter, aby receiveAndConvert vrátil PayloadMessage
+    private static Message toAmqp(OutboxEvent event) {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        properties.setContentEncoding(StandardCharsets.UTF_8.name());
+        properties.setHeader("__TypeId__", event.getPayloadType());
+        properties.setMessageId("outbox-" + event.getId());
+        properties.setTimestamp(Date.from(event.getCreatedAt()));
+        return new Message(event.getPayload().getBytes(StandardCharsets.UTF_8), properties);
+    }
+
+    Duration backoff(int attempt) {
+        long factor = 1L << Math.min(attempt - 1, 20);
+        Duration delay = initialBackoff.multipliedBy(factor);
+        return delay.compareTo(maxBackoff) > 0 ? maxBackoff : delay;
+    }
+
+    private static String error(Exception e) {
+        String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        return message.length() <= ERROR_LENGTH ? message : message.substring(0, ERROR_LENGTH);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (relay == null) return;
+        relay.interrupt();
+        try {
+            relay.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
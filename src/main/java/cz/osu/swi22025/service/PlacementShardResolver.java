@@ -0,0 +1,45 @@
+package cz.osu.swi22025.service;
+
+import cz.osu.swi22025.model.RoomShardPlacement;
+import cz.osu.swi22025.model.RoomShardPlacementRepository;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Místnost podle chatId modulo počet shardů, pokud ji rebalancer nepřesunul jinam (tabulka room_shard);
+ * konverzace DM podle hashe conversation key. Umístění se drží v paměti – směrování nesmí
+ * sahat do DB, protože běží i uvnitř transakce shardu.
+ */
+@Service
+public class PlacementShardResolver implements ShardResolver {
+
+    private final RoomShardPlacementRepository placementRepository;
+    private volatile Map<Integer, Integer> placements = Map.of();
+
+    public PlacementShardResolver(RoomShardPlacementRepository placementRepository) {
+        this.placementRepository = placementRepository;
+    }
+
+    @Override
+    public int roomShard(Integer chatId, int shardCount) {
+        Integer placed = placements.get(chatId);
+        if (placed != null && placed < shardCount) return placed;
+        return Math.floorMod(chatId, shardCount);
+    }
+
+    @Override
+    public int conversationShard(String conversationKey, int shardCount) {
+        return Math.floorMod(conversationKey.hashCode(), shardCount);
+    }
+
+    @Override
+    public void reload() {
+        Map<Integer, Integer> loaded = new ConcurrentHashMap<>();
+        for (RoomShardPlacement placement : placementRepository.findAll()) {
+            loaded.put(placement.getChatId(), placement.getShard());
+        }
+        placements = loaded;
+    }
+}
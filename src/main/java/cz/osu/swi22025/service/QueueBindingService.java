@@ -0,0 +1,96 @@
+package cz.osu.swi22025.service;
+
+import cz.osu.swi22025.config.RabbitMQConfig;
+import cz.osu.swi22025.model.ChatRoomRepository;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.UUID;
+
+/**
+ * Fronty uživatelů a jejich vazby na topic exchange podle členství v místnostech.
+ * <p>
+ * Fronta {@code chatroom.queue.<userId>} má vazbu na vlastní DM klíč a na klíč každé místnosti,
+ * ve které je uživatel členem – zpráva se tedy kopíruje jen do front členů místnosti.
+ * Změny členství se na brokeru projeví až po commitu.
+ */
+@Service
+public class QueueBindingService {
+
+    private final RabbitAdmin rabbitAdmin;
+    private final RabbitMQConfig rabbitMQConfig;
+    private final ChatRoomRepository chatRoomRepository;
+
+    public QueueBindingService(RabbitAdmin rabbitAdmin,
+                               RabbitMQConfig rabbitMQConfig,
+                               ChatRoomRepository chatRoomRepository) {
+        this.rabbitAdmin = rabbitAdmin;
+        this.rabbitMQConfig = rabbitMQConfig;
+        this.chatRoomRepository = chatRoomRepository;
+    }
+
+    public static String queueName(UUID userId) {
+        return "chatroom.queue." + userId;
+    }
+
+    /**
+     * Založí frontu, pokud chybí, a (znovu) naváže DM klíč a všechny místnosti uživatele.
+     * Vrací true, když fronta chyběla (nový uživatel nebo vypršela po nečinnosti) – klient
+     * pak nemá souvislou frontu a musí se dorovnat z historie.
+     */
+    public boolean ensureUserQueue(UUID userId) {
+        if (userId == null) return false;
+
+        Queue queue = rabbitMQConfig.createUserQueue(userId.toString());
+        boolean created = rabbitAdmin.getQueueInfo(queue.getName()) == null;
+        if (created) {
+            rabbitAdmin.declareExchange(rabbitMQConfig.chatroomExchange());
+            rabbitAdmin.declareQueue(queue);
+        }
+        // deklarace vazby je idempotentní – dorovná i vazby, které chyběly (např. po přechodu z fanoutu)
+        bind(queue, RabbitMQConfig.userRoutingKey(userId));
+        for (Integer chatId : chatRoomRepository.findJoinedRoomIds(userId)) {
+            bind(queue, RabbitMQConfig.roomRoutingKey(chatId));
+        }
+        return created;
+    }
+
+    public void joinRoom(UUID userId, Integer chatId) {
+        afterCommit(() -> bind(rabbitMQConfig.createUserQueue(userId.toString()), RabbitMQConfig.roomRoutingKey(chatId)));
+    }
+
+    public void leaveRoom(UUID userId, Integer chatId) {
+        afterCommit(() -> rabbitAdmin.removeBinding(rabbitMQConfig.bindUserQueue(
+                rabbitMQConfig.createUserQueue(userId.toString()),
+                rabbitMQConfig.chatroomExchange(),
+                RabbitMQConfig.roomRoutingKey(chatId))));
+    }
+
+    private void bind(Queue queue, String routingKey) {
+        rabbitAdmin.declareBinding(rabbitMQConfig.bindUserQueue(queue, rabbitMQConfig.chatroomExchange(), routingKey));
+    }
+
+    // broker neumí transakci s DB – při rollbacku se vazba nemění; nedostupný broker nesmí shodit změnu členství
+    private static void afterCommit(Runnable action) {
+        Runnable safe = () -> {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                System.out.println("Queue binding update failed: " + e.getMessage());
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    safe.run();
+                }
+            });
+        } else {
+            safe.run();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package cz.osu.swi22025.service;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.GetResponse;
+import cz.osu.swi22025.model.json.PayloadMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.Connection;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Čtení fronty uživatele po dávkách (/api/queue).
+ * <p>
+ * Bez čekání se fronta vybere přes basic.get na jednom kanálu a potvrdí jedním ackem.
+ * S čekáním (long-poll) se na frontu zaregistruje consumer s prefetch = max. počet zpráv –
+ * nečinný klient tak jen drží consumer na brokeru, nic se nedotazuje. První doručená zpráva
+ * spustí krátký linger (dorazí-li další, jdou ve stejné odpovědi); dávka končí po
+ * {@code max} zprávách, {@code maxBytes} bajtech, lingeru nebo timeoutu.
+ * Přijaté zprávy se potvrdí jedním ackem, nadbytečné doručení se vrátí do fronty.
+ */
+@Service
+public class QueuePollService {
+
+    /** Zrušení čekající dávky (timeout / odpojený klient). */
+    public interface Poll {
+        void cancel();
+    }
+
+    private static final String ENCODING = "UTF-8";
+
+    private final RabbitTemplate rabbitTemplate;
+    private final MessageConverter messageConverter;
+    private final MessagePropertiesConverter propertiesConverter = new DefaultMessagePropertiesConverter();
+    private final ScheduledExecutorService scheduler;
+
+    private final int maxMessages;
+    private final long maxBytes;
+    private final long lingerMs;
+
+    private final AtomicInteger parked = new AtomicInteger();
+    private final DistributionSummary batchSize;
+    private final Counter timeouts;
+
+    public QueuePollService(RabbitTemplate rabbitTemplate,
+                            MeterRegistry meterRegistry,
+                            @Value("${chat.queue.poll.max-messages:100}") int maxMessages,
+                            @Value("${chat.queue.poll.max-bytes:262144}") long maxBytes,
+                            @Value("${chat.queue.poll.linger-ms:20}") long lingerMs) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.messageConverter = rabbitTemplate.getMessageConverter();
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.lingerMs = lingerMs;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "queue-poll-linger");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Gauge.builder("chat.queue.poll.parked", parked, AtomicInteger::get)
+                .description("Long-poll requests waiting for messages")
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("chat.queue.poll.batch")
+                .description("Messages returned per /api/queue response")
+                .register(meterRegistry);
+        this.timeouts = Counter.builder("chat.queue.poll.timeouts")
+                .description("Long-poll requests that ended without messages")
+                .register(meterRegistry);
+    }
+
+    /** Limit klienta omezený limitem serveru (null / nekladný = limit serveru). */
+    public int maxMessages(Integer requested) {
+        return requested == null || requested <= 0 ? maxMessages : Math.min(requested, maxMessages);
+    }
+
+    public long maxBytes(Long requested) {
+        return requested == null || requested <= 0 ? maxBytes : Math.min(requested, maxBytes);
+    }
+
+    /** Vybere, co je ve frontě teď (bez čekání). */
+    public List<PayloadMessage> drain(String queueName, int max, long bytes) {
+        List<PayloadMessage> received = rabbitTemplate.execute(channel -> {
+            List<PayloadMessage> batch = new ArrayList<>();
+            long size = 0;
+            long lastTag = -1;
+            while (batch.size() < max && size < bytes) {
+                GetResponse response = channel.basicGet(queueName, false);
+                if (response == null) break;
+                lastTag = response.getEnvelope().getDeliveryTag();
+                size += response.getBody().length;
+                add(batch, response.getEnvelope(), response.getProps(), response.getBody());
+            }
+            if (lastTag >= 0) channel.basicAck(lastTag, true);
+            return batch;
+        });
+        batchSize.record(received.size());
+        return received;
+    }
+
+    /**
+     * Počká na zprávy nejdéle {@code waitMs}; výsledek (i prázdný) předá {@code onResult}
+     * právě jednou – z vlákna brokeru, lingeru nebo {@link Poll#cancel()}.
+     */
+    public Poll await(String queueName, int max, long bytes, long waitMs, Consumer<List<PayloadMessage>> onResult) {
+        Connection connection = rabbitTemplate.getConnectionFactory().createConnection();
+        Channel channel = connection.createChannel(false);
+        LongPoll poll = new LongPoll(channel, max, bytes, onResult);
+        parked.incrementAndGet();
+        try {
+            channel.basicQos(max);
+            poll.consumerTag = channel.basicConsume(queueName, false, poll);
+        } catch (IOException | RuntimeException e) {
+            parked.decrementAndGet();
+            poll.close();
+            throw new IllegalStateException("Cannot consume from " + queueName, e);
+        }
+        poll.timeout = scheduler.schedule(poll::finish, waitMs, TimeUnit.MILLISECONDS);
+        return poll::finish;
+    }
+
+    private void add(List<PayloadMessage> batch, Envelope envelope, AMQP.BasicProperties props, byte[] body) {
+        Message message = new Message(body, propertiesConverter.toMessageProperties(props, envelope, ENCODING));
+        try {
+            if (messageConverter.fromMessage(message) instanceof PayloadMessage payload) batch.add(payload);
+        } catch (RuntimeException e) {
+            // nečitelná zpráva se potvrdí spolu s ostatními, jinak by blokovala frontu
+            System.out.println("Skipping unreadable queue message: " + e.getMessage());
+        }
+    }
+
+    private final class LongPoll extends DefaultConsumer {
+        private final int max;
+        private final long bytes;
+        private final Consumer<List<PayloadMessage>> onResult;
+        private final List<PayloadMessage> batch = new ArrayList<>();
+        private long size;
+        private long lastAcceptedTag = -1;
+        private boolean finished;
+        private volatile String consumerTag;
+        private volatile ScheduledFuture<?> timeout;
+        private ScheduledFuture<?> linger;
+
+        LongPoll(Channel channel, int max, long bytes, Consumer<List<PayloadMessage>> onResult) {
+            super(channel);
+            this.max = max;
+            this.bytes = bytes;
+            this.onResult = onResult;
+        }
+
+        @Override
+        public void handleDelivery(String tag, Envelope envelope, AMQP.BasicProperties props, byte[] body) {
+            boolean full;
+            synchronized (this) {
+                if (finished || batch.size() >= max || size >= bytes) {
+                    requeue(envelope.getDeliveryTag());
+                    return;
+                }
+                lastAcceptedTag = envelope.getDeliveryTag();
+                size += body.length;
+                add(batch, envelope, props, body);
+                full = batch.size() >= max || size >= bytes;
+                if (!full && linger == null) {
+                    linger = scheduler.schedule(this::finish, lingerMs, TimeUnit.MILLISECONDS);
+                }
+            }
+            if (full) finish();
+        }
+
+        // doručeno po uzavření dávky – zpět do fronty (zavřený kanál ji vrátí sám)
+        private void requeue(long deliveryTag) {
+            try {
+                if (getChannel().isOpen()) getChannel().basicNack(deliveryTag, false, true);
+            } catch (IOException | RuntimeException e) {
+                // kanál se zavírá, neackovaná zpráva se vrátí do fronty
+            }
+        }
+
+        @Override
+        public void handleCancel(String tag) {
+            finish(); // fronta smazána (např. x-expires)
+        }
+
+        void finish() {
+            List<PayloadMessage> result;
+            synchronized (this) {
+                if (finished) return;
+                finished = true;
+                result = List.copyOf(batch);
+            }
+            parked.decrementAndGet();
+            if (timeout != null) timeout.cancel(false);
+            if (linger != null) linger.cancel(false);
+            try {
+                if (consumerTag != null && getChannel().isOpen()) getChannel().basicCancel(consumerTag);
+                if (lastAcceptedTag >= 0) getChannel().basicAck(lastAcceptedTag, true);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Queue long-poll cleanup failed: " + e.getMessage());
+            } finally {
+                close();
+            }
+            batchSize.record(result.size());
+            if (result.isEmpty()) timeouts.increment();
+            onResult.accept(result);
+        }
+
+        void close() {
+            try {
+                getChannel().close();
+            } catch (Exception e) {
+                // kanál už je zavřený
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
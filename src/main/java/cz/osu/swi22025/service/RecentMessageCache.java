@@ -0,0 +1,282 @@
+package cz.osu.swi22025.service;
+
+import cz.osu.swi22025.model.json.PayloadMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Kruhový buffer posledních zpráv pro každou místnost.
+ * <p>
+ * Buffer drží souvislý úsek nejnovějších zpráv místnosti (seřazený podle serverového ID),
+ * takže nejnovější stránku i delta dotazy pollerů jde obsloužit bez DB. Zahřívá se při
+ * prvním čtení posledními zprávami z DB, pak ho krmí zápis. Když dotaz sahá za nejstarší
+ * zprávu v bufferu, vrátí se {@code null} a volající jde do DB.
+ * Buffer zná jen zprávy zapsané přes tento uzel.
+ */
+@Service
+public class RecentMessageCache {
+
+    /** Namapovaná zpráva; datum se převádí do zóny čtenáře až při čtení. */
+    public record CachedMessage(long serverId, Instant sendTime, PayloadMessage payload) {}
+
+    private static class RoomBuffer {
+        final int capacity;
+        final ArrayDeque<CachedMessage> entries;
+        boolean warm;
+        // buffer obsahuje celou místnost (nic se z něj zatím nevyhodilo a v DB nic staršího není)
+        boolean complete;
+        // něco už vypadlo kvůli kapacitě (i před zahřátím)
+        boolean evicted;
+
+        RoomBuffer(int capacity) {
+            this.capacity = capacity;
+            this.entries = new ArrayDeque<>(capacity);
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, RoomBuffer> rooms = new ConcurrentHashMap<>();
+    private final TimezoneService timezoneService;
+    private final boolean enabled;
+    private final int defaultCapacity;
+    private final Map<Integer, Integer> roomCapacities;
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    public RecentMessageCache(TimezoneService timezoneService,
+                              MeterRegistry meterRegistry,
+                              @Value("${chat.history-cache.enabled:true}") boolean enabled,
+                              @Value("${chat.history-cache.capacity:500}") int defaultCapacity,
+                              @Value("${chat.history-cache.room-capacities:}") String roomCapacities) {
+        this.timezoneService = timezoneService;
+        this.enabled = enabled;
+        this.defaultCapacity = defaultCapacity;
+        this.roomCapacities = parseRoomCapacities(roomCapacities);
+
+        this.hitCounter = Counter.builder("chat.history.cache")
+                .tag("result", "hit")
+                .description("History requests served from the in-memory ring buffer")
+                .register(meterRegistry);
+        this.missCounter = Counter.builder("chat.history.cache")
+                .tag("result", "miss")
+                .description("History requests that had to go to the database")
+                .register(meterRegistry);
+        Gauge.builder("chat.history.cache.size", rooms, RecentMessageCache::totalSize)
+                .description("Messages held in all room buffers")
+                .register(meterRegistry);
+    }
+
+    // formát: "1:2000,7:100" (místnost:kapacita)
+    private static Map<Integer, Integer> parseRoomCapacities(String value) {
+        Map<Integer, Integer> result = new HashMap<>();
+        if (value == null || value.isBlank()) return result;
+        for (String pair : value.split(",")) {
+            String[] parts = pair.trim().split(":");
+            if (parts.length != 2) continue;
+            try {
+                result.put(Integer.valueOf(parts[0].trim()), Integer.valueOf(parts[1].trim()));
+            } catch (NumberFormatException e) {
+                System.out.println("Ignoruji neplatnou kapacitu cache místnosti: " + pair);
+            }
+        }
+        return result;
+    }
+
+    private static double totalSize(Map<Integer, RoomBuffer> rooms) {
+        int total = 0;
+        for (RoomBuffer buffer : rooms.values()) {
+            synchronized (buffer) {
+                total += buffer.entries.size();
+            }
+        }
+        return total;
+    }
+
+    public int capacityFor(Integer roomId) {
+        return roomCapacities.getOrDefault(roomId, defaultCapacity);
+    }
+
+    public boolean isEnabled(Integer roomId) {
+        return enabled && capacityFor(roomId) > 0;
+    }
+
+    private RoomBuffer buffer(Integer roomId) {
+        return rooms.computeIfAbsent(roomId, id -> new RoomBuffer(capacityFor(id)));
+    }
+
+    public boolean isWarm(Integer roomId) {
+        if (!isEnabled(roomId)) return true; // vypnutá cache se nezahřívá
+        RoomBuffer buffer = buffer(roomId);
+        synchronized (buffer) {
+            return buffer.warm;
+        }
+    }
+
+    /**
+     * Naplní buffer nejnovějšími zprávami z DB (vzestupně). Zprávy připsané mezitím zápisem
+     * se zachovají. {@code complete} říká, že v DB nic staršího není.
+     */
+    public void warm(Integer roomId, List<CachedMessage> latestAscending, boolean complete) {
+        if (!isEnabled(roomId)) return;
+        RoomBuffer buffer = buffer(roomId);
+        synchronized (buffer) {
+            if (buffer.warm) return;
+            if (buffer.evicted) {
+                // zápisy před zahřátím už buffer zaplnily a jsou novější než cokoli z DB
+                buffer.complete = false;
+                buffer.warm = true;
+                return;
+            }
+            List<CachedMessage> appended = new ArrayList<>(buffer.entries);
+            buffer.entries.clear();
+            buffer.complete = complete;
+            for (CachedMessage m : latestAscending) insert(buffer, m);
+            for (CachedMessage m : appended) insert(buffer, m);
+            buffer.warm = true;
+        }
+    }
+
+    public void append(Integer roomId, CachedMessage message) {
+        if (!isEnabled(roomId)) return;
+        RoomBuffer buffer = buffer(roomId);
+        synchronized (buffer) {
+            insert(buffer, message);
+        }
+    }
+
+    // ID z generátoru rostou, takže skoro vždy jde o přidání na konec
+    private static void insert(RoomBuffer buffer, CachedMessage message) {
+        ArrayDeque<CachedMessage> entries = buffer.entries;
+        CachedMessage last = entries.peekLast();
+        if (last == null || last.serverId() < message.serverId()) {
+            entries.addLast(message);
+        } else {
+            List<CachedMessage> all = new ArrayList<>(entries);
+            int i = all.size();
+            while (i > 0 && all.get(i - 1).serverId() > message.serverId()) i--;
+            if (i > 0 && all.get(i - 1).serverId() == message.serverId()) return; // duplicita
+            all.add(i, message);
+            entries.clear();
+            entries.addAll(all);
+        }
+        while (entries.size() > buffer.capacity) {
+            entries.pollFirst();
+            buffer.complete = false;
+            buffer.evicted = true;
+        }
+    }
+
+    /**
+     * Nejnovějších {@code count} zpráv před kurzorem {@code before} (null = úplně nejnovější),
+     * vzestupně. Vrací null, když je buffer na odpověď krátký.
+     */
+    public List<CachedMessage> before(Integer roomId, Long before, int count) {
+        if (!isEnabled(roomId)) return null;
+        RoomBuffer buffer = buffer(roomId);
+        synchronized (buffer) {
+            if (!buffer.warm) return miss();
+            ArrayDeque<CachedMessage> result = new ArrayDeque<>(count);
+            Iterator<CachedMessage> it = buffer.entries.descendingIterator();
+            while (it.hasNext() && result.size() < count) {
+                CachedMessage m = it.next();
+                if (before == null || m.serverId() < before) result.addFirst(m);
+            }
+            if (result.size() < count && !buffer.complete) return miss();
+            hitCounter.increment();
+            return new ArrayList<>(result);
+        }
+    }
+
+    /** Prvních {@code count} zpráv za kurzorem {@code after}, vzestupně; null = buffer nestačí. */
+    public List<CachedMessage> after(Integer roomId, long after, int count) {
+        if (!isEnabled(roomId)) return null;
+        RoomBuffer buffer = buffer(roomId);
+        synchronized (buffer) {
+            if (!buffer.warm) return miss();
+            CachedMessage oldest = buffer.entries.peekFirst();
+            // mezi kurzorem a nejstarší zprávou v bufferu může něco chybět
+            if (!buffer.complete && (oldest == null || oldest.serverId() > after)) return miss();
+            List<CachedMessage> result = new ArrayList<>(count);
+            for (CachedMessage m : buffer.entries) {
+                if (m.serverId() <= after) continue;
+                result.add(m);
+                if (result.size() == count) break;
+            }
+            hitCounter.increment();
+            return result;
+        }
+    }
+
+    private List<CachedMessage> miss() {
+        missCounter.increment();
+        return null;
+    }
+
+    public void evict(Integer roomId) {
+        rooms.remove(roomId);
+    }
+
+    /**
+     * Změna avataru: přepíše URL ve zprávách odesílatele ve všech bufferech (DB cesta ho
+     * dostává joinem, buffer by jinak vracel avatar z doby odeslání). Payload se nemění
+     * na místě – zpráva může být ještě rozpracovaná jinde – nahradí se kopií.
+     */
+    public void updateSenderAvatar(String username, String avatarUrl) {
+        for (RoomBuffer buffer : rooms.values()) {
+            synchronized (buffer) {
+                if (buffer.entries.stream().noneMatch(m -> username.equalsIgnoreCase(m.payload().getSenderName()))) continue;
+                List<CachedMessage> all = new ArrayList<>(buffer.entries);
+                buffer.entries.clear();
+                for (CachedMessage m : all) {
+                    if (username.equalsIgnoreCase(m.payload().getSenderName())) {
+                        PayloadMessage payload = copy(m.payload());
+                        payload.setSenderAvatarUrl(avatarUrl);
+                        m = new CachedMessage(m.serverId(), m.sendTime(), payload);
+                    }
+                    buffer.entries.addLast(m);
+                }
+            }
+        }
+    }
+
+    /** Kopie uložené zprávy s datem v zóně čtenáře (buffer se nesmí měnit zvenku). */
+    public PayloadMessage toPayload(CachedMessage cached, String timezone) {
+        PayloadMessage p = copy(cached.payload());
+        p.setDate(timezoneService.convertToUserTimezone(cached.sendTime(), timezone));
+        return p;
+    }
+
+    private static PayloadMessage copy(PayloadMessage src) {
+        PayloadMessage p = new PayloadMessage();
+        p.setId(src.getId());
+        p.setSenderName(src.getSenderName());
+        p.setSenderAvatarUrl(src.getSenderAvatarUrl());
+        p.setReceiverChatRoomId(src.getReceiverChatRoomId());
+        p.setContent(src.getContent());
+        p.setMessageType(src.getMessageType());
+        p.setFileName(src.getFileName());
+        p.setFileUrl(src.getFileUrl());
+        p.setFileSize(src.getFileSize());
+        p.setMimeType(src.getMimeType());
+        return p;
+    }
+
+    public List<PayloadMessage> toPayloads(Collection<CachedMessage> cached, String timezone) {
+        List<PayloadMessage> result = new ArrayList<>(cached.size());
+        for (CachedMessage m : cached) result.add(toPayload(m, timezone));
+        return result;
+    }
+}
@@ -0,0 +1,362 @@
+package cz.osu.swi22025.service;
+
+import cz.osu.swi22025.model.ChatRoomRepository;
+import cz.osu.swi22025.model.DirectMessageRepository;
+import cz.osu.swi22025.model.MessageArchiveRepository;
+import cz.osu.swi22025.model.MessageRepository;
+import cz.osu.swi22025.model.UnreadCounterRepository;
+import cz.osu.swi22025.model.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Retence historie: mazání podle stáří a/nebo počtu zpráv.
+ * <p>
+ * Politiky se nastavují zvlášť pro místnosti (výchozí + přepisy po místnostech) a pro DM
+ * (max-count platí na jednu konverzaci). Maže se po dávkách {@code chat.retention.batch-size}
+ * řádků podle primárního klíče, každá dávka v krátké vlastní transakci a s pauzou mezi
+ * dávkami, takže horké tabulky nejsou nikdy zamčené dlouho. Archivní úseky se mažou celé,
+ * až je za hranicí celý jejich obsah; max-count se počítá nad živými řádky.
+ * <p>
+ * Nakonec (jen s {@code chat.retention.uploads.enabled}) smaže soubory v uploads/, na které už
+ * neodkazuje žádná zpráva, archiv ani avatar (jen starší než {@code chat.retention.uploads.grace}
+ * – upload předchází uložení zprávy).
+ */
+@Service
+public class RetentionService {
+
+    /** Prázdná hodnota = bez limitu. */
+    public record Policy(Duration maxAge, long maxCount) {
+        boolean isEmpty() {
+            return maxAge == null && maxCount <= 0;
+        }
+    }
+
+    private final MessageRepository messageRepository;
+    private final DirectMessageRepository directMessageRepository;
+    private final MessageArchiveRepository archiveRepository;
+    private final ChatRoomRepository chatRoomRepository;
+    private final UserRepository userRepository;
+    private final UnreadCounterRepository unreadCounterRepository;
+    private final MessageArchiveService messageArchiveService;
+    private final RecentMessageCache recentMessageCache;
+    private final FileService fileService;
+    private final TransactionTemplate transactionTemplate;
+
+    private final boolean enabled;
+    private final Policy defaultRoomPolicy;
+    private final Map<Integer, Duration> roomMaxAges;
+    private final Map<Integer, Long> roomMaxCounts;
+    private final Policy directPolicy;
+    private final int batchSize;
+    private final long batchPauseMs;
+    private final boolean uploadsEnabled;
+    private final Duration uploadsGrace;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong runDeleted = new AtomicLong();
+    private final AtomicLong lagSeconds = new AtomicLong();
+    private final AtomicLong backlogRows = new AtomicLong();
+    private volatile double lastRunRate;
+
+    private final MeterRegistry meterRegistry;
+    private final Timer runTimer;
+
+    public RetentionService(MessageRepository messageRepository,
+                            DirectMessageRepository directMessageRepository,
+                            MessageArchiveRepository archiveRepository,
+                            ChatRoomRepository chatRoomRepository,
+                            UserRepository userRepository,
+                            UnreadCounterRepository unreadCounterRepository,
+                            MessageArchiveService messageArchiveService,
+                            RecentMessageCache recentMessageCache,
+                            FileService fileService,
+                            TransactionTemplate transactionTemplate,
+                            MeterRegistry meterRegistry,
+                            @Value("${chat.retention.enabled:true}") boolean enabled,
+                            @Value("${chat.retention.room.max-age:}") String roomMaxAge,
+                            @Value("${chat.retention.room.max-count:0}") long roomMaxCount,
+                            @Value("${chat.retention.room.max-age-overrides:}") String roomMaxAgeOverrides,
+                            @Value("${chat.retention.room.max-count-overrides:}") String roomMaxCountOverrides,
+                            @Value("${chat.retention.direct.max-age:}") String directMaxAge,
+                            @Value("${chat.retention.direct.max-count:0}") long directMaxCount,
+                            @Value("${chat.retention.batch-size:500}") int batchSize,
+                            @Value("${chat.retention.batch-pause-ms:50}") long batchPauseMs,
+                            @Value("${chat.retention.uploads.enabled:false}") boolean uploadsEnabled,
+                            @Value("${chat.retention.uploads.grace:24h}") String uploadsGrace) {
+        this.messageRepository = messageRepository;
+        this.directMessageRepository = directMessageRepository;
+        this.archiveRepository = archiveRepository;
+        this.chatRoomRepository = chatRoomRepository;
+        this.userRepository = userRepository;
+        this.unreadCounterRepository = unreadCounterRepository;
+        this.messageArchiveService = messageArchiveService;
+        this.recentMessageCache = recentMessageCache;
+        this.fileService = fileService;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.defaultRoomPolicy = new Policy(parseDuration(roomMaxAge), roomMaxCount);
+        this.roomMaxAges = parseOverrides(roomMaxAgeOverrides, RetentionService::parseDuration);
+        this.roomMaxCounts = parseOverrides(roomMaxCountOverrides, Long::valueOf);
+        this.directPolicy = new Policy(parseDuration(directMaxAge), directMaxCount);
+        this.batchSize = batchSize;
+        this.batchPauseMs = batchPauseMs;
+        this.uploadsEnabled = uploadsEnabled;
+        this.uploadsGrace = parseDuration(uploadsGrace);
+
+        this.meterRegistry = meterRegistry;
+        this.runTimer = Timer.builder("chat.retention.run")
+                .description("Duration of one retention run")
+                .register(meterRegistry);
+        Gauge.builder("chat.retention.run.active", running, r -> r.get() ? 1 : 0)
+                .description("1 while a retention run is in progress")
+                .register(meterRegistry);
+        Gauge.builder("chat.retention.run.deleted", runDeleted, AtomicLong::get)
+                .description("Rows and files deleted by the current (or last) retention run")
+                .register(meterRegistry);
+        Gauge.builder("chat.retention.run.rate", this, s -> s.lastRunRate)
+                .description("Rows deleted per second during the last retention run")
+                .baseUnit("rows/s")
+                .register(meterRegistry);
+        Gauge.builder("chat.retention.lag", lagSeconds, AtomicLong::get)
+                .description("How far the oldest live message is past its max-age policy")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        Gauge.builder("chat.retention.backlog", backlogRows, AtomicLong::get)
+                .description("Live rows over max-count policies")
+                .register(meterRegistry);
+    }
+
+    private static Duration parseDuration(String value) {
+        return value == null || value.isBlank() ? null : DurationStyle.detectAndParse(value.trim());
+    }
+
+    // formát: "1:30d,7:90d" / "1:1000" (místnost:hodnota)
+    private static <T> Map<Integer, T> parseOverrides(String value, Function<String, T> parser) {
+        Map<Integer, T> result = new HashMap<>();
+        if (value == null || value.isBlank()) return result;
+        for (String pair : value.split(",")) {
+            String[] parts = pair.trim().split(":");
+            if (parts.length != 2) continue;
+            try {
+                result.put(Integer.valueOf(parts[0].trim()), parser.apply(parts[1].trim()));
+            } catch (RuntimeException e) {
+                System.out.println("Ignoruji neplatnou retenční politiku místnosti: " + pair);
+            }
+        }
+        return result;
+    }
+
+    public Policy policyForRoom(Integer chatId) {
+        return new Policy(roomMaxAges.getOrDefault(chatId, defaultRoomPolicy.maxAge()),
+                roomMaxCounts.getOrDefault(chatId, defaultRoomPolicy.maxCount()));
+    }
+
+    private void count(String target, long deleted) {
+        if (deleted <= 0) return;
+        Counter.builder("chat.retention.deleted")
+                .tag("target", target)
+                .description("Rows (or files) removed by retention")
+                .register(meterRegistry)
+                .increment(deleted);
+        runDeleted.addAndGet(deleted);
+    }
+
+    @Scheduled(cron = "${chat.retention.cron:0 15 * * * *}")
+    public void enforce() {
+        if (!enabled || !running.compareAndSet(false, true)) return;
+        long start = System.nanoTime();
+        runDeleted.set(0);
+        try {
+            measureLag();
+            for (Integer chatId : chatRoomRepository.findAllIds()) {
+                enforceRoom(chatId);
+            }
+            enforceDirect();
+            if (uploadsEnabled) {
+                count("upload", cleanUploads());
+            }
+            measureLag();
+        } finally {
+            long nanos = System.nanoTime() - start;
+            runTimer.record(Duration.ofNanos(nanos));
+            lastRunRate = runDeleted.get() / Math.max(nanos / 1e9, 0.001);
+            running.set(false);
+            if (runDeleted.get() > 0) {
+                System.out.println("Retence: smazáno " + runDeleted.get() + " řádků/souborů za " + nanos / 1_000_000 + " ms");
+            }
+        }
+    }
+
+    // ---------- místnosti ----------
+
+    private void enforceRoom(Integer chatId) {
+        Policy policy = policyForRoom(chatId);
+        if (policy.isEmpty()) return;
+        long cutoff = roomCutoff(chatId, policy);
+        if (cutoff <= 0) return;
+        long deleted = deleteInBatches(
+                () -> messageRepository.findServerIdsBefore(chatId, cutoff, PageRequest.of(0, batchSize)),
+                messageRepository::deleteByServerIds);
+        count("message", deleted);
+        count("archive", transactionTemplate.execute(tx -> archiveRepository.deleteRoomChunksBefore(chatId, cutoff)));
+        // ring buffer by jinak dál vracel smazané zprávy; znovu se zahřeje z DB
+        if (deleted > 0) recentMessageCache.evict(chatId);
+    }
+
+    // Vše se server_id pod hranicí se maže (0 = nic)
+    private long roomCutoff(Integer chatId, Policy policy) {
+        long cutoff = ageCutoff(policy);
+        if (policy.maxCount() > 0) {
+            List<Long> beyond = messageRepository.findServerIdsNewestFirst(chatId, PageRequest.of((int) policy.maxCount(), 1));
+            if (!beyond.isEmpty()) cutoff = Math.max(cutoff, beyond.get(0) + 1);
+        }
+        return cutoff;
+    }
+
+    private static long ageCutoff(Policy policy) {
+        return policy.maxAge() != null ? MessageIdGenerator.firstIdAt(Instant.now().minus(policy.maxAge())) : 0;
+    }
+
+    // ---------- DM ----------
+
+    private void enforceDirect() {
+        if (directPolicy.isEmpty()) return;
+        long ageCutoff = ageCutoff(directPolicy);
+        if (ageCutoff > 0) {
+            count("direct_message", deleteInBatches(
+                    () -> directMessageRepository.findServerIdsBefore(ageCutoff, PageRequest.of(0, batchSize)),
+                    this::deleteDirectMessages));
+            count("archive", transactionTemplate.execute(tx -> archiveRepository.deleteConversationChunksBefore(ageCutoff)));
+        }
+        if (directPolicy.maxCount() > 0) {
+            for (Object[] row : directMessageRepository.findConversationsLargerThan(directPolicy.maxCount())) {
+                String key = (String) row[0];
+                List<Long> beyond = directMessageRepository.findConversationServerIdsNewestFirst(
+                        key, PageRequest.of((int) directPolicy.maxCount(), 1));
+                if (beyond.isEmpty()) continue;
+                long cutoff = beyond.get(0) + 1;
+                count("direct_message", deleteInBatches(
+                        () -> directMessageRepository.findConversationServerIdsBefore(key, cutoff, PageRequest.of(0, batchSize)),
+                        this::deleteDirectMessages));
+                count("archive", transactionTemplate.execute(tx -> archiveRepository.deleteConversationChunksBefore(key, cutoff)));
+            }
+        }
+    }
+
+    // Smazané nepřečtené zprávy se odečtou z počítadel (jinak by badge nikdy nezmizel)
+    private int deleteDirectMessages(List<Long> serverIds) {
+        for (Object[] row : directMessageRepository.countUnreadByPairIn(serverIds)) {
+            unreadCounterRepository.decrement((UUID) row[0], (UUID) row[1], ((Number) row[2]).intValue());
+        }
+        return directMessageRepository.deleteByServerIds(serverIds);
+    }
+
+    // ---------- společné ----------
+
+    /** Maže po dávkách, dokud dotaz něco vrací; každá dávka je samostatná krátká transakce. */
+    private long deleteInBatches(Supplier<List<Long>> nextBatch, Function<List<Long>, Integer> delete) {
+        long total = 0;
+        while (true) {
+            int[] selected = new int[1];
+            Integer deleted = transactionTemplate.execute(tx -> {
+                List<Long> ids = nextBatch.get();
+                selected[0] = ids.size();
+                return ids.isEmpty() ? 0 : delete.apply(ids);
+            });
+            total += deleted != null ? deleted : 0;
+            if (selected[0] < batchSize) break;
+            pause();
+        }
+        return total;
+    }
+
+    private void pause() {
+        if (batchPauseMs <= 0) return;
+        try {
+            Thread.sleep(batchPauseMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Lag = jak daleko za max-age je nejstarší živá zpráva; backlog = řádky nad max-count
+    private void measureLag() {
+        long lag = 0;
+        long backlog = 0;
+        Instant now = Instant.now();
+        for (Integer chatId : chatRoomRepository.findAllIds()) {
+            Policy policy = policyForRoom(chatId);
+            if (policy.maxAge() != null) {
+                lag = Math.max(lag, lagOf(messageRepository.findMinServerIdInRoom(chatId), now, policy.maxAge()));
+            }
+            if (policy.maxCount() > 0) {
+                backlog += Math.max(0, messageRepository.countByChatRoom_ChatId(chatId) - policy.maxCount());
+            }
+        }
+        if (directPolicy.maxAge() != null) {
+            lag = Math.max(lag, lagOf(directMessageRepository.findMinServerId(), now, directPolicy.maxAge()));
+        }
+        if (directPolicy.maxCount() > 0) {
+            for (Object[] row : directMessageRepository.findConversationsLargerThan(directPolicy.maxCount())) {
+                backlog += ((Number) row[1]).longValue() - directPolicy.maxCount();
+            }
+        }
+        lagSeconds.set(lag);
+        backlogRows.set(backlog);
+    }
+
+    private static long lagOf(Long oldestServerId, Instant now, Duration maxAge) {
+        if (oldestServerId == null) return 0;
+        Instant expiresAt = MessageIdGenerator.timestampOf(oldestServerId).plus(maxAge);
+        return Math.max(0, Duration.between(expiresAt, now).getSeconds());
+    }
+
+    // ---------- uploady ----------
+
+    /** Smaže osiřelé soubory z uploads/; vrací počet smazaných. */
+    public int cleanUploads() {
+        Set<String> referenced = new HashSet<>();
+        referenced.addAll(messageRepository.findFileUrls());
+        referenced.addAll(directMessageRepository.findFileUrls());
+        referenced.addAll(userRepository.findUploadedAvatarUrls());
+        messageArchiveService.collectFileUrls(referenced);
+
+        Instant olderThan = Instant.now().minus(uploadsGrace != null ? uploadsGrace : Duration.ZERO);
+        int deleted = 0;
+        try {
+            for (Path file : fileService.listStoredFiles()) {
+                if (referenced.contains(fileService.urlOf(file))) continue;
+                if (Files.getLastModifiedTime(file).toInstant().isAfter(olderThan)) continue;
+                if (Files.deleteIfExists(file)) deleted++;
+            }
+        } catch (IOException e) {
+            System.out.println("Úklid uploadů selhal: " + e.getMessage());
+        }
+        return deleted;
+    }
+}
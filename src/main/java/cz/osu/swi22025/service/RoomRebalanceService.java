@@ -0,0 +1,80 @@
+package cz.osu.swi22025.service;
+
+import cz.osu.swi22025.model.RoomShardPlacement;
+import cz.osu.swi22025.model.RoomShardPlacementRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Offline přesun místnosti mezi shardy – do místnosti se během přesunu nesmí psát
+ * (spouští se při startu přes {@code chat.sharding.move-rooms}, než se pustí provoz).
+ * <p>
+ * Zprávy se zkopírují po dávkách na cílový shard (i s message_id – ta jsou unikátní napříč
+ * shardy), pak se přepne umístění v room_shard a teprve potom se smažou ze zdroje.
+ * Přerušený přesun lze bezpečně zopakovat: do přepnutí platí zdroj a rozkopírovaná data
+ * na cíli se při dalším pokusu zahodí.
+ */
+@Service
+public class RoomRebalanceService {
+
+    private final ShardService shardService;
+    private final RoomShardPlacementRepository placementRepository;
+    private final int batchSize;
+
+    public RoomRebalanceService(ShardService shardService,
+                                RoomShardPlacementRepository placementRepository,
+                                @Value("${chat.sharding.move-batch-size:1000}") int batchSize) {
+        this.shardService = shardService;
+        this.placementRepository = placementRepository;
+        this.batchSize = batchSize;
+    }
+
+    /** Přesune zprávy místnosti na {@code target}; vrací počet přesunutých zpráv. */
+    public int moveRoom(Integer chatId, int target) {
+        if (!shardService.isEnabled()) throw new IllegalStateException("Sharding is not configured");
+        if (target < 0 || target >= shardService.shardCount()) {
+            throw new IllegalArgumentException("Unknown shard " + target);
+        }
+        int source = shardService.roomShard(chatId);
+        if (source == target) return 0;
+
+        JdbcTemplate from = new JdbcTemplate(shardService.dataSource(source));
+        from.setMaxRows(batchSize);
+        JdbcTemplate to = new JdbcTemplate(shardService.dataSource(target));
+
+        to.update("DELETE FROM message WHERE chat_id = ?", chatId);
+        int moved = 0;
+        long cursor = Long.MIN_VALUE;
+        while (true) {
+            List<Map<String, Object>> rows = from.queryForList(
+                    "SELECT * FROM message WHERE chat_id = ? AND server_id > ? ORDER BY server_id", chatId, cursor);
+            if (rows.isEmpty()) break;
+            insertAll(to, rows);
+            moved += rows.size();
+            cursor = ((Number) rows.get(rows.size() - 1).get("server_id")).longValue();
+            if (rows.size() < batchSize) break;
+        }
+
+        placementRepository.save(new RoomShardPlacement(chatId, target));
+        shardService.reloadPlacements();
+        from.update("DELETE FROM message WHERE chat_id = ?", chatId);
+        System.out.println("Místnost " + chatId + " přesunuta ze shardu " + source + " na " + target + " (" + moved + " zpráv)");
+        return moved;
+    }
+
+    private static void insertAll(JdbcTemplate jdbcTemplate, List<Map<String, Object>> rows) {
+        List<String> columns = new ArrayList<>(rows.get(0).keySet());
+        List<Object[]> values = new ArrayList<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            values.add(columns.stream().map(row::get).toArray());
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO message (" + String.join(", ", columns) + ") VALUES (" +
+                String.join(", ", Collections.nCopies(columns.size(), "?")) + ")", values);
+    }
+}
@@ -0,0 +1,572 @@
+package cz.osu.swi22025.service;
+
+import cz.osu.swi22025.model.ChatUser;
+import cz.osu.swi22025.model.DirectMessageRepository;
+import cz.osu.swi22025.model.MessageRepository;
+import cz.osu.swi22025.model.MessageRow;
+import cz.osu.swi22025.model.SearchDocRow;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Fulltextový index historie místností a DM v paměti.
+ * <p>
+ * Invertovaný index: term → seřazené pole server_id. Text se tokenizuje na písmena/číslice,
+ * převádí na malá písmena a zbavuje diakritiky (NFD), takže "Příliš" najde i "prilis".
+ * Filtry jsou pomocné termy ({@code #room:1}, {@code #dm:<klíč>}, {@code #from:<jméno>},
+ * {@code #public}, {@code #dmuser:<id>}), takže se dotaz vyhodnotí jako průnik seznamů:
+ * prochází se nejkratší seznam od nejnovějšího ID a ostatní se ověřují binárním hledáním.
+ * DM se bez filtru konverzace vrací jen účastníkům ({@code #dmuser}).
+ * <p>
+ * Plní ho zápis zpráv (ChatController); nové dokumenty se periodicky zapisují na disk jako
+ * segmenty ({@code chat.search.index-dir}), které se při startu načtou a doplní z DB.
+ * Když segmenty neodpovídají DB (např. po create-drop), index se postaví znovu z DB a archivu.
+ * Výsledky se čtou z DB (nebo archivu) – smazané zprávy se tak přeskočí i bez úpravy indexu.
+ */
+@Service
+public class SearchIndexService {
+
+    /** Parametry hledání; null = bez filtru. {@code userId} je hledající (ACL pro DM). */
+    public record Query(String text, UUID userId, Integer chatId, String conversationKey, String sender,
+                        Long fromId, Long toId, Long before, int limit) {}
+
+    public record Result(List<MessageRow> rows, boolean hasMore) {}
+
+    private record IndexedDoc(long serverId, String[] terms) {}
+
+    // Seřazené server_id jednoho termu; zprávy chodí skoro vždy v pořadí, takže jde o append
+    private static final class Postings {
+        long[] ids = new long[4];
+        int size;
+
+        void append(long id) {
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+
+        void insert(long id) {
+            if (size == 0 || ids[size - 1] < id) {
+                append(id);
+                return;
+            }
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos >= 0) return; // duplicita
+            pos = -pos - 1;
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            ids[pos] = id;
+            size++;
+        }
+
+        // po hromadném plnění (rebuild, načtení segmentů) seřadí a odstraní duplicity
+        void sortAndDedupe() {
+            Arrays.sort(ids, 0, size);
+            int out = 0;
+            for (int i = 0; i < size; i++) {
+                if (out == 0 || ids[out - 1] != ids[i]) ids[out++] = ids[i];
+            }
+            size = out;
+        }
+
+        boolean contains(long id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+
+        // první pozice s hodnotou >= id
+        int lowerBound(long id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            return pos >= 0 ? pos : -pos - 1;
+        }
+    }
+
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int REBUILD_PAGE = 5000;
+    private static final String PUBLIC = "#public";
+
+    private final MessageRepository messageRepository;
+    private final DirectMessageRepository directMessageRepository;
+    private final MessageArchiveService messageArchiveService;
+
+    private final boolean enabled;
+    private final Path indexDir;
+    private final int maxSegments;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final HashMap<String, Postings> index = new HashMap<>();
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong maxIndexedId = new AtomicLong();
+    private volatile boolean ready;
+
+    // dokumenty ještě nezapsané do segmentu / přidané během načítání
+    private final List<IndexedDoc> pending = new ArrayList<>();
+    private final List<IndexedDoc> earlyDocs = new ArrayList<>();
+    private int nextSegment;
+
+    private final Timer queryTimer;
+
+    public SearchIndexService(MessageRepository messageRepository,
+                              DirectMessageRepository directMessageRepository,
+                              MessageArchiveService messageArchiveService,
+                              MeterRegistry meterRegistry,
+                              @Value("${chat.search.enabled:true}") boolean enabled,
+                              @Value("${chat.search.index-dir:search-index}") String indexDir,
+                              @Value("${chat.search.max-segments:10}") int maxSegments) {
+        this.messageRepository = messageRepository;
+        this.directMessageRepository = directMessageRepository;
+        this.messageArchiveService = messageArchiveService;
+        this.enabled = enabled;
+        this.indexDir = Paths.get(indexDir).toAbsolutePath().normalize();
+        this.maxSegments = maxSegments;
+
+        this.queryTimer = Timer.builder("chat.search.query")
+                .description("Full-text search latency (index lookup + row fetch)")
+                .register(meterRegistry);
+        Gauge.builder("chat.search.documents", documents, AtomicLong::get)
+                .description("Messages in the full-text index")
+                .register(meterRegistry);
+        Gauge.builder("chat.search.terms", this, s -> s.termCount())
+                .description("Distinct terms in the full-text index")
+                .register(meterRegistry);
+    }
+
+    // ---------- tokenizace ----------
+
+    /** Malá písmena bez diakritiky, rozdělené na písmena/číslice, bez duplicit. */
+    public static List<String> tokenize(String text) {
+        if (text == null || text.isBlank()) return List.of();
+        String folded = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        LinkedHashSet<String> tokens = new LinkedHashSet<>();
+        for (String token : NON_WORD.split(folded)) {
+            if (!token.isEmpty() && token.length() <= MAX_TERM_LENGTH) tokens.add(token);
+        }
+        return new ArrayList<>(tokens);
+    }
+
+    private static String[] termsOf(SearchDocRow doc) {
+        List<String> terms = new ArrayList<>(tokenize(doc.content()));
+        for (String token : tokenize(doc.fileName())) {
+            if (!terms.contains(token)) terms.add(token);
+        }
+        if (doc.senderName() != null) terms.add("#from:" + ChatUser.normalizeUsername(doc.senderName()));
+        if (doc.chatId() != null) {
+            terms.add(PUBLIC);
+            terms.add("#room:" + doc.chatId());
+        } else if (doc.conversationKey() != null) {
+            terms.add("#dm:" + doc.conversationKey());
+            for (String userId : doc.conversationKey().split(":")) terms.add("#dmuser:" + userId);
+        }
+        return terms.toArray(new String[0]);
+    }
+
+    // ---------- plnění ----------
+
+    /** Přidá novou zprávu (volá zápis). Před dokončením načítání se jen odloží. */
+    public void add(SearchDocRow doc) {
+        if (!enabled) return;
+        IndexedDoc indexed = new IndexedDoc(doc.serverId(), termsOf(doc));
+        lock.writeLock().lock();
+        try {
+            if (!ready) {
+                earlyDocs.add(indexed);
+                return;
+            }
+            addToIndex(indexed, false);
+            pending.add(indexed);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // volat pod zápisovým zámkem; bulk = jen append, seřadí se na konci (sortAll)
+    private void addToIndex(IndexedDoc doc, boolean bulk) {
+        for (String term : doc.terms()) {
+            Postings postings = index.computeIfAbsent(term, t -> new Postings());
+            if (bulk) postings.append(doc.serverId());
+            else postings.insert(doc.serverId());
+        }
+        documents.incrementAndGet();
+        maxIndexedId.accumulateAndGet(doc.serverId(), Math::max);
+    }
+
+    private void sortAll() {
+        index.values().forEach(Postings::sortAndDedupe);
+        Postings all = index.get(PUBLIC);
+        long rooms = all != null ? all.size : 0;
+        long direct = index.entrySet().stream()
+                .filter(e -> e.getKey().startsWith("#dm:"))
+                .mapToLong(e -> e.getValue().size)
+                .sum();
+        documents.set(rooms + direct);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!enabled) return;
+        long start = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            Files.createDirectories(indexDir);
+            List<Path> segments = listSegments();
+            for (Path segment : segments) {
+                readSegment(segment, doc -> addToIndex(doc, true));
+            }
+            sortAll();
+            nextSegment = segments.isEmpty() ? 0 : segmentNumber(segments.get(segments.size() - 1)) + 1;
+
+            if (!segments.isEmpty() && !newestIndexedExists()) {
+                System.out.println("Search index neodpovídá databázi, stavím znovu");
+                rebuildLocked();
+            } else if (segments.isEmpty()) {
+                rebuildLocked();
+            } else {
+                catchUpLocked();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Search index nelze načíst: " + e.getMessage());
+        } finally {
+            // i po chybě – jinak by se odložené zprávy hromadily navždy
+            for (IndexedDoc doc : earlyDocs) {
+                addToIndex(doc, false);
+                pending.add(doc);
+            }
+            earlyDocs.clear();
+            ready = true;
+            lock.writeLock().unlock();
+        }
+        flush();
+        System.out.println("Search index loaded: " + documents.get() + " messages in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private boolean newestIndexedExists() {
+        long newest = maxIndexedId.get();
+        return messageRepository.existsByServerId(newest)
+                || directMessageRepository.existsByServerId(newest)
+                || messageArchiveService.findRow(newest) != null;
+    }
+
+    // Doplní zprávy zapsané do DB po posledním segmentu
+    private void catchUpLocked() throws IOException {
+        long after = maxIndexedId.get();
+        forEachDbDoc(after, doc -> {
+            IndexedDoc indexed = new IndexedDoc(doc.serverId(), termsOf(doc));
+            addToIndex(indexed, true);
+            pending.add(indexed);
+        });
+        sortAll();
+    }
+
+    /** Zahodí index a segmenty a postaví vše znovu z DB a archivu. */
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            rebuildLocked();
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Rebuild search indexu selhal: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void rebuildLocked() throws IOException {
+        index.clear();
+        documents.set(0);
+        maxIndexedId.set(0);
+        pending.clear();
+        for (Path segment : listSegments()) Files.deleteIfExists(segment);
+
+        // segmenty se píšou průběžně, ať v paměti nevisí celý obsah DB
+        List<IndexedDoc> batch = new ArrayList<>();
+        Consumer<SearchDocRow> sink = doc -> {
+            IndexedDoc indexed = new IndexedDoc(doc.serverId(), termsOf(doc));
+            addToIndex(indexed, true);
+            batch.add(indexed);
+            if (batch.size() >= REBUILD_PAGE * 20) {
+                writeSegmentUnchecked(batch);
+                batch.clear();
+            }
+        };
+        messageArchiveService.forEachChunk((chunk, rows) -> {
+            for (MessageRow row : rows) {
+                sink.accept(new SearchDocRow(row.serverId(), chunk.getChatId(), chunk.getConversationKey(),
+                        row.senderName(), row.content(), row.fileName()));
+            }
+        });
+        forEachDbDoc(0, sink);
+        if (!batch.isEmpty()) writeSegment(batch);
+        sortAll();
+        mergeSegmentsIfNeeded();
+    }
+
+    private void forEachDbDoc(long after, Consumer<SearchDocRow> consumer) {
+        long cursor = after;
+        while (true) {
+            List<SearchDocRow> rows = firstPage(messageRepository.findSearchDocsAfter(cursor, PageRequest.of(0, REBUILD_PAGE)));
+            rows.forEach(consumer);
+            if (rows.size() < REBUILD_PAGE) break;
+            cursor = rows.get(rows.size() - 1).serverId();
+        }
+        cursor = after;
+        while (true) {
+            List<SearchDocRow> rows = firstPage(directMessageRepository.findSearchDocsAfter(cursor, PageRequest.of(0, REBUILD_PAGE)));
+            rows.forEach(consumer);
+            if (rows.size() < REBUILD_PAGE) break;
+            cursor = rows.get(rows.size() - 1).serverId();
+        }
+    }
+
+    // Se shardy přijde stránka z každého shardu – globálně prvních REBUILD_PAGE řádků je mezi nimi
+    private static List<SearchDocRow> firstPage(List<SearchDocRow> rows) {
+        List<SearchDocRow> sorted = new ArrayList<>(rows);
+        sorted.sort(Comparator.comparingLong(SearchDocRow::serverId));
+        return sorted.size() > REBUILD_PAGE ? sorted.subList(0, REBUILD_PAGE) : sorted;
+    }
+
+    // ---------- hledání ----------
+
+    public Result search(Query query) {
+        if (!enabled || !ready) return new Result(List.of(), false);
+        return queryTimer.record(() -> doSearch(query));
+    }
+
+    private Result doSearch(Query query) {
+        List<String> terms = new ArrayList<>(tokenize(query.text()));
+        if (terms.isEmpty()) return new Result(List.of(), false);
+        if (query.chatId() != null) terms.add("#room:" + query.chatId());
+        if (query.conversationKey() != null) terms.add("#dm:" + query.conversationKey());
+        if (query.sender() != null && !query.sender().isBlank()) {
+            terms.add("#from:" + ChatUser.normalizeUsername(query.sender().trim()));
+        }
+        boolean aclNeeded = query.chatId() == null && query.conversationKey() == null;
+
+        int need = query.limit() + 1;
+        long before = query.before() != null ? query.before() : Long.MAX_VALUE;
+        if (query.toId() != null) before = Math.min(before, query.toId());
+        long fromId = query.fromId() != null ? query.fromId() : Long.MIN_VALUE;
+
+        // zprávy smazané z DB (retence) v indexu zůstávají – dohledává se, dokud stránka není plná
+        List<MessageRow> rows = new ArrayList<>();
+        while (rows.size() < need) {
+            int want = need - rows.size();
+            List<Long> candidates = new ArrayList<>();
+            List<Boolean> isRoom = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                List<Postings> lists = new ArrayList<>();
+                for (String term : terms) {
+                    Postings postings = index.get(term);
+                    if (postings == null) return new Result(rows, false);
+                    lists.add(postings);
+                }
+                lists.sort(Comparator.comparingInt(p -> p.size));
+                Postings driver = lists.get(0);
+                Postings publicDocs = index.get(PUBLIC);
+                Postings myDirect = query.userId() != null ? index.get("#dmuser:" + query.userId()) : null;
+
+                for (int i = driver.lowerBound(before) - 1; i >= 0 && candidates.size() < want; i--) {
+                    long id = driver.ids[i];
+                    if (id < fromId) break;
+                    boolean match = true;
+                    for (int j = 1; j < lists.size() && match; j++) match = lists.get(j).contains(id);
+                    if (!match) continue;
+                    boolean room = publicDocs != null && publicDocs.contains(id);
+                    if (aclNeeded && !room && (myDirect == null || !myDirect.contains(id))) continue;
+                    candidates.add(id);
+                    isRoom.add(room);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (candidates.isEmpty()) break;
+            rows.addAll(fetchRows(candidates, isRoom));
+            if (candidates.size() < want) break; // index vyčerpán
+            before = candidates.get(candidates.size() - 1);
+        }
+
+        boolean hasMore = rows.size() > query.limit();
+        return new Result(hasMore ? rows.subList(0, query.limit()) : rows, hasMore);
+    }
+
+    // Řádky ve stejném pořadí jako kandidáti; co v DB není, se zkusí v archivu, jinak přeskočí
+    private List<MessageRow> fetchRows(List<Long> candidates, List<Boolean> isRoom) {
+        List<Long> roomIds = new ArrayList<>();
+        List<Long> directIds = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            (isRoom.get(i) ? roomIds : directIds).add(candidates.get(i));
+        }
+        Map<Long, MessageRow> found = new HashMap<>();
+        if (!roomIds.isEmpty()) messageRepository.findRowsByServerIds(roomIds).forEach(r -> found.put(r.serverId(), r));
+        if (!directIds.isEmpty()) directMessageRepository.findRowsByServerIds(directIds).forEach(r -> found.put(r.serverId(), r));
+
+        List<MessageRow> result = new ArrayList<>(candidates.size());
+        for (Long id : candidates) {
+            MessageRow row = found.get(id);
+            if (row == null && !messageArchiveService.isEmpty()) row = messageArchiveService.findRow(id);
+            if (row != null) result.add(row);
+        }
+        return result;
+    }
+
+    public long size() {
+        return documents.get();
+    }
+
+    private int termCount() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ---------- segmenty na disku ----------
+
+    /** Zapíše nové dokumenty jako další segment; při moc segmentech je sloučí do jednoho. */
+    @Scheduled(fixedDelayString = "${chat.search.flush-interval-ms:10000}")
+    public void flush() {
+        if (!enabled || !ready) return;
+        List<IndexedDoc> docs;
+        lock.writeLock().lock();
+        try {
+            if (pending.isEmpty()) return;
+            docs = new ArrayList<>(pending);
+            pending.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            synchronized (this) {
+                writeSegment(docs);
+                mergeSegmentsIfNeeded();
+            }
+        } catch (IOException e) {
+            System.out.println("Zápis segmentu search indexu selhal: " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private List<Path> listSegments() throws IOException {
+        if (!Files.isDirectory(indexDir)) return List.of();
+        try (var files = Files.list(indexDir)) {
+            return files.filter(p -> p.getFileName().toString().matches("segment-\\d+\\.seg"))
+                    .sorted(Comparator.comparingInt(SearchIndexService::segmentNumber))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static int segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring("segment-".length(), name.length() - ".seg".length()));
+    }
+
+    private synchronized Path writeSegment(List<IndexedDoc> docs) throws IOException {
+        Files.createDirectories(indexDir);
+        Path target = indexDir.resolve(String.format("segment-%06d.seg", nextSegment++));
+        Path tmp = indexDir.resolve(target.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+            for (IndexedDoc doc : docs) writeDoc(out, doc);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return target;
+    }
+
+    private void writeSegmentUnchecked(List<IndexedDoc> docs) {
+        try {
+            writeSegment(docs);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Sloučení proudově (segment po segmentu), bez načtení všeho do paměti
+    private synchronized void mergeSegmentsIfNeeded() throws IOException {
+        List<Path> segments = listSegments();
+        if (segments.size() <= maxSegments) return;
+        Path target = indexDir.resolve(String.format("segment-%06d.seg", nextSegment++));
+        Path tmp = indexDir.resolve(target.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+            for (Path segment : segments) {
+                readSegment(segment, doc -> {
+                    try {
+                        writeDoc(out, doc);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (Path segment : segments) Files.deleteIfExists(segment);
+    }
+
+    // Formát dokumentu: server_id, počet termů, termy (UTF)
+    private static void writeDoc(DataOutputStream out, IndexedDoc doc) throws IOException {
+        out.writeLong(doc.serverId());
+        out.writeShort(doc.terms().length);
+        for (String term : doc.terms()) out.writeUTF(term);
+    }
+
+    private static void readSegment(Path segment, Consumer<IndexedDoc> consumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(segment))))) {
+            while (true) {
+                long serverId;
+                try {
+                    serverId = in.readLong();
+                } catch (EOFException end) {
+                    break;
+                }
+                String[] terms = new String[in.readUnsignedShort()];
+                for (int i = 0; i < terms.length; i++) terms[i] = in.readUTF();
+                consumer.accept(new IndexedDoc(serverId, terms));
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package cz.osu.swi22025.service;
+
+/**
+ * Určuje shard zpráv (0 = primární DB, 1..N = {@code chat.sharding.shards}).
+ * Výchozí je {@link PlacementShardResolver}; jinou strategii stačí zaregistrovat jako @Primary bean.
+ */
+public interface ShardResolver {
+
+    int roomShard(Integer chatId, int shardCount);
+
+    int conversationShard(String conversationKey, int shardCount);
+
+    /** Znovu načte ruční umístění místností (volá rebalancer po přesunu). */
+    default void reload() {
+    }
+}
@@ -0,0 +1,115 @@
+package cz.osu.swi22025.service;
+
+import cz.osu.swi22025.config.ShardRoutingDataSource;
+import jakarta.persistence.EntityManagerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.function.Supplier;
+
+/**
+ * Spouštění práce na konkrétním shardu zpráv.
+ * <p>
+ * Shard se drží v ThreadLocal a čte ho {@link ShardRoutingDataSource} při získání spojení.
+ * Práce na shardu běží ve vlastní transakci s vlastním EntityManagerem – probíhající transakce
+ * (nebo EntityManager z open-in-view) drží spojení na primární DB, takže se odloží a po
+ * dokončení obnoví. Zápis na shard a navazující zápis na primární (souhrny, počítadla) tedy
+ * nejsou jedna transakce.
+ * <p>
+ * Bez {@code chat.sharding.shards} je jediný shard 0 a vše se volá přímo.
+ */
+@Service
+public class ShardService {
+
+    private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+
+    private final ShardRoutingDataSource routing;
+    private final ShardResolver resolver;
+    private final EntityManagerFactory entityManagerFactory;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate newTransactionTemplate;
+
+    public ShardService(DataSource dataSource,
+                        ShardResolver resolver,
+                        EntityManagerFactory entityManagerFactory,
+                        PlatformTransactionManager transactionManager) {
+        this.routing = dataSource instanceof ShardRoutingDataSource r ? r : null;
+        this.resolver = resolver;
+        this.entityManagerFactory = entityManagerFactory;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.newTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.newTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /** Shard, na který teď jdou spojení tohoto vlákna (null = primární DB). */
+    public static Integer currentShard() {
+        return CURRENT.get();
+    }
+
+    public boolean isEnabled() {
+        return routing != null;
+    }
+
+    public int shardCount() {
+        return routing != null ? routing.shardCount() : 1;
+    }
+
+    public int roomShard(Integer chatId) {
+        return isEnabled() ? resolver.roomShard(chatId, shardCount()) : 0;
+    }
+
+    public int conversationShard(String conversationKey) {
+        return isEnabled() ? resolver.conversationShard(conversationKey, shardCount()) : 0;
+    }
+
+    /** Datasource shardu bez směrování (pro přímé JDBC kopírování mezi shardy). */
+    public DataSource dataSource(int shard) {
+        if (routing == null) throw new IllegalStateException("Sharding is not configured");
+        return routing.shard(shard);
+    }
+
+    /** Spustí práci v transakci na daném shardu. */
+    public <T> T onShard(int shard, Supplier<T> work) {
+        Integer previous = CURRENT.get();
+        if (!isEnabled() || Integer.valueOf(shard).equals(previous)) return work.get();
+        CURRENT.set(shard);
+        try {
+            if (TransactionSynchronizationManager.isActualTransactionActive()) {
+                return newTransactionTemplate.execute(tx -> work.get());
+            }
+            // open-in-view: EntityManager requestu mohl už vzít spojení na primární
+            Object outer = TransactionSynchronizationManager.unbindResourceIfPossible(entityManagerFactory);
+            try {
+                return transactionTemplate.execute(tx -> work.get());
+            } finally {
+                if (outer != null) TransactionSynchronizationManager.bindResource(entityManagerFactory, outer);
+            }
+        } finally {
+            restore(previous);
+        }
+    }
+
+    /** Jen nastaví shard pro spojení získaná uvnitř (bez transakce – např. DDL přes Hibernate). */
+    public void withShardConnections(int shard, Runnable work) {
+        Integer previous = CURRENT.get();
+        CURRENT.set(shard);
+        try {
+            work.run();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    private static void restore(Integer previous) {
+        if (previous == null) CURRENT.remove();
+        else CURRENT.set(previous);
+    }
+
+    void reloadPlacements() {
+        resolver.reload();
+    }
+}
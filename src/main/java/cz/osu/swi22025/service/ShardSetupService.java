@@ -0,0 +1,201 @@
+package cz.osu.swi22025.service;
+
+import cz.osu.swi22025.config.ShardDataSourceConfig.HibernateMetadataHolder;
+import cz.osu.swi22025.model.ChatRoom;
+import cz.osu.swi22025.model.ChatUser;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.tool.schema.spi.SchemaManagementToolCoordinator;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Příprava shardů při startu (před spuštěním web serveru, tedy bez provozu):
+ * <ul>
+ *   <li>schéma podle {@code spring.jpa.hibernate.ddl-auto} stejně jako na primární,</li>
+ *   <li>sekvence ID zpráv posunuté o {@code chat.sharding.id-stride} na shard – message_id jsou
+ *       unikátní napříč shardy, takže přesun místnosti může řádky kopírovat i s ID. Kontroluje se
+ *       při každém startu (nejen při {@code create}); přetečení rozsahu shardu start zastaví,</li>
+ *   <li>kopie referenčních tabulek chat_user a chat_room (joiny a cizí klíče zpráv); změny se
+ *       dál kopírují po commitu přes {@link #referenceChanged(Object)},</li>
+ *   <li>přesuny místností z {@code chat.sharding.move-rooms} ({@link RoomRebalanceService}).</li>
+ * </ul>
+ */
+@Service
+public class ShardSetupService implements SmartInitializingSingleton {
+
+    private record ReferenceTable(String name, String idColumn) {}
+
+    private static final ReferenceTable USERS = new ReferenceTable("chat_user", "user_id");
+    private static final ReferenceTable ROOMS = new ReferenceTable("chat_room", "chat_id");
+    private static final List<String> MESSAGE_SEQUENCES = List.of("message_seq", "direct_message_seq");
+    private static final long ID_ALLOCATION = 50; // allocationSize výchozího generátoru (GenerationType.AUTO)
+
+    private final ShardService shardService;
+    private final ObjectProvider<HibernateMetadataHolder> metadataHolder;
+    private final RoomRebalanceService rebalanceService;
+    private final long idStride;
+    private final String moveRooms;
+
+    public ShardSetupService(ShardService shardService,
+                             ObjectProvider<HibernateMetadataHolder> metadataHolder,
+                             RoomRebalanceService rebalanceService,
+                             @Value("${chat.sharding.id-stride:100000000}") long idStride,
+                             @Value("${chat.sharding.move-rooms:}") String moveRooms) {
+        this.shardService = shardService;
+        this.metadataHolder = metadataHolder;
+        this.rebalanceService = rebalanceService;
+        this.idStride = idStride;
+        this.moveRooms = moveRooms;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!shardService.isEnabled()) return;
+        HibernateMetadataHolder hibernate = metadataHolder.getObject();
+        alignSequences(0, hibernate);
+        for (int shard = 1; shard < shardService.shardCount(); shard++) {
+            createSchema(shard, hibernate);
+            alignSequences(shard, hibernate);
+            copyReferenceTable(USERS, shard);
+            copyReferenceTable(ROOMS, shard);
+        }
+        shardService.reloadPlacements();
+        System.out.println("Shardy zpráv připraveny: " + shardService.shardCount() + " (včetně primární)");
+        moveConfiguredRooms();
+    }
+
+    // Stejná akce jako na primární (hibernate.hbm2ddl.auto z konfigurace), jen spojení vedou na shard.
+    // Smazání schématu při ukončení (create-drop) se na shardech nedělá.
+    private void createSchema(int shard, HibernateMetadataHolder hibernate) {
+        shardService.withShardConnections(shard, () -> SchemaManagementToolCoordinator.process(
+                hibernate.getMetadata(),
+                hibernate.getSessionFactory().getServiceRegistry(),
+                new HashMap<>(hibernate.getSessionFactory().getProperties()),
+                action -> { }));
+    }
+
+    // Sekvence se čte (spotřebuje jednu hodnotu – mezera v ID nevadí) a když je pod rozsahem
+    // shardu, posune se na jeho začátek. Hibernate (pooled optimizer) bere hodnotu sekvence jako
+    // horní mez bloku ID_ALLOCATION čísel, proto začátek + ID_ALLOCATION - 1.
+    private void alignSequences(int shard, HibernateMetadataHolder hibernate) {
+        Dialect dialect = hibernate.getSessionFactory().getJdbcServices().getDialect();
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(shardService.dataSource(shard));
+        long low = shard * idStride + 1;
+        long high = (shard + 1) * idStride;
+        for (String sequence : MESSAGE_SEQUENCES) {
+            Long next = jdbcTemplate.queryForObject(
+                    dialect.getSequenceSupport().getSequenceNextValString(sequence), Long.class);
+            if (next == null || next < low) {
+                jdbcTemplate.execute("ALTER SEQUENCE " + sequence + " RESTART WITH " + (low + ID_ALLOCATION - 1));
+                System.out.println("Sekvence " + sequence + " na shardu " + shard + " posunuta na " + low);
+            } else if (next > high) {
+                throw new IllegalStateException("Sekvence " + sequence + " na shardu " + shard + " je mimo rozsah "
+                        + low + ".." + high + " (hodnota " + next + ") – zvyšte chat.sharding.id-stride");
+            }
+        }
+    }
+
+    private void copyReferenceTable(ReferenceTable table, int shard) {
+        JdbcTemplate primary = new JdbcTemplate(shardService.dataSource(0));
+        JdbcTemplate target = new JdbcTemplate(shardService.dataSource(shard));
+        for (Map<String, Object> row : primary.queryForList("SELECT * FROM " + table.name())) {
+            upsert(target, table, row);
+        }
+    }
+
+    /** Změněný uživatel / místnost – po commitu se řádek zkopíruje na všechny shardy. */
+    public void referenceChanged(Object entity) {
+        if (!shardService.isEnabled()) return;
+        ReferenceTable table;
+        Object id;
+        if (entity instanceof ChatUser user) {
+            table = USERS;
+            id = user.getUserId();
+        } else if (entity instanceof ChatRoom room) {
+            table = ROOMS;
+            id = room.getChatId();
+        } else {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    copyRow(table, id);
+                }
+            });
+        } else {
+            copyRow(table, id);
+        }
+    }
+
+    private void copyRow(ReferenceTable table, Object id) {
+        Map<String, Object> row;
+        try {
+            row = new JdbcTemplate(shardService.dataSource(0)).queryForMap(
+                    "SELECT * FROM " + table.name() + " WHERE " + table.idColumn() + " = ?", id);
+        } catch (EmptyResultDataAccessException e) {
+            return;
+        }
+        for (int shard = 1; shard < shardService.shardCount(); shard++) {
+            try {
+                upsert(new JdbcTemplate(shardService.dataSource(shard)), table, row);
+            } catch (RuntimeException e) {
+                System.out.println("Kopie " + table.name() + " " + id + " na shard " + shard + " selhala: " + e.getMessage());
+            }
+        }
+    }
+
+    // UPDATE, a když řádek ještě není, INSERT (přenositelné mezi H2 a PostgreSQL)
+    private static void upsert(JdbcTemplate jdbcTemplate, ReferenceTable table, Map<String, Object> row) {
+        List<String> columns = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        Object id = null;
+        for (Map.Entry<String, Object> column : row.entrySet()) {
+            if (column.getKey().equalsIgnoreCase(table.idColumn())) {
+                id = column.getValue();
+            } else {
+                columns.add(column.getKey());
+                values.add(column.getValue());
+            }
+        }
+        List<Object> updateArgs = new ArrayList<>(values);
+        updateArgs.add(id);
+        int updated = jdbcTemplate.update("UPDATE " + table.name() + " SET " + String.join(" = ?, ", columns) +
+                " = ? WHERE " + table.idColumn() + " = ?", updateArgs.toArray());
+        if (updated == 0) {
+            insert(jdbcTemplate, table.name(), row);
+        }
+    }
+
+    private static void insert(JdbcTemplate jdbcTemplate, String table, Map<String, Object> row) {
+        jdbcTemplate.update("INSERT INTO " + table + " (" + String.join(", ", row.keySet()) + ") VALUES (" +
+                String.join(", ", Collections.nCopies(row.size(), "?")) + ")", row.values().toArray());
+    }
+
+    // formát: "12:2,15:1" (místnost:cílový shard)
+    private void moveConfiguredRooms() {
+        if (moveRooms == null || moveRooms.isBlank()) return;
+        for (String pair : moveRooms.split(",")) {
+            String[] parts = pair.trim().split(":");
+            if (parts.length != 2) continue;
+            try {
+                rebalanceService.moveRoom(Integer.valueOf(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+            } catch (RuntimeException e) {
+                System.out.println("Přesun místnosti " + pair + " selhal: " + e.getMessage());
+            }
+        }
+    }
+}
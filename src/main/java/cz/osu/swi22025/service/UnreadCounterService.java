@@ -0,0 +1,103 @@
+package cz.osu.swi22025.service;
+
+import cz.osu.swi22025.model.ChatUser;
+import cz.osu.swi22025.model.DirectMessage;
+import cz.osu.swi22025.model.DirectMessageRepository;
+import cz.osu.swi22025.model.UnreadCounterId;
+import cz.osu.swi22025.model.UnreadCounterRepository;
+import cz.osu.swi22025.model.json.UnreadCounts;
+import lombok.AllArgsConstructor;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Materializované počty nepřečtených DM po dvojicích (příjemce, odesílatel).
+ * Badge se pak čte jedním dotazem o velikosti O(peerů), ne O(nepřečtených zpráv).
+ */
+@Service
+@AllArgsConstructor
+public class UnreadCounterService {
+
+    private final UnreadCounterRepository unreadCounterRepository;
+    private final DirectMessageRepository directMessageRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final NotificationService notificationService;
+
+    /**
+     * Založí řádek počítadla (s nulou), pokud ještě není. Volá se před transakcí zápisu DM,
+     * aby v ní stačil UPDATE a souběžné založení stejného řádku ji neshodilo.
+     */
+    public void ensureCounter(UUID receiverId, UUID senderId) {
+        if (unreadCounterRepository.existsById(new UnreadCounterId(receiverId, senderId))) return;
+        try {
+            transactionTemplate.executeWithoutResult(tx -> unreadCounterRepository.insert(receiverId, senderId, 0));
+        } catch (DataIntegrityViolationException e) {
+            // řádek mezitím založil souběžný zápis
+        }
+    }
+
+    /** Zvýší počítadlo v transakci volajícího – commitne se spolu s DM (ChatMessageService). */
+    public void incrementInTransaction(UUID receiverId, UUID senderId) {
+        if (unreadCounterRepository.increment(receiverId, senderId) == 0) {
+            // ensureCounter neproběhl (nebo řádek mezitím zmizel)
+            unreadCounterRepository.insert(receiverId, senderId, 1);
+        }
+    }
+
+    /**
+     * Označí za přečtené všechny DM příjemce – jeden UPDATE na konverzaci a počítadlo se sníží
+     * o skutečně označené řádky. Vynulování by smazalo i +1 od DM commitnutých po UPDATE.
+     */
+    public int markAllRead(ChatUser receiver) {
+        int read = transactionTemplate.execute(tx -> {
+            int marked = 0;
+            for (ChatUser sender : directMessageRepository.findUnreadSenders(receiver)) {
+                marked += markConversation(receiver, sender, null);
+            }
+            return marked;
+        });
+        if (read > 0) pushCounts(receiver);
+        return read;
+    }
+
+    /**
+     * Označí za přečtené zprávy od {@code sender} v jedné konverzaci, volitelně jen do
+     * {@code upTo} (server_id) včetně. Jeden UPDATE nad zprávami + úprava počítadla.
+     */
+    public int markConversationRead(ChatUser receiver, ChatUser sender, Long upTo) {
+        int read = transactionTemplate.execute(tx -> markConversation(receiver, sender, upTo));
+        if (read > 0) pushCounts(receiver);
+        return read;
+    }
+
+    private int markConversation(ChatUser receiver, ChatUser sender, Long upTo) {
+        String key = DirectMessage.conversationKey(receiver.getUserId(), sender.getUserId());
+        int marked = upTo == null
+                ? directMessageRepository.markConversationRead(key, sender)
+                : directMessageRepository.markConversationReadUpTo(key, sender, upTo);
+        if (marked > 0) unreadCounterRepository.decrement(receiver.getUserId(), sender.getUserId(), marked);
+        return marked;
+    }
+
+    // nový stav jde příjemci přes SSE i STOMP (volat až po commitu); offline příjemci se nepočítá
+    public void pushCounts(ChatUser receiver) {
+        if (!notificationService.isListeningForUnread(receiver)) return;
+        notificationService.notifyUnreadCounts(receiver, countsFor(receiver.getUserId()));
+    }
+
+    public UnreadCounts countsFor(UUID receiverId) {
+        Map<String, Integer> bySender = new LinkedHashMap<>();
+        int total = 0;
+        for (Object[] row : unreadCounterRepository.findCountsBySender(receiverId)) {
+            int count = ((Number) row[1]).intValue();
+            bySender.put((String) row[0], count);
+            total += count;
+        }
+        return new UnreadCounts(total, bySender);
+    }
+}
@@ -0,0 +1,61 @@
+package cz.osu.swi22025.service;
+
+import cz.osu.swi22025.model.UserRepository;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Adresář uživatelských jmen v paměti pro hledání podle prefixu.
+ * <p>
+ * Seřazená mapa (lowercase jméno → jméno) – prefix je souvislý úsek mapy, takže
+ * dotaz stojí O(log n + limit) bez ohledu na počet uživatelů. Plní se po startu z DB
+ * a doplňuje při registraci; jména jsou unikátní bez ohledu na velikost písmen.
+ */
+@Service
+public class UserDirectoryService {
+
+    private final UserRepository userRepository;
+    private final ConcurrentSkipListMap<String, String> usernames = new ConcurrentSkipListMap<>();
+
+    public UserDirectoryService(UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        for (String username : userRepository.findAllUsernames()) add(username);
+        System.out.println("User directory loaded: " + usernames.size() + " users");
+    }
+
+    public void add(String username) {
+        if (username == null || username.isBlank()) return;
+        usernames.put(key(username), username);
+    }
+
+    public List<String> search(String prefix, int limit, String exclude) {
+        String from = key(prefix == null ? "" : prefix.trim());
+        String excludeKey = exclude != null ? key(exclude) : null;
+
+        List<String> result = new ArrayList<>(Math.min(limit, 64));
+        for (var entry : usernames.tailMap(from, true).entrySet()) {
+            if (!entry.getKey().startsWith(from) || result.size() >= limit) break;
+            if (entry.getKey().equals(excludeKey)) continue;
+            result.add(entry.getValue());
+        }
+        return result;
+    }
+
+    public int size() {
+        return usernames.size();
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
@@ -1,15 +1,13 @@
 package cz.osu.swi22025.service;
 
-import cz.osu.swi22025.config.RabbitMQConfig;
 import cz.osu.swi22025.model.ChatRoomRepository;
 import cz.osu.swi22025.model.UserRepository;
 import cz.osu.swi22025.model.MessageRepository;
+import cz.osu.swi22025.model.ChatRoom;
 import cz.osu.swi22025.model.ChatUser;
 import cz.osu.swi22025.model.json.SignupForm;
 import cz.osu.swi22025.model.json.UserToken;
 import lombok.AllArgsConstructor;
-import org.springframework.amqp.core.Queue;
-import org.springframework.amqp.rabbit.core.RabbitAdmin;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -28,8 +26,10 @@ public class UserService {
     private final UserRepository userRepository;
     private final ChatRoomRepository chatRoomRepository;
     private final MessageRepository messageRepository; // (teď nevyužito, nechávám)
-    private final RabbitMQConfig rabbitMQConfig;
-    private final RabbitAdmin rabbitAdmin;
+    private final QueueBindingService queueBindingService;
+    private final UserDirectoryService userDirectoryService;
+    private final EntityCacheService entityCacheService;
+    private final NotificationService notificationService;
 
     // musí odpovídat souborům v src/main/resources/static/avatars
     private static final Set<String> ALLOWED_AVATARS = Set.of(
@@ -58,11 +58,15 @@ public class UserService {
             user.setPassword(password);
             // Password encryption (BCrypt, salt, ...)
 
-            user.addRoom(chatRoomRepository.findByChatNameIgnoreCase("Public"));
+            ChatRoom publicRoom = chatRoomRepository.findByChatNameIgnoreCase("Public");
+            user.addRoom(publicRoom);
             ChatUser savedUser = userRepository.save(user);
+            // členy místnosti v L2 cache musíme vyhodit ručně (inverzní strana vazby)
+            entityCacheService.evictRoomMembers(publicRoom.getChatId());
+            userDirectoryService.add(savedUser.getUsername());
 
-            // ✅ zajisti queue i binding
-            ensureUserQueue(savedUser.getUserId());
+            // ✅ zajisti queue i binding (DM + Public)
+            queueBindingService.ensureUserQueue(savedUser.getUserId());
 
             return new ResponseEntity<>("User registered successfully", HttpStatus.OK);
 
@@ -92,10 +96,11 @@ public class UserService {
                 return new ResponseEntity<>("Invalid username or password", HttpStatus.UNAUTHORIZED);
             }
 
-            // ✅ při loginu taky zajisti queue
-            ensureUserQueue(user.getUserId());
+            // ✅ při loginu taky zajisti queue a vazby na místnosti (vypršelou založí znovu)
+            boolean queueRecreated = queueBindingService.ensureUserQueue(user.getUserId());
 
             UserToken userToken = new UserToken(user.getUserId(), user.getUsername());
+            userToken.setResyncRequired(queueRecreated);
             return new ResponseEntity<>(userToken, HttpStatus.OK);
 
         } catch (Exception e) {
@@ -103,23 +108,6 @@ public class UserService {
         }
     }
 
-    private void ensureUserQueue(UUID userId) {
-        if (userId == null) return;
-
-        String queueName = "chatroom.queue." + userId;
-
-        // pokud neexistuje, vytvoř + bindni na exchange
-        if (rabbitAdmin.getQueueInfo(queueName) == null) {
-            Queue q = rabbitMQConfig.createUserQueue(userId.toString());
-
-            rabbitAdmin.declareExchange(rabbitMQConfig.chatroomExchange());
-            rabbitAdmin.declareQueue(q);
-            rabbitAdmin.declareBinding(
-                    rabbitMQConfig.bindUserQueue(q, rabbitMQConfig.chatroomExchange())
-            );
-        }
-    }
-
     public UserProfileDto getProfileByUsername(String username) {
         ChatUser user = userRepository.findByUsernameIgnoreCase(username)
                 .orElseThrow(() -> new ResponseStatusException(NOT_FOUND, "User not found"));
@@ -157,6 +145,7 @@ public class UserService {
 
         user.setAvatarUrl("/avatars/" + avatarFile);
         ChatUser saved = userRepository.save(user);
+        notificationService.notifyAvatarChanged(saved.getUsername(), saved.getAvatarUrl());
 
         return new UserProfileDto(saved.getUsername(), saved.getAvatarUrl());
     }
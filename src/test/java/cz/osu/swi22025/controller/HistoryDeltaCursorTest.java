@@ -0,0 +1,71 @@
+package cz.osu.swi22025.controller;
+
+import cz.osu.swi22025.model.*;
+import cz.osu.swi22025.model.json.HistoryPage;
+import cz.osu.swi22025.model.json.PayloadMessage;
+import cz.osu.swi22025.service.MessageIdGenerator;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.ResponseEntity;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Zpráva s nižším server_id commitnutá až po vyšší nesmí pollerovi propadnout za kurzor
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:historydelta",
+        "chat.history-cache.enabled=false",
+        "chat.outbox.enabled=false",
+        "chat.history.commit-lag-ms=300"
+})
+class HistoryDeltaCursorTest {
+
+    @Autowired private ChatController chatController;
+    @Autowired private UserRepository userRepository;
+    @Autowired private ChatRoomRepository chatRoomRepository;
+    @Autowired private MessageRepository messageRepository;
+    @Autowired private MessageIdGenerator messageIdGenerator;
+
+    private void save(ChatRoom room, ChatUser author, long serverId, String content) {
+        Message m = new Message();
+        m.setServerId(serverId);
+        m.setChatRoom(room);
+        m.setChatUser(author);
+        m.setContent(content);
+        m.setSendTime(new Date());
+        messageRepository.save(m);
+    }
+
+    @Test
+    void lateCommitWithLowerIdReachesPoller() throws InterruptedException {
+        ChatUser author = new ChatUser();
+        author.setUsername("deltaauthor");
+        author.setPassword("pw");
+        author = userRepository.save(author);
+        ChatRoom room = new ChatRoom();
+        room.setChatName("delta");
+        room = chatRoomRepository.save(room);
+        String roomId = String.valueOf(room.getChatId());
+
+        save(room, author, messageIdGenerator.nextId(), "seen");
+        Thread.sleep(400);
+        HistoryPage first = chatController.getHistorySince(roomId, null, null, null).getBody();
+        long cursor = Long.parseLong(first.getNewestId());
+
+        long lateId = messageIdGenerator.nextId();          // writer A: ID přidělené, ještě necommitnuto
+        save(room, author, messageIdGenerator.nextId(), "early");  // writer B commitne dřív
+        ResponseEntity<HistoryPage> beforeA = chatController.getHistorySince(roomId, null, cursor, null);
+        assertEquals(204, beforeA.getStatusCode().value());  // B je v okně commitu, kurzor se nehne
+
+        save(room, author, lateId, "late");
+        Thread.sleep(400);
+        HistoryPage afterA = chatController.getHistorySince(roomId, null, cursor, null).getBody();
+        List<String> contents = afterA.getMessages().stream().map(PayloadMessage::getContent).toList();
+        assertEquals(List.of("late", "early"), contents);
+        assertTrue(Long.parseLong(afterA.getNewestId()) > lateId);
+    }
+}
@@ -0,0 +1,129 @@
+package cz.osu.swi22025.controller;
+
+import cz.osu.swi22025.model.*;
+import cz.osu.swi22025.model.json.HistoryPage;
+import cz.osu.swi22025.model.json.PayloadMessage;
+import cz.osu.swi22025.service.MessageIdGenerator;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Historie se mapuje z projekcí: počet SQL nesmí růst s počtem řádků ani autorů
+// (L2 cache je vypnutá, jinak by počty závisely na pořadí testů; relay outboxu taky –
+// jeho dotazy z vlákna na pozadí by se připočítaly do statistik; okno commitu je nulové, data
+// vznikají těsně před dotazy)
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:historyquerycount",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+        "spring.jpa.properties.hibernate.cache.use_query_cache=false",
+        "chat.history-cache.enabled=false",
+        "chat.outbox.enabled=false",
+        "chat.history.commit-lag-ms=0"
+})
+class HistoryQueryCountTest {
+
+    private static final int USERS = 5;
+    private static final int MESSAGES_PER_USER = 4;
+
+    @Autowired private ChatController chatController;
+    @Autowired private UserRepository userRepository;
+    @Autowired private ChatRoomRepository chatRoomRepository;
+    @Autowired private MessageRepository messageRepository;
+    @Autowired private DirectMessageRepository directMessageRepository;
+    @Autowired private MessageIdGenerator messageIdGenerator;
+    @Autowired private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+    private String roomId;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        ChatRoom room = chatRoomRepository.findAll().iterator().next();
+        roomId = String.valueOf(room.getChatId());
+        if (userRepository.count() > 0) return;
+
+        List<ChatUser> users = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            ChatUser user = new ChatUser();
+            user.setUsername("user" + i);
+            user.setPassword("pw");
+            users.add(userRepository.save(user));
+        }
+        for (ChatUser user : users) {
+            for (int i = 0; i < MESSAGES_PER_USER; i++) {
+                Message m = new Message();
+                m.setServerId(messageIdGenerator.nextId());
+                m.setChatRoom(room);
+                m.setChatUser(user);
+                m.setContent("hello " + i);
+                m.setSendTime(new Date());
+                messageRepository.save(m);
+
+                DirectMessage dm = new DirectMessage();
+                dm.setServerId(messageIdGenerator.nextId());
+                dm.setSender(user == users.get(0) ? users.get(1) : users.get(0));
+                dm.setReceiver(user == users.get(0) ? users.get(0) : users.get(1));
+                dm.setContent("dm " + i);
+                dm.setSendTime(new Date());
+                directMessageRepository.save(dm);
+            }
+        }
+        statistics.clear();
+    }
+
+    private long statementsOf(Runnable request) {
+        statistics.clear();
+        request.run();
+        return statistics.getPrepareStatementCount();
+    }
+
+    @Test
+    void roomHistoryUsesOneQueryForAllRows() {
+        HistoryPage[] page = new HistoryPage[1];
+        long statements = statementsOf(() -> page[0] = chatController.getHistoryPage(roomId, "user0", null, null, 50));
+
+        assertEquals(USERS * MESSAGES_PER_USER, page[0].getMessages().size());
+        assertEquals(2, statements); // uživatel (časová zóna) + stránka
+    }
+
+    @Test
+    void roomDeltaUsesOneQueryForAllRows() {
+        HistoryPage first = chatController.getHistoryPage(roomId, null, null, null, 1);
+        String oldest = chatController.getHistoryPage(roomId, null, Long.valueOf(first.getOldestId()), null, 50).getOldestId();
+
+        long statements = statementsOf(() -> chatController.getHistorySince(roomId, "user0", Long.valueOf(oldest), null));
+        assertEquals(2, statements);
+    }
+
+    @Test
+    void directHistoryUsesOneQueryForAllRows() {
+        List<List<PayloadMessage>> result = new ArrayList<>();
+        long statements = statementsOf(() -> result.add(chatController.getDirectHistory("user0", "user1")));
+
+        assertEquals(USERS * MESSAGES_PER_USER, result.get(0).size());
+        assertEquals(3, statements); // dva uživatelé + konverzace
+
+        assertEquals(3, statementsOf(() -> chatController.getDirectHistorySince("user0", "user1", null, 10)));
+    }
+
+    @Test
+    void unreadMessagesUseOneQueryForAllRows() {
+        List<List<PayloadMessage>> result = new ArrayList<>();
+        long statements = statementsOf(() -> result.add(chatController.getUnreadMessages("user1")));
+
+        assertEquals((USERS - 1) * MESSAGES_PER_USER, result.get(0).size());
+        assertEquals(2, statements);
+    }
+}
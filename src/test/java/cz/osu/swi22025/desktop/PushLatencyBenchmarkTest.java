@@ -0,0 +1,170 @@
+package cz.osu.swi22025.desktop;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.osu.swi22025.model.json.HistoryPage;
+import cz.osu.swi22025.model.json.PayloadMessage;
+import cz.osu.swi22025.model.json.SignupForm;
+import cz.osu.swi22025.model.UserRepository;
+import cz.osu.swi22025.service.UserService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Spouští se jen na vyžádání: mvn test -Dtest=PushLatencyBenchmarkTest -Dbenchmark=true
+// Latence od odeslání zprávy (POST /api/message) po doručení do desktop klienta:
+// původní 300 ms polling historie vs. SSE stream vs. STOMP.
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:pushlatencybenchmark",
+        "chat.outbox.enabled=false"
+})
+class PushLatencyBenchmarkTest {
+
+    private static final int MESSAGES = 100;
+    private static final int WARMUP = 10;
+    private static final long POLL_MS = 300; // jako historyPoller v ChatView
+
+    @LocalServerPort private int port;
+    @Autowired private UserService userService;
+    @Autowired private UserRepository userRepository;
+    @Autowired private TransactionTemplate transactionTemplate;
+    @MockitoBean private RabbitAdmin rabbitAdmin; // fronty uživatelů se tu nepoužívají
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Random random = new Random(42);
+
+    @Test
+    void pushBeatsPolling() throws Exception {
+        transactionTemplate.executeWithoutResult(tx -> {
+            userService.signup(new SignupForm("benchsender", "pw"));
+            userService.signup(new SignupForm("benchreceiver", "pw"));
+        });
+        UUID receiverId = userRepository.findByUsernameIgnoreCase("benchreceiver").orElseThrow().getUserId();
+        String baseUrl = "http://localhost:" + port;
+
+        long[] polling = measure("poll", onMessage -> {
+            Thread poller = new Thread(() -> poll(onMessage), "bench-poller");
+            poller.setDaemon(true);
+            poller.start();
+            return poller::interrupt;
+        });
+        long[] sse = measure("sse", onMessage ->
+                push(new EventStream(httpClient, objectMapper, baseUrl, receiverId.toString()), onMessage));
+        long[] stomp = measure("stomp", onMessage ->
+                push(new StompPushChannel(httpClient, objectMapper, baseUrl, "benchreceiver"), onMessage));
+
+        System.out.printf("Delivery latency over %d messages: polling p50 %.1f ms p95 %.1f ms max %.1f ms | "
+                        + "SSE p50 %.1f ms p95 %.1f ms max %.1f ms | STOMP p50 %.1f ms p95 %.1f ms max %.1f ms%n",
+                MESSAGES, millis(p(polling, 50)), millis(p(polling, 95)), millis(polling[polling.length - 1]),
+                millis(p(sse, 50)), millis(p(sse, 95)), millis(sse[sse.length - 1]),
+                millis(p(stomp, 50)), millis(p(stomp, 95)), millis(stomp[stomp.length - 1]));
+        assertTrue(p(stomp, 50) * 3 < p(polling, 50), "STOMP push should be at least 3x faster than polling");
+    }
+
+    private interface Receiver {
+        Runnable start(Consumer<PayloadMessage> onMessage) throws Exception;
+    }
+
+    private long[] measure(String label, Receiver receiver) throws Exception {
+        Map<String, Long> received = new ConcurrentHashMap<>();
+        Runnable stop = receiver.start(m -> received.putIfAbsent(m.getContent(), System.nanoTime()));
+        try {
+            long[] nanos = new long[MESSAGES];
+            for (int i = -WARMUP; i < MESSAGES; i++) {
+                // náhodná fáze vůči polleru
+                Thread.sleep(random.nextInt((int) POLL_MS));
+                String content = label + "-" + i;
+                long start = System.nanoTime();
+                send(content);
+                long deadline = start + TimeUnit.SECONDS.toNanos(5);
+                Long at;
+                while ((at = received.get(content)) == null) {
+                    assertTrue(System.nanoTime() < deadline, label + ": message " + content + " not delivered");
+                    Thread.sleep(0, 200_000);
+                }
+                if (i >= 0) nanos[i] = at - start;
+            }
+            Arrays.sort(nanos);
+            return nanos;
+        } finally {
+            stop.run();
+        }
+    }
+
+    private Runnable push(PushChannel channel, Consumer<PayloadMessage> onMessage) throws InterruptedException {
+        channel.addListener(new PushListener() {
+            @Override
+            public void onMessage(PayloadMessage message) {
+                onMessage.accept(message);
+            }
+        });
+        channel.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!channel.isConnected()) {
+            assertTrue(System.nanoTime() < deadline, "push channel did not connect");
+            Thread.sleep(10);
+        }
+        Thread.sleep(200); // SUBSCRIBE rámce dorazí po CONNECTED
+        return channel::stop;
+    }
+
+    // stejná delta jako ChatView.fetchHistoryDelta v 300 ms Timeline
+    private void poll(Consumer<PayloadMessage> onMessage) {
+        String after = null;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                String url = "http://localhost:" + port + "/api/history/since?chatRoomId=1" + (after == null ? "" : "&after=" + after);
+                HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder(URI.create(url)).GET().build(),
+                        HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() == 200) {
+                    HistoryPage page = objectMapper.readValue(response.body(), HistoryPage.class);
+                    page.getMessages().forEach(onMessage);
+                    if (page.getNewestId() != null) after = page.getNewestId();
+                }
+                Thread.sleep(POLL_MS);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                System.out.println("Bench poll failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void send(String content) throws Exception {
+        String body = objectMapper.writeValueAsString(Map.of(
+                "senderName", "benchsender", "receiverChatRoomId", "1", "content", content));
+        HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/message"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertTrue(response.statusCode() < 300, "send failed: " + response.statusCode());
+    }
+
+    private static long p(long[] sorted, int percentile) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+
+    private static double millis(double nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,88 @@
+package cz.osu.swi22025.model;
+
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Spouští se jen na vyžádání: mvn test -Dtest=UsernameLookupBenchmarkTest -Dbenchmark=true
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:usernamebenchmark")
+class UsernameLookupBenchmarkTest {
+
+    private static final int USERS = 1_000_000;
+    private static final int INSERT_BATCH = 10_000;
+    private static final int LOOKUPS = 50;
+
+    @Autowired private UserRepository userRepository;
+    @Autowired private JdbcTemplate jdbcTemplate;
+    @Autowired private EntityManager entityManager;
+    @Autowired private TransactionTemplate transactionTemplate;
+
+    @Test
+    void normalizedColumnBeatsLowerPredicate() {
+        seedUsers();
+
+        Random random = new Random(42);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < LOOKUPS; i++) names.add("BenchUser" + random.nextInt(USERS)); // jiná velikost písmen než v DB
+
+        long[] legacy = measure(names, name -> transactionTemplate.execute(tx -> entityManager
+                .createQuery("SELECT u FROM ChatUser u WHERE LOWER(u.username) = LOWER(:username)", ChatUser.class)
+                .setParameter("username", name)
+                .getSingleResult()), 1);
+        long[] normalized = measure(names, userRepository::findChatUserByUsernameIgnoreCase, 2_000);
+        System.out.printf("Username lookup over %,d users: LOWER() p50 %.3f ms avg %.3f ms | normalized p50 %.3f ms avg %.3f ms%n",
+                USERS, millis(p50(legacy)), millis(avg(legacy)), millis(p50(normalized)), millis(avg(normalized)));
+        assertTrue(p50(normalized) * 10 < p50(legacy), "normalized lookup should be at least 10x faster");
+    }
+
+    private void seedUsers() {
+        for (int from = 0; from < USERS; from += INSERT_BATCH) {
+            List<Object[]> rows = new ArrayList<>(INSERT_BATCH);
+            for (int i = from; i < from + INSERT_BATCH; i++) {
+                String username = "benchuser" + i;
+                rows.add(new Object[]{UUID.randomUUID(), username, "pw", "UTC", ChatUser.normalizeUsername(username)});
+            }
+            jdbcTemplate.batchUpdate("INSERT INTO chat_user (user_id, username, password, timezone, username_normalized) " +
+                    "VALUES (?, ?, ?, ?, ?)", rows);
+        }
+    }
+
+    private static long[] measure(List<String> names, Function<String, ChatUser> lookup, int warmup) {
+        for (int i = 0; i < warmup; i++) assertNotNull(lookup.apply(names.get(i % names.size()))); // JIT
+        long[] nanos = new long[names.size()];
+        for (int i = 0; i < names.size(); i++) {
+            long start = System.nanoTime();
+            assertNotNull(lookup.apply(names.get(i)));
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        return nanos;
+    }
+
+    private static long p50(long[] sorted) {
+        return sorted[sorted.length / 2];
+    }
+
+    private static double avg(long[] values) {
+        return Arrays.stream(values).average().orElse(0);
+    }
+
+    private static double millis(double nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
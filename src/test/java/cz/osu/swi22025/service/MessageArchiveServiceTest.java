@@ -0,0 +1,112 @@
+package cz.osu.swi22025.service;
+
+import cz.osu.swi22025.controller.ChatController;
+import cz.osu.swi22025.model.*;
+import cz.osu.swi22025.model.json.PayloadMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+// Archivace po úsecích o dvou zprávách; nepřečtená DM zůstane v historii, badge zmizí
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:archive",
+        "chat.archive.chunk-size=2",
+        "chat.history-cache.enabled=false",
+        "chat.outbox.enabled=false"
+})
+class MessageArchiveServiceTest {
+
+    @Autowired private MessageArchiveService archiveService;
+    @Autowired private ChatMessageService chatMessageService;
+    @Autowired private ChatController chatController;
+    @Autowired private UserRepository userRepository;
+    @Autowired private DirectMessageRepository directMessageRepository;
+    @Autowired private ChatRoomRepository chatRoomRepository;
+    @Autowired private MessageRepository messageRepository;
+
+    private ChatUser alice;
+    private ChatUser bob;
+
+    @BeforeEach
+    void setUp() {
+        alice = user("archalice");
+        bob = user("archbob");
+    }
+
+    private ChatUser user(String username) {
+        ChatUser existing = userRepository.findChatUserByUsernameIgnoreCase(username);
+        if (existing != null) return existing;
+        ChatUser user = new ChatUser();
+        user.setUsername(username);
+        user.setPassword("pw");
+        return userRepository.save(user);
+    }
+
+    private void send(long serverId, String content) {
+        DirectMessage dm = new DirectMessage();
+        dm.setServerId(serverId);
+        dm.setSender(alice);
+        dm.setReceiver(bob);
+        dm.setContent(content);
+        dm.setSendTime(Date.from(MessageIdGenerator.timestampOf(serverId)));
+        PayloadMessage payload = new PayloadMessage();
+        payload.setId(String.valueOf(serverId));
+        payload.setSenderName("archalice");
+        payload.setReceiverName("archbob");
+        payload.setContent(content);
+        chatMessageService.saveDirectMessage(dm, payload);
+    }
+
+    @Test
+    void archivingUnreadDirectMessageClearsItsBadge() {
+        YearMonth month = YearMonth.now(ZoneOffset.UTC).minusMonths(12);
+        long first = MessagePartitionService.firstIdOf(month);
+        send(first + 1, "old unread");
+        send(first + 2, "old unread too");
+        assertEquals(2, chatController.getUnreadCounts("archbob").getTotal());
+
+        assertEquals(2, archiveService.archiveMonth(month));
+
+        assertEquals(0, chatController.getUnreadCounts("archbob").getTotal());
+        String key = DirectMessage.conversationKey(alice.getUserId(), bob.getUserId());
+        assertEquals(0, directMessageRepository.findConversation(key).size());
+        List<MessageRow> archived = archiveService.conversationBefore(key, null, 10);
+        assertEquals(2, archived.size());
+        assertFalse(archived.get(0).read());
+    }
+
+    @Test
+    void roomMonthMovesToArchiveChunkByChunk() {
+        ChatRoom room = new ChatRoom();
+        room.setChatName("archived");
+        room = chatRoomRepository.save(room);
+        YearMonth month = YearMonth.now(ZoneOffset.UTC).minusMonths(10);
+        long first = MessagePartitionService.firstIdOf(month);
+        for (int i = 1; i <= 5; i++) {
+            Message m = new Message();
+            m.setServerId(first + i);
+            m.setChatRoom(room);
+            m.setChatUser(alice);
+            m.setContent("old " + i);
+            m.setSendTime(Date.from(MessageIdGenerator.timestampOf(first + i)));
+            messageRepository.save(m);
+        }
+
+        assertEquals(5, archiveService.archiveMonth(month));
+
+        assertEquals(0, messageRepository.countByChatRoom_ChatId(room.getChatId()));
+        List<PayloadMessage> history = chatController.getHistoryPage(
+                String.valueOf(room.getChatId()), null, null, null, 50).getMessages();
+        assertEquals(List.of("old 1", "old 2", "old 3", "old 4", "old 5"),
+                history.stream().map(PayloadMessage::getContent).toList());
+    }
+}
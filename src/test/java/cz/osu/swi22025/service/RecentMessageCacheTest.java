@@ -0,0 +1,133 @@
+package cz.osu.swi22025.service;
+
+import cz.osu.swi22025.model.json.PayloadMessage;
+import cz.osu.swi22025.service.RecentMessageCache.CachedMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Bez Spring kontextu: místnost 1 má kapacitu 3, ostatní 5
+class RecentMessageCacheTest {
+
+    private static final Integer ROOM = 1;
+
+    private final RecentMessageCache cache = new RecentMessageCache(
+            new TimezoneService(), new SimpleMeterRegistry(), true, 5, "1:3");
+
+    private static CachedMessage message(long serverId, String sender) {
+        PayloadMessage payload = new PayloadMessage();
+        payload.setId(String.valueOf(serverId));
+        payload.setSenderName(sender);
+        payload.setContent("m" + serverId);
+        return new CachedMessage(serverId, Instant.now(), payload);
+    }
+
+    private static List<CachedMessage> messages(long... serverIds) {
+        List<CachedMessage> result = new ArrayList<>();
+        for (long id : serverIds) result.add(message(id, "cachealice"));
+        return result;
+    }
+
+    private static List<Long> ids(List<CachedMessage> messages) {
+        return messages.stream().map(CachedMessage::serverId).toList();
+    }
+
+    @Test
+    void coldBufferMissesUntilWarmed() {
+        assertFalse(cache.isWarm(ROOM));
+        assertNull(cache.before(ROOM, null, 2));
+        assertNull(cache.after(ROOM, 0, 2));
+
+        cache.warm(ROOM, messages(10, 20), true);
+
+        assertTrue(cache.isWarm(ROOM));
+        assertEquals(List.of(10L, 20L), ids(cache.before(ROOM, null, 2)));
+    }
+
+    @Test
+    void warmKeepsMessagesAppendedBeforeIt() {
+        cache.append(ROOM, message(30, "cachealice"));
+        cache.warm(ROOM, messages(10, 20), true);
+
+        assertEquals(List.of(10L, 20L, 30L), ids(cache.before(ROOM, null, 3)));
+    }
+
+    @Test
+    void completeRoomAnswersShortPagesFromBuffer() {
+        cache.warm(ROOM, messages(10, 20), true);
+
+        // v DB nic staršího není – kratší stránka je celá odpověď
+        assertEquals(List.of(10L, 20L), ids(cache.before(ROOM, null, 50)));
+        assertEquals(List.of(10L), ids(cache.before(ROOM, 20L, 50)));
+        assertEquals(List.of(10L, 20L), ids(cache.after(ROOM, 0, 50)));
+    }
+
+    @Test
+    void incompleteRoomMissesBeyondOldestMessage() {
+        cache.warm(ROOM, messages(10, 20), false);
+
+        assertEquals(List.of(20L), ids(cache.before(ROOM, null, 1)));
+        assertNull(cache.before(ROOM, 20L, 2));   // starší zprávy jsou jen v DB
+        assertNull(cache.after(ROOM, 5, 10));     // mezi 5 a 10 může něco chybět
+        assertEquals(List.of(20L), ids(cache.after(ROOM, 10, 10)));
+    }
+
+    @Test
+    void evictionDropsOldestAndClearsComplete() {
+        cache.warm(ROOM, messages(10, 20, 30), true);
+        cache.append(ROOM, message(40, "cachealice"));
+
+        assertEquals(List.of(20L, 30L, 40L), ids(cache.before(ROOM, null, 3)));
+        assertNull(cache.before(ROOM, null, 4));  // 10 vypadla, buffer už není celá místnost
+        assertNull(cache.after(ROOM, 10, 10));
+        assertEquals(List.of(30L, 40L), ids(cache.after(ROOM, 20, 10)));
+    }
+
+    @Test
+    void warmAfterEvictionKeepsNewerWritesOnly() {
+        for (long id = 10; id <= 50; id += 10) cache.append(ROOM, message(id, "cachealice"));
+        cache.warm(ROOM, messages(1, 2), true);
+
+        assertEquals(List.of(30L, 40L, 50L), ids(cache.before(ROOM, null, 3)));
+        assertNull(cache.before(ROOM, 30L, 1));
+    }
+
+    @Test
+    void outOfOrderAppendIsSortedAndDeduplicated() {
+        cache.warm(ROOM, messages(10, 30), true);
+        cache.append(ROOM, message(20, "cachealice"));
+        cache.append(ROOM, message(20, "cachealice"));
+
+        assertEquals(List.of(10L, 20L, 30L), ids(cache.before(ROOM, null, 10)));
+    }
+
+    @Test
+    void evictForgetsRoom() {
+        cache.warm(ROOM, messages(10), true);
+        cache.evict(ROOM);
+
+        assertFalse(cache.isWarm(ROOM));
+        assertNull(cache.before(ROOM, null, 1));
+    }
+
+    @Test
+    void updateSenderAvatarReplacesPayloadCopies() {
+        CachedMessage own = message(10, "CacheBob");
+        cache.warm(ROOM, List.of(own, message(20, "cachealice")), true);
+
+        cache.updateSenderAvatar("cachebob", "/avatars/new.png");
+
+        List<CachedMessage> page = cache.before(ROOM, null, 2);
+        assertEquals("/avatars/new.png", page.get(0).payload().getSenderAvatarUrl());
+        assertNull(page.get(1).payload().getSenderAvatarUrl());
+        assertNull(own.payload().getSenderAvatarUrl());  // původní payload zůstal beze změny
+    }
+}
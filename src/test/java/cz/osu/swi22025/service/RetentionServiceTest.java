@@ -0,0 +1,119 @@
+package cz.osu.swi22025.service;
+
+import cz.osu.swi22025.controller.ChatController;
+import cz.osu.swi22025.model.*;
+import cz.osu.swi22025.model.json.PayloadMessage;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Dávka 2 řádky – každý úklid tu projde několik dávek; plánovač je vypnutý, enforce() volá test
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:retention",
+        "chat.history-cache.enabled=false",
+        "chat.outbox.enabled=false",
+        "chat.retention.cron=-",
+        "chat.retention.room.max-count=3",
+        "chat.retention.direct.max-age=30d",
+        "chat.retention.direct.max-count=2",
+        "chat.retention.batch-size=2",
+        "chat.retention.batch-pause-ms=0"
+})
+class RetentionServiceTest {
+
+    @Autowired private RetentionService retentionService;
+    @Autowired private ChatMessageService chatMessageService;
+    @Autowired private ChatController chatController;
+    @Autowired private UserRepository userRepository;
+    @Autowired private ChatRoomRepository chatRoomRepository;
+    @Autowired private MessageRepository messageRepository;
+    @Autowired private DirectMessageRepository directMessageRepository;
+    @Autowired private MessageIdGenerator messageIdGenerator;
+
+    private ChatUser user(String username) {
+        ChatUser existing = userRepository.findChatUserByUsernameIgnoreCase(username);
+        if (existing != null) return existing;
+        ChatUser user = new ChatUser();
+        user.setUsername(username);
+        user.setPassword("pw");
+        return userRepository.save(user);
+    }
+
+    private void send(ChatUser sender, ChatUser receiver, long serverId) {
+        DirectMessage dm = new DirectMessage();
+        dm.setServerId(serverId);
+        dm.setSender(sender);
+        dm.setReceiver(receiver);
+        dm.setContent("dm " + serverId);
+        dm.setSendTime(Date.from(MessageIdGenerator.timestampOf(serverId)));
+        PayloadMessage payload = new PayloadMessage();
+        payload.setId(String.valueOf(serverId));
+        payload.setSenderName(sender.getUsername());
+        payload.setReceiverName(receiver.getUsername());
+        payload.setContent(dm.getContent());
+        chatMessageService.saveDirectMessage(dm, payload);
+    }
+
+    private List<MessageRow> conversation(ChatUser a, ChatUser b) {
+        return directMessageRepository.findConversation(DirectMessage.conversationKey(a.getUserId(), b.getUserId()));
+    }
+
+    @Test
+    void roomMaxCountKeepsNewestMessages() {
+        ChatUser author = user("retroom");
+        ChatRoom room = new ChatRoom();
+        room.setChatName("retention");
+        room = chatRoomRepository.save(room);
+        for (int i = 0; i < 7; i++) {
+            Message m = new Message();
+            m.setServerId(messageIdGenerator.nextId());
+            m.setChatRoom(room);
+            m.setChatUser(author);
+            m.setContent("hello " + i);
+            m.setSendTime(new Date());
+            messageRepository.save(m);
+        }
+
+        retentionService.enforce();
+
+        List<MessageRow> left = messageRepository.findLatestPage(room.getChatId(), PageRequest.of(0, 10));
+        assertEquals(3, left.size());
+        assertEquals(List.of("hello 6", "hello 5", "hello 4"), left.stream().map(MessageRow::content).toList());
+    }
+
+    @Test
+    void directMaxCountDeletesOldestAndDecrementsCounter() {
+        ChatUser sender = user("retsender");
+        ChatUser receiver = user("retreceiver");
+        for (int i = 0; i < 5; i++) send(sender, receiver, messageIdGenerator.nextId());
+        assertEquals(5, chatController.getUnreadCounts("retreceiver").getTotal());
+
+        retentionService.enforce();
+
+        assertEquals(2, conversation(sender, receiver).size());
+        assertEquals(2, chatController.getUnreadCounts("retreceiver").getTotal());
+    }
+
+    @Test
+    void directMaxAgeDeletesExpiredUnreadMessages() {
+        ChatUser sender = user("retold");
+        ChatUser receiver = user("retoldreceiver");
+        long old = MessageIdGenerator.firstIdAt(Instant.now().minus(Duration.ofDays(60)));
+        for (int i = 1; i <= 3; i++) send(sender, receiver, old + i);
+        send(sender, receiver, messageIdGenerator.nextId());
+        assertEquals(4, chatController.getUnreadCounts("retoldreceiver").getTotal());
+
+        retentionService.enforce();
+
+        assertEquals(1, conversation(sender, receiver).size());
+        assertEquals(1, chatController.getUnreadCounts("retoldreceiver").getTotal());
+    }
+}
@@ -0,0 +1,69 @@
+package cz.osu.swi22025.service;
+
+import cz.osu.swi22025.model.*;
+import cz.osu.swi22025.model.json.RoomSummary;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Vlastní zprávy autora se do nepřečtených místnosti nepočítají, ostatním členům ano
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:roomread",
+        "chat.history-cache.enabled=false",
+        "chat.outbox.enabled=false"
+})
+class RoomReadStateTest {
+
+    @Autowired private DbService dbService;
+    @Autowired private MessagePersistenceService persistenceService;
+    @Autowired private UserRepository userRepository;
+    @Autowired private ChatRoomRepository chatRoomRepository;
+    @Autowired private MessageIdGenerator messageIdGenerator;
+
+    private ChatUser member(String username, ChatRoom room) {
+        ChatUser user = new ChatUser();
+        user.setUsername(username);
+        user.setPassword("pw");
+        user.addRoom(room);
+        return userRepository.save(user);
+    }
+
+    private void send(ChatRoom room, ChatUser author, String content) {
+        Message m = new Message();
+        m.setServerId(messageIdGenerator.nextId());
+        m.setChatRoom(room);
+        m.setChatUser(author);
+        m.setContent(content);
+        m.setSendTime(new Date());
+        persistenceService.persist(m);
+    }
+
+    private long unread(String username, ChatRoom room) {
+        return dbService.getRoomSummaries(username).getBody().stream()
+                .filter(s -> s.getChatId().equals(room.getChatId()))
+                .findFirst().map(RoomSummary::getUnreadCount).orElseThrow();
+    }
+
+    @Test
+    void ownMessagesAreNotUnread() {
+        ChatRoom room = new ChatRoom();
+        room.setChatName("readstate");
+        room = chatRoomRepository.save(room);
+        ChatUser author = member("readauthor", room);
+        member("readpeer", room);
+
+        for (int i = 0; i < 3; i++) send(room, author, "hello " + i);
+
+        assertEquals(0, unread("readauthor", room));
+        assertEquals(3, unread("readpeer", room));
+
+        dbService.markRoomRead("readpeer", room.getChatId());
+        send(room, author, "again");
+        assertEquals(0, unread("readauthor", room));
+        assertEquals(1, unread("readpeer", room));
+    }
+}
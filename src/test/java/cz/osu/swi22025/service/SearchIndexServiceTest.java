@@ -0,0 +1,145 @@
+package cz.osu.swi22025.service;
+
+import cz.osu.swi22025.model.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Bean indexu je vypnutý; test si staví vlastní instance nad dočasným adresářem segmentů
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:searchindex",
+        "chat.history-cache.enabled=false",
+        "chat.outbox.enabled=false",
+        "chat.search.enabled=false"
+})
+class SearchIndexServiceTest {
+
+    @Autowired private MessageRepository messageRepository;
+    @Autowired private DirectMessageRepository directMessageRepository;
+    @Autowired private MessageArchiveService messageArchiveService;
+    @Autowired private UserRepository userRepository;
+    @Autowired private ChatRoomRepository chatRoomRepository;
+    @Autowired private MessageIdGenerator messageIdGenerator;
+
+    @TempDir Path indexDir;
+
+    private ChatUser alice;
+    private ChatUser bob;
+    private ChatUser eve;
+    private static ChatRoom room;  // sdílená DB kontextu – data se založí jednou
+
+    @BeforeEach
+    void setUp() {
+        alice = user("searchalice");
+        bob = user("searchbob");
+        eve = user("searcheve");
+        if (room != null) return;
+        room = new ChatRoom();
+        room.setChatName("searchroom");
+        room = chatRoomRepository.save(room);
+        post("Příliš žluťoučký kůň");
+        sendDirect("tajný plán na sobotu");
+    }
+
+    private ChatUser user(String username) {
+        ChatUser existing = userRepository.findChatUserByUsernameIgnoreCase(username);
+        if (existing != null) return existing;
+        ChatUser user = new ChatUser();
+        user.setUsername(username);
+        user.setPassword("pw");
+        return userRepository.save(user);
+    }
+
+    private long post(String content) {
+        Message m = new Message();
+        m.setServerId(messageIdGenerator.nextId());
+        m.setChatRoom(room);
+        m.setChatUser(alice);
+        m.setContent(content);
+        m.setSendTime(new Date());
+        return messageRepository.save(m).getServerId();
+    }
+
+    private void sendDirect(String content) {
+        DirectMessage dm = new DirectMessage();
+        dm.setServerId(messageIdGenerator.nextId());
+        dm.setSender(alice);
+        dm.setReceiver(bob);
+        dm.setContent(content);
+        dm.setSendTime(new Date());
+        directMessageRepository.save(dm);
+    }
+
+    private SearchIndexService index() {
+        SearchIndexService index = new SearchIndexService(messageRepository, directMessageRepository,
+                messageArchiveService, new SimpleMeterRegistry(), true, indexDir.toString(), 10);
+        index.load();
+        return index;
+    }
+
+    private static List<String> search(SearchIndexService index, String text, UUID userId, Integer chatId) {
+        return index.search(new SearchIndexService.Query(text, userId, chatId, null, null, null, null, null, 10))
+                .rows().stream().map(MessageRow::content).toList();
+    }
+
+    @Test
+    void tokenizeFoldsCaseAndDiacritics() {
+        assertEquals(List.of("prilis", "zlutoucky", "kun"), SearchIndexService.tokenize("Příliš ŽLUŤOUČKÝ kůň!"));
+    }
+
+    @Test
+    void searchIgnoresDiacritics() {
+        SearchIndexService index = index();
+
+        assertEquals(List.of("Příliš žluťoučký kůň"), search(index, "prilis KUN", alice.getUserId(), null));
+        assertEquals(List.of("Příliš žluťoučký kůň"), search(index, "žluťoučký", null, room.getChatId()));
+    }
+
+    @Test
+    void directMessagesAreVisibleOnlyToParticipants() {
+        SearchIndexService index = index();
+
+        assertEquals(List.of("tajný plán na sobotu"), search(index, "tajny", alice.getUserId(), null));
+        assertEquals(List.of("tajný plán na sobotu"), search(index, "tajny", bob.getUserId(), null));
+        assertEquals(List.of(), search(index, "tajny", eve.getUserId(), null));
+        assertEquals(List.of(), search(index, "tajny", null, null));
+    }
+
+    @Test
+    void segmentsAreReloadedOnStart() {
+        long serverId = post("segment reload");
+        SearchIndexService first = index();
+        // term jen v segmentu – v DB ho zpráva nemá, najde ho tedy jen načtený segment
+        first.add(new SearchDocRow(serverId, room.getChatId(), null, "searchalice", "segment reload kometa", null));
+        first.flush();
+
+        SearchIndexService reloaded = index();
+
+        assertEquals(List.of("segment reload"), search(reloaded, "kometa", alice.getUserId(), null));
+    }
+
+    @Test
+    void mismatchedSegmentsAreRebuiltFromDatabase() {
+        SearchIndexService first = index();
+        // segment z předchozí DB (create-drop): nejnovější ID v nové DB neexistuje
+        first.add(new SearchDocRow(Long.MAX_VALUE - 1, room.getChatId(), null, "searchalice", "duch", null));
+        first.flush();
+
+        SearchIndexService rebuilt = index();
+
+        assertEquals(List.of(), search(rebuilt, "duch", alice.getUserId(), null));
+        assertEquals(List.of("Příliš žluťoučký kůň"), search(rebuilt, "kun", alice.getUserId(), null));
+        assertTrue(rebuilt.size() >= 2);
+    }
+}
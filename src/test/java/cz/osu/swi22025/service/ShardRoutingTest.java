@@ -0,0 +1,124 @@
+package cz.osu.swi22025.service;
+
+import cz.osu.swi22025.controller.ChatController;
+import cz.osu.swi22025.model.*;
+import cz.osu.swi22025.model.json.PayloadMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Tři H2 databáze: primární (shard 0) a dva shardy zpráv
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:shardprimary;DB_CLOSE_DELAY=-1",
+        "chat.sharding.shards=jdbc:h2:mem:shard1;DB_CLOSE_DELAY=-1,jdbc:h2:mem:shard2;DB_CLOSE_DELAY=-1",
+        "chat.history-cache.enabled=false"
+})
+class ShardRoutingTest {
+
+    @Autowired private ShardService shardService;
+    @Autowired private RoomRebalanceService rebalanceService;
+    @Autowired private ChatController chatController;
+    @Autowired private UserRepository userRepository;
+    @Autowired private ChatRoomRepository chatRoomRepository;
+    @Autowired private MessageRepository messageRepository;
+    @Autowired private DirectMessageRepository directMessageRepository;
+    @Autowired private MessageIdGenerator messageIdGenerator;
+
+    private ChatUser alice;
+    private ChatUser bob;
+
+    @BeforeEach
+    void setUp() {
+        alice = user("alice");
+        bob = user("bob");
+    }
+
+    private ChatUser user(String username) {
+        ChatUser existing = userRepository.findChatUserByUsernameIgnoreCase(username);
+        if (existing != null) return existing;
+        ChatUser user = new ChatUser();
+        user.setUsername(username);
+        user.setPassword("pw");
+        return userRepository.save(user);
+    }
+
+    private ChatRoom room(String name) {
+        ChatRoom room = new ChatRoom();
+        room.setChatName(name);
+        return chatRoomRepository.save(room);
+    }
+
+    private void post(ChatRoom room, int count) {
+        for (int i = 0; i < count; i++) {
+            Message m = new Message();
+            m.setServerId(messageIdGenerator.nextId());
+            m.setChatRoom(room);
+            m.setChatUser(alice);
+            m.setContent("hello " + i);
+            m.setSendTime(new Date());
+            messageRepository.save(m);
+        }
+    }
+
+    private long count(int shard, String sql, Object arg) {
+        return new JdbcTemplate(shardService.dataSource(shard)).queryForObject(sql, Long.class, arg);
+    }
+
+    private long roomRows(int shard, ChatRoom room) {
+        return count(shard, "SELECT COUNT(*) FROM message WHERE chat_id = ?", room.getChatId());
+    }
+
+    @Test
+    void roomMessagesLiveOnlyOnTheirShard() {
+        ChatRoom room = room("sharded");
+        post(room, 3);
+
+        int shard = shardService.roomShard(room.getChatId());
+        for (int s = 0; s < shardService.shardCount(); s++) {
+            assertEquals(s == shard ? 3 : 0, roomRows(s, room));
+        }
+        assertEquals(3, chatController.getHistoryPage(String.valueOf(room.getChatId()), "alice", null, null, 50)
+                .getMessages().size());
+    }
+
+    @Test
+    void directMessagesFollowConversationKey() {
+        DirectMessage dm = new DirectMessage();
+        dm.setServerId(messageIdGenerator.nextId());
+        dm.setSender(alice);
+        dm.setReceiver(bob);
+        dm.setContent("hi");
+        dm.setSendTime(new Date());
+        directMessageRepository.save(dm);
+
+        String key = DirectMessage.conversationKey(alice.getUserId(), bob.getUserId());
+        int shard = shardService.conversationShard(key);
+        assertEquals(1, count(shard, "SELECT COUNT(*) FROM direct_message WHERE conversation_key = ?", key));
+
+        List<PayloadMessage> history = chatController.getDirectHistory("alice", "bob");
+        assertEquals(1, history.size());
+    }
+
+    @Test
+    void rebalancerMovesRoomBetweenShards() {
+        ChatRoom room = room("moving");
+        post(room, 5);
+        int source = shardService.roomShard(room.getChatId());
+        int target = (source + 1) % shardService.shardCount();
+
+        assertEquals(5, rebalanceService.moveRoom(room.getChatId(), target));
+
+        assertEquals(target, shardService.roomShard(room.getChatId()));
+        assertEquals(0, roomRows(source, room));
+        assertEquals(5, roomRows(target, room));
+        assertEquals(5, chatController.getHistoryPage(String.valueOf(room.getChatId()), "alice", null, null, 50)
+                .getMessages().size());
+    }
+}